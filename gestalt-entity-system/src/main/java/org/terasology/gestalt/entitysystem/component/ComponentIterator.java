@@ -41,4 +41,45 @@
      */
     void getComponent(Component<T> component);
 
+    /**
+     * Advances the iterator over a block of entities, writing their ids into the provided array. This allows the
+     * cost of iteration to be amortised over the block. Afterwards the current entity is the last entity in the
+     * block.
+     *
+     * @param entityIds The array to fill with entity ids
+     * @return The number of entity ids written, which is only less than the length of the array when iteration is
+     * complete
+     */
+    default int nextBlock(int[] entityIds) {
+        int count = 0;
+        while (count < entityIds.length && next()) {
+            entityIds[count++] = getEntityId();
+        }
+        return count;
+    }
+
+    /**
+     * Provides the stored component for the current entity directly, without copying it. The borrowed component
+     * must not be modified, and should not be retained beyond the current iteration step.
+     *
+     * @return The stored component for the current entity
+     * @throws UnsupportedOperationException If the iterated store does not support borrowing
+     * @see org.terasology.gestalt.entitysystem.component.store.ComponentStore#borrowRead(int)
+     */
+    default T borrowRead() {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support borrowing components");
+    }
+
+    /**
+     * Provides the stored component for the current entity directly, without copying it, for modification in place.
+     * The component is treated as changed. It should not be retained beyond the current iteration step.
+     *
+     * @return The stored component for the current entity
+     * @throws UnsupportedOperationException If the iterated store does not support borrowing
+     * @see org.terasology.gestalt.entitysystem.component.store.ComponentStore#borrowWrite(int)
+     */
+    default T borrowWrite() {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support borrowing components");
+    }
+
 }
@@ -20,13 +20,27 @@
 
 import org.terasology.gestalt.entitysystem.component.Component;
 
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
 /**
  * ComponentType provides type information for a component, including reflection-like functionality to create, copy and access the properties of a component instance.
+ * <p>
+ * Each component class is also assigned a small integer id, shared by all ComponentTypes for that class. Ids are
+ * assigned densely from 0 in the order classes are first seen, so they can be used to index arrays in place of maps
+ * keyed by class.
  */
 public final class ComponentType<T extends Component> {
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+    private static final ClassValue<Integer> IDS = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            return NEXT_ID.getAndIncrement();
+        }
+    };
+
+    private final int id;
     private final Class<T> type;
     private final Supplier<T> constructor;
     private final Function<T, T> copyConstructor;
@@ -44,12 +58,28 @@ public ComponentType(Class<T> type, Supplier<T> constructor, Function<T, T> copy
         Preconditions.checkNotNull(type);
         Preconditions.checkNotNull(constructor);
         Preconditions.checkNotNull(copyConstructor);
+        this.id = getId(type);
         this.type = type;
         this.constructor = constructor;
         this.copyConstructor = copyConstructor;
         this.propertyInfo = propertyInfo;
     }
 
+    /**
+     * @param type A component class
+     * @return The id of the component class
+     */
+    public static int getId(Class<? extends Component> type) {
+        return IDS.get(type);
+    }
+
+    /**
+     * @return The id of the component class this ComponentType is for
+     */
+    public int getId() {
+        return id;
+    }
+
     /**
      * @return A new instance of this component
      */
@@ -79,6 +109,14 @@ public ComponentPropertyInfo<T> getPropertyInfo() {
         return propertyInfo;
     }
 
+    /**
+     * @return Whether the component has no properties. All instances of such a component are equivalent, so they can
+     * be shared, and a store only needs to record which entities have the component.
+     */
+    public boolean isSingleton() {
+        return propertyInfo.getProperties().isEmpty();
+    }
+
 }
 
 
@@ -72,6 +72,16 @@ public boolean get(int entityId, T into) {
         return false;
     }
 
+    @Override
+    public T borrowRead(int entityId) {
+        return store[entityId];
+    }
+
+    @Override
+    public T borrowWrite(int entityId) {
+        return store[entityId];
+    }
+
     @Override
     public boolean set(int entityId, T component) {
         if (store[entityId] == null) {
@@ -124,11 +134,36 @@ public boolean next() {
             return index < endIndex;
         }
 
+        @Override
+        public int nextBlock(int[] entityIds) {
+            T[] components = store;
+            int limit = Math.min(endIndex, components.length);
+            int count = 0;
+            int i = index + 1;
+            for (; i < limit && count < entityIds.length; ++i) {
+                if (components[i] != null) {
+                    entityIds[count++] = i;
+                }
+            }
+            index = (count > 0) ? entityIds[count - 1] : i;
+            return count;
+        }
+
         @Override
         public void getComponent(Component<T> component) {
             component.copy(store[index]);
         }
 
+        @Override
+        public T borrowRead() {
+            return store[index];
+        }
+
+        @Override
+        public T borrowWrite() {
+            return store[index];
+        }
+
         @Override
         public int getEntityId() {
             return index;
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.component.store;
+
+import org.terasology.gestalt.entitysystem.component.Component;
+import org.terasology.gestalt.entitysystem.component.ComponentIterator;
+import org.terasology.gestalt.entitysystem.component.management.ComponentType;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * ChangeTrackingComponentStore wraps another ComponentStore, recording the tick at which each entity's component was
+ * last set, borrowed for writing or removed. This allows processes such as network synchronization to visit only the
+ * entities that changed since they last ran, through {@link #iterateChangedSince(int)}, without any events being
+ * produced.
+ * <p>
+ * The store has a current tick, starting at 1, which is advanced by {@link #advanceTick()}. Changes are stamped with
+ * the current tick, and tick 0 is reserved for entities that have never changed. A process that wants to see every
+ * change exactly once would typically start with a lastTick of 0, and each time it runs do:
+ * <pre>
+ * int from = lastTick;
+ * lastTick = store.advanceTick();
+ * ChangeIterator&lt;T&gt; changes = store.iterateChangedSince(from);
+ * </pre>
+ * <p>
+ * Ticks are also recorded per block of entity ids, so iterating changes skips blocks where nothing has changed.
+ * All interaction with the store must be through the wrapping store for changes to be tracked. This store is not
+ * thread safe.
+ *
+ * @param <T> The type of component stored in this store.
+ */
+public class ChangeTrackingComponentStore<T extends Component<T>> implements ComponentStore<T> {
+
+    private static final int BLOCK_SHIFT = 6;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+    private final ComponentStore<T> store;
+    private int currentTick = 1;
+    private int[] entityTicks = new int[0];
+    private int[] blockTicks = new int[0];
+
+    /**
+     * @param store The store to wrap
+     */
+    public ChangeTrackingComponentStore(ComponentStore<T> store) {
+        this.store = store;
+    }
+
+    @Override
+    public ComponentType<T> getType() {
+        return store.getType();
+    }
+
+    @Override
+    public boolean has(int entityId) {
+        return store.has(entityId);
+    }
+
+    @Override
+    public boolean get(int entityId, T into) {
+        return store.get(entityId, into);
+    }
+
+    @Override
+    public T borrowRead(int entityId) {
+        return store.borrowRead(entityId);
+    }
+
+    @Override
+    public T borrowWrite(int entityId) {
+        T borrowed = store.borrowWrite(entityId);
+        if (borrowed != null) {
+            markChanged(entityId);
+        }
+        return borrowed;
+    }
+
+    @Override
+    public boolean set(int entityId, T component) {
+        boolean result = store.set(entityId, component);
+        markChanged(entityId);
+        return result;
+    }
+
+    @Override
+    public T remove(int entityId) {
+        T removed = store.remove(entityId);
+        if (removed != null) {
+            markChanged(entityId);
+        }
+        return removed;
+    }
+
+    @Override
+    public int iterationCost() {
+        return store.iterationCost();
+    }
+
+    @Override
+    public int estimateSize() {
+        return store.estimateSize();
+    }
+
+    @Override
+    public void extend(int capacity) {
+        store.extend(capacity);
+        ensureCapacity(capacity);
+    }
+
+    @Override
+    public ComponentIterator<T> iterate() {
+        return new ChangeMarkingIterator(store.iterate());
+    }
+
+    @Override
+    public Optional<PropertyIndex> getPropertyIndex(String propertyName) {
+        return store.getPropertyIndex(propertyName);
+    }
+
+    /**
+     * @return The tick changes are currently stamped with
+     */
+    public int getCurrentTick() {
+        return currentTick;
+    }
+
+    /**
+     * Starts a new tick. Changes made from now on are stamped with the new tick.
+     *
+     * @return The new current tick
+     */
+    public int advanceTick() {
+        return ++currentTick;
+    }
+
+    /**
+     * @param entityId The id of the entity
+     * @return The tick at which the entity's component was last changed, or 0 if it has never been changed
+     */
+    public int getChangeTick(int entityId) {
+        return (entityId >= 0 && entityId < entityTicks.length) ? entityTicks[entityId] : 0;
+    }
+
+    /**
+     * Iterates over the entities whose component was changed at or after the given tick. This includes entities whose
+     * component has since been removed - see {@link ChangeIterator#isRemoved()}. Entities that have never changed are
+     * not included, even from tick 0.
+     *
+     * @param tick The earliest tick of changes to include
+     * @return An iterator over the changed entities
+     */
+    public ChangeIterator<T> iterateChangedSince(int tick) {
+        // Tick 0 marks entities that have never changed, so is never included
+        return new ChangeIterator<>(store, entityTicks, blockTicks, Math.max(tick, 1));
+    }
+
+    private void markChanged(int entityId) {
+        if (entityId >= entityTicks.length) {
+            ensureCapacity(Math.max(entityId + 1, entityTicks.length * 2));
+        }
+        entityTicks[entityId] = currentTick;
+        blockTicks[entityId >>> BLOCK_SHIFT] = currentTick;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > entityTicks.length) {
+            entityTicks = Arrays.copyOf(entityTicks, capacity);
+            blockTicks = Arrays.copyOf(blockTicks, (capacity + BLOCK_SIZE - 1) >>> BLOCK_SHIFT);
+        }
+    }
+
+    /**
+     * Iterates over the entities changed since a given tick. The component of each entity can be retrieved as with a
+     * normal ComponentIterator, unless the component has been removed.
+     *
+     * @param <T> The type of component
+     */
+    public static final class ChangeIterator<T extends Component<T>> implements ComponentIterator<T> {
+        private final ComponentStore<T> store;
+        private final int[] entityTicks;
+        private final int[] blockTicks;
+        private final int tick;
+        private int index = -1;
+
+        private ChangeIterator(ComponentStore<T> store, int[] entityTicks, int[] blockTicks, int tick) {
+            this.store = store;
+            this.entityTicks = entityTicks;
+            this.blockTicks = blockTicks;
+            this.tick = tick;
+        }
+
+        @Override
+        public boolean next() {
+            while (++index < entityTicks.length) {
+                if (blockTicks[index >>> BLOCK_SHIFT] < tick) {
+                    index |= BLOCK_SIZE - 1;
+                } else if (entityTicks[index] >= tick) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public int getEntityId() {
+            return index;
+        }
+
+        /**
+         * @return Whether the current entity no longer has the component
+         */
+        public boolean isRemoved() {
+            return !store.has(index);
+        }
+
+        /**
+         * @param component The component to populate with the current entity's component
+         * @throws IllegalStateException If the current entity's component has been removed
+         */
+        @Override
+        @SuppressWarnings("unchecked")
+        public void getComponent(Component<T> component) {
+            if (!store.get(index, (T) component)) {
+                throw new IllegalStateException("Component has been removed from entity " + index);
+            }
+        }
+
+        @Override
+        public T borrowRead() {
+            return store.borrowRead(index);
+        }
+    }
+
+    /**
+     * Marks components borrowed for writing during iteration as changed
+     */
+    private class ChangeMarkingIterator implements ComponentIterator<T> {
+        private final ComponentIterator<T> inner;
+
+        ChangeMarkingIterator(ComponentIterator<T> inner) {
+            this.inner = inner;
+        }
+
+        @Override
+        public boolean next() {
+            return inner.next();
+        }
+
+        @Override
+        public int nextBlock(int[] entityIds) {
+            return inner.nextBlock(entityIds);
+        }
+
+        @Override
+        public int getEntityId() {
+            return inner.getEntityId();
+        }
+
+        @Override
+        public void getComponent(Component<T> component) {
+            inner.getComponent(component);
+        }
+
+        @Override
+        public T borrowRead() {
+            return inner.borrowRead();
+        }
+
+        @Override
+        public T borrowWrite() {
+            T borrowed = inner.borrowWrite();
+            markChanged(inner.getEntityId());
+            return borrowed;
+        }
+    }
+}
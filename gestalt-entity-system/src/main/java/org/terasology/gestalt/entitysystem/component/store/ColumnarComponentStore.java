@@ -0,0 +1,454 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.component.store;
+
+import org.terasology.gestalt.entitysystem.component.Component;
+import org.terasology.gestalt.entitysystem.component.ComponentIterator;
+import org.terasology.gestalt.entitysystem.component.management.ComponentType;
+import org.terasology.gestalt.entitysystem.component.management.PropertyAccessor;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * ColumnarComponentStore is a ComponentStore that lays out components as a structure of arrays - each property
+ * of the component is stored in its own array (column), indexed by entity id. Primitive properties are stored in
+ * primitive arrays (float[], int[], long[], ...), while any other property is stored in an object array.
+ * <p>
+ * This avoids holding a separate heap object per entity, so scanning over many small numeric components
+ * touches contiguous memory rather than chasing a reference per entity.
+ * <p>
+ * Only the properties exposed through the component's {@link PropertyAccessor}s are stored - components should be
+ * plain data whose full state is available through getter/setter pairs. Non-primitive property values are stored
+ * by reference as returned by the getter, so they should be immutable (or at least not modified after being set).
+ *
+ * @param <T> The type of component stored in this ComponentStore
+ */
+public class ColumnarComponentStore<T extends Component<T>> implements ComponentStore<T> {
+    private final ComponentType<T> type;
+    private final PropertyColumn<T>[] columns;
+    private boolean[] present;
+
+    /**
+     * @param componentType Type information for the component type to store
+     */
+    public ColumnarComponentStore(ComponentType<T> componentType) {
+        this(componentType, 1000);
+    }
+
+    /**
+     * @param type            Type information for the component type to store
+     * @param initialCapacity The initial capacity of the columns
+     */
+    @SuppressWarnings("unchecked")
+    public ColumnarComponentStore(ComponentType<T> type, int initialCapacity) {
+        this.type = type;
+        Collection<PropertyAccessor<T, ?>> properties = type.getPropertyInfo().getProperties().values();
+        this.columns = new PropertyColumn[properties.size()];
+        int index = 0;
+        for (PropertyAccessor<T, ?> property : properties) {
+            columns[index++] = createColumn(property, initialCapacity);
+        }
+        this.present = new boolean[initialCapacity];
+    }
+
+    @Override
+    public ComponentType<T> getType() {
+        return type;
+    }
+
+    @Override
+    public boolean has(int entityId) {
+        return present[entityId];
+    }
+
+    @Override
+    public boolean get(int entityId, T into) {
+        if (present[entityId]) {
+            read(entityId, into);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean set(int entityId, T component) {
+        for (PropertyColumn<T> column : columns) {
+            column.write(entityId, component);
+        }
+        if (present[entityId]) {
+            return false;
+        }
+        present[entityId] = true;
+        return true;
+    }
+
+    @Override
+    public T remove(int entityId) {
+        if (!present[entityId]) {
+            return null;
+        }
+        T result = type.create();
+        read(entityId, result);
+        for (PropertyColumn<T> column : columns) {
+            column.clear(entityId);
+        }
+        present[entityId] = false;
+        return result;
+    }
+
+    @Override
+    public int iterationCost() {
+        return present.length;
+    }
+
+    @Override
+    public void extend(int capacity) {
+        if (capacity >= present.length) {
+            int newCapacity = capacity * 2;
+            present = Arrays.copyOf(present, newCapacity);
+            for (PropertyColumn<T> column : columns) {
+                column.extend(newCapacity);
+            }
+        }
+    }
+
+    @Override
+    public ComponentIterator<T> iterate() {
+        return new ColumnarComponentIterator();
+    }
+
+    private void read(int entityId, T into) {
+        for (PropertyColumn<T> column : columns) {
+            column.read(entityId, into);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> PropertyColumn<T> createColumn(PropertyAccessor<T, ?> property, int capacity) {
+        Class<?> propertyClass = property.getPropertyClass();
+        if (propertyClass == Float.TYPE) {
+            return new FloatColumn<>((PropertyAccessor<T, Float>) property, capacity);
+        } else if (propertyClass == Integer.TYPE) {
+            return new IntColumn<>((PropertyAccessor<T, Integer>) property, capacity);
+        } else if (propertyClass == Long.TYPE) {
+            return new LongColumn<>((PropertyAccessor<T, Long>) property, capacity);
+        } else if (propertyClass == Double.TYPE) {
+            return new DoubleColumn<>((PropertyAccessor<T, Double>) property, capacity);
+        } else if (propertyClass == Boolean.TYPE) {
+            return new BooleanColumn<>((PropertyAccessor<T, Boolean>) property, capacity);
+        } else if (propertyClass == Byte.TYPE) {
+            return new ByteColumn<>((PropertyAccessor<T, Byte>) property, capacity);
+        } else if (propertyClass == Short.TYPE) {
+            return new ShortColumn<>((PropertyAccessor<T, Short>) property, capacity);
+        } else if (propertyClass == Character.TYPE) {
+            return new CharColumn<>((PropertyAccessor<T, Character>) property, capacity);
+        } else {
+            return new ObjectColumn<>((PropertyAccessor<T, Object>) property, capacity);
+        }
+    }
+
+    /**
+     * A column holds the values of a single property for all entities
+     *
+     * @param <T> The type of component the property belongs to
+     */
+    private abstract static class PropertyColumn<T> {
+
+        /**
+         * Stores the property value of the component against the given index
+         */
+        abstract void write(int index, T component);
+
+        /**
+         * Sets the property of the component to the value stored against the given index
+         */
+        abstract void read(int index, T component);
+
+        /**
+         * Releases any value stored against the given index
+         */
+        void clear(int index) {
+        }
+
+        /**
+         * Resizes the column to the given capacity
+         */
+        abstract void extend(int capacity);
+    }
+
+    private static final class FloatColumn<T> extends PropertyColumn<T> {
+        private final PropertyAccessor<T, Float> accessor;
+        private float[] values;
+
+        FloatColumn(PropertyAccessor<T, Float> accessor, int capacity) {
+            this.accessor = accessor;
+            this.values = new float[capacity];
+        }
+
+        @Override
+        void write(int index, T component) {
+            values[index] = accessor.get(component);
+        }
+
+        @Override
+        void read(int index, T component) {
+            accessor.set(component, values[index]);
+        }
+
+        @Override
+        void extend(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+
+    private static final class IntColumn<T> extends PropertyColumn<T> {
+        private final PropertyAccessor<T, Integer> accessor;
+        private int[] values;
+
+        IntColumn(PropertyAccessor<T, Integer> accessor, int capacity) {
+            this.accessor = accessor;
+            this.values = new int[capacity];
+        }
+
+        @Override
+        void write(int index, T component) {
+            values[index] = accessor.get(component);
+        }
+
+        @Override
+        void read(int index, T component) {
+            accessor.set(component, values[index]);
+        }
+
+        @Override
+        void extend(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+
+    private static final class LongColumn<T> extends PropertyColumn<T> {
+        private final PropertyAccessor<T, Long> accessor;
+        private long[] values;
+
+        LongColumn(PropertyAccessor<T, Long> accessor, int capacity) {
+            this.accessor = accessor;
+            this.values = new long[capacity];
+        }
+
+        @Override
+        void write(int index, T component) {
+            values[index] = accessor.get(component);
+        }
+
+        @Override
+        void read(int index, T component) {
+            accessor.set(component, values[index]);
+        }
+
+        @Override
+        void extend(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+
+    private static final class DoubleColumn<T> extends PropertyColumn<T> {
+        private final PropertyAccessor<T, Double> accessor;
+        private double[] values;
+
+        DoubleColumn(PropertyAccessor<T, Double> accessor, int capacity) {
+            this.accessor = accessor;
+            this.values = new double[capacity];
+        }
+
+        @Override
+        void write(int index, T component) {
+            values[index] = accessor.get(component);
+        }
+
+        @Override
+        void read(int index, T component) {
+            accessor.set(component, values[index]);
+        }
+
+        @Override
+        void extend(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+
+    private static final class BooleanColumn<T> extends PropertyColumn<T> {
+        private final PropertyAccessor<T, Boolean> accessor;
+        private boolean[] values;
+
+        BooleanColumn(PropertyAccessor<T, Boolean> accessor, int capacity) {
+            this.accessor = accessor;
+            this.values = new boolean[capacity];
+        }
+
+        @Override
+        void write(int index, T component) {
+            values[index] = accessor.get(component);
+        }
+
+        @Override
+        void read(int index, T component) {
+            accessor.set(component, values[index]);
+        }
+
+        @Override
+        void extend(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+
+    private static final class ByteColumn<T> extends PropertyColumn<T> {
+        private final PropertyAccessor<T, Byte> accessor;
+        private byte[] values;
+
+        ByteColumn(PropertyAccessor<T, Byte> accessor, int capacity) {
+            this.accessor = accessor;
+            this.values = new byte[capacity];
+        }
+
+        @Override
+        void write(int index, T component) {
+            values[index] = accessor.get(component);
+        }
+
+        @Override
+        void read(int index, T component) {
+            accessor.set(component, values[index]);
+        }
+
+        @Override
+        void extend(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+
+    private static final class ShortColumn<T> extends PropertyColumn<T> {
+        private final PropertyAccessor<T, Short> accessor;
+        private short[] values;
+
+        ShortColumn(PropertyAccessor<T, Short> accessor, int capacity) {
+            this.accessor = accessor;
+            this.values = new short[capacity];
+        }
+
+        @Override
+        void write(int index, T component) {
+            values[index] = accessor.get(component);
+        }
+
+        @Override
+        void read(int index, T component) {
+            accessor.set(component, values[index]);
+        }
+
+        @Override
+        void extend(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+
+    private static final class CharColumn<T> extends PropertyColumn<T> {
+        private final PropertyAccessor<T, Character> accessor;
+        private char[] values;
+
+        CharColumn(PropertyAccessor<T, Character> accessor, int capacity) {
+            this.accessor = accessor;
+            this.values = new char[capacity];
+        }
+
+        @Override
+        void write(int index, T component) {
+            values[index] = accessor.get(component);
+        }
+
+        @Override
+        void read(int index, T component) {
+            accessor.set(component, values[index]);
+        }
+
+        @Override
+        void extend(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+
+    private static final class ObjectColumn<T> extends PropertyColumn<T> {
+        private final PropertyAccessor<T, Object> accessor;
+        private Object[] values;
+
+        ObjectColumn(PropertyAccessor<T, Object> accessor, int capacity) {
+            this.accessor = accessor;
+            this.values = new Object[capacity];
+        }
+
+        @Override
+        void write(int index, T component) {
+            values[index] = accessor.get(component);
+        }
+
+        @Override
+        void read(int index, T component) {
+            accessor.set(component, values[index]);
+        }
+
+        @Override
+        void clear(int index) {
+            values[index] = null;
+        }
+
+        @Override
+        void extend(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+
+    private class ColumnarComponentIterator implements ComponentIterator<T> {
+
+        private int index = -1;
+        private int endIndex = present.length;
+
+        @Override
+        public boolean next() {
+            index++;
+            while (index < endIndex && !present[index]) {
+                index++;
+            }
+            return index < endIndex;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void getComponent(Component<T> component) {
+            read(index, (T) component);
+        }
+
+        @Override
+        public int getEntityId() {
+            return index;
+        }
+
+        @Override
+        public String toString() {
+            return index + " of " + endIndex;
+        }
+    }
+}
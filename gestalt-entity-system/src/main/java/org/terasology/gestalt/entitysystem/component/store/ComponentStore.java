@@ -20,6 +20,8 @@
 import org.terasology.gestalt.entitysystem.component.ComponentIterator;
 import org.terasology.gestalt.entitysystem.component.management.ComponentType;
 
+import java.util.Optional;
+
 /**
  * A component store holds definitive copies of components of a specific type used by entities.
  *
@@ -47,6 +49,35 @@
      */
     boolean get(int entityId, T into);
 
+    /**
+     * Provides the stored component for an entity directly, without copying it. The borrowed component must not be
+     * modified - use {@link #borrowWrite(int)} for that - and should not be retained beyond the current operation, as
+     * the store may reuse or discard it.
+     * <p>
+     * Borrowing is optional - stores that don't hold component instances throw UnsupportedOperationException.
+     *
+     * @param entityId The entity
+     * @return The stored component, or null if the entity has no component in this store
+     * @throws UnsupportedOperationException If this store does not support borrowing
+     */
+    default T borrowRead(int entityId) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support borrowing components");
+    }
+
+    /**
+     * Provides the stored component for an entity directly, without copying it, for modification in place. The
+     * component is treated as changed, as if it had been set. It should not be retained beyond the current operation.
+     * <p>
+     * Borrowing is optional - stores that don't hold component instances throw UnsupportedOperationException.
+     *
+     * @param entityId The entity
+     * @return The stored component, or null if the entity has no component in this store
+     * @throws UnsupportedOperationException If this store does not support borrowing
+     */
+    default T borrowWrite(int entityId) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support borrowing components");
+    }
+
     /**
      * Stores a copy of the provided component against the given entity
      *
@@ -70,6 +101,14 @@
      */
     int iterationCost();
 
+    /**
+     * @return An estimate of the number of components in this store - used to estimate how many entities iterating this
+     * store will visit, compared to another component store. Stores that don't track this fall back to their iteration cost.
+     */
+    default int estimateSize() {
+        return iterationCost();
+    }
+
     /**
      * Used to indicate the number of entities the ComponentStore needs to support.
      *
@@ -82,4 +121,15 @@
      */
     ComponentIterator<T> iterate();
 
+    /**
+     * Provides the index maintained by this store for a property of its component type, if any. Stores that wrap
+     * another store should provide the indexes of the wrapped store.
+     *
+     * @param propertyName The name of the property
+     * @return The index for the property, or empty if the property isn't indexed
+     */
+    default Optional<PropertyIndex> getPropertyIndex(String propertyName) {
+        return Optional.empty();
+    }
+
 }
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.component.store;
+
+import org.terasology.gestalt.entitysystem.component.Component;
+import org.terasology.gestalt.entitysystem.component.management.ComponentType;
+
+/**
+ * Utility methods for creating component stores.
+ */
+public final class ComponentStores {
+
+    private ComponentStores() {
+    }
+
+    /**
+     * Creates the recommended store for a component type: a {@link TagComponentStore} for singleton component types,
+     * which have no properties, and an {@link ArrayComponentStore} otherwise.
+     *
+     * @param type Type information for the component type to store
+     * @param <T>  The type of component to store
+     * @return A new component store for the component type
+     */
+    public static <T extends Component<T>> ComponentStore<T> create(ComponentType<T> type) {
+        if (type.isSingleton()) {
+            return new TagComponentStore<>(type);
+        }
+        return new ArrayComponentStore<>(type);
+    }
+}
@@ -23,6 +23,7 @@
 import org.terasology.gestalt.entitysystem.component.ComponentIterator;
 import org.terasology.gestalt.entitysystem.component.management.ComponentType;
 
+import java.util.Optional;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -108,6 +109,11 @@ public int iterationCost() {
         return store.iterationCost();
     }
 
+    @Override
+    public int estimateSize() {
+        return store.estimateSize();
+    }
+
     @Override
     public void extend(int capacity) {
         Lock lock = locks.writeLock();
@@ -124,6 +130,11 @@ public ComponentIterator<T> iterate() {
         return new ConcurrentComponentIterator(store.iterate());
     }
 
+    @Override
+    public Optional<PropertyIndex> getPropertyIndex(String propertyName) {
+        return store.getPropertyIndex(propertyName);
+    }
+
     private class ConcurrentComponentIterator implements ComponentIterator<T> {
         private final ComponentIterator<T> inner;
 
@@ -142,6 +153,17 @@ public boolean next() {
             }
         }
 
+        @Override
+        public int nextBlock(int[] entityIds) {
+            Lock lock = locks.readLock();
+            lock.lock();
+            try {
+                return inner.nextBlock(entityIds);
+            } finally {
+                lock.unlock();
+            }
+        }
+
         @Override
         public int getEntityId() {
             return inner.getEntityId();
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.component.store;
+
+import org.terasology.gestalt.entitysystem.component.Component;
+import org.terasology.gestalt.entitysystem.component.ComponentIterator;
+import org.terasology.gestalt.entitysystem.component.management.ComponentType;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+
+/**
+ * DenseComponentStore is a ComponentStore built as a sparse set - components are held packed together in a dense
+ * array, alongside a dense array of the entity ids they belong to, and a sparse array maps each entity id to its
+ * position in the dense arrays. Removing a component moves the last component into the freed position, so the dense
+ * arrays never have gaps.
+ * <p>
+ * This gives O(1) gets and sets like {@link ArrayComponentStore}, while iteration only visits the components that
+ * actually exist. It is a good choice for components that are used on a small portion of a large number of entities.
+ * <p>
+ * Iteration runs from the end of the dense arrays to the start, so the component currently being iterated over can
+ * be removed without other components being skipped.
+ *
+ * @param <T> The type of component stored in this ComponentStore
+ */
+public class DenseComponentStore<T extends Component<T>> implements ComponentStore<T> {
+    private static final int ABSENT = -1;
+    private static final int INITIAL_DENSE_CAPACITY = 16;
+
+    private final ComponentType<T> type;
+    private int[] sparse;
+    private int[] entityIds;
+    private T[] components;
+    private int count;
+
+    /**
+     * @param componentType Type information for the component type to store
+     */
+    public DenseComponentStore(ComponentType<T> componentType) {
+        this(componentType, 1000);
+    }
+
+    /**
+     * @param type            Type information for the component type to store
+     * @param initialCapacity The initial number of entities supported
+     */
+    @SuppressWarnings("unchecked")
+    public DenseComponentStore(ComponentType<T> type, int initialCapacity) {
+        this.type = type;
+        this.sparse = new int[initialCapacity];
+        Arrays.fill(sparse, ABSENT);
+        this.entityIds = new int[INITIAL_DENSE_CAPACITY];
+        this.components = (T[]) Array.newInstance(type.getComponentClass(), INITIAL_DENSE_CAPACITY);
+    }
+
+    @Override
+    public ComponentType<T> getType() {
+        return type;
+    }
+
+    @Override
+    public boolean has(int entityId) {
+        return sparse[entityId] != ABSENT;
+    }
+
+    @Override
+    public boolean get(int entityId, T into) {
+        int index = sparse[entityId];
+        if (index != ABSENT) {
+            into.copy(components[index]);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public T borrowRead(int entityId) {
+        int index = sparse[entityId];
+        return (index != ABSENT) ? components[index] : null;
+    }
+
+    @Override
+    public T borrowWrite(int entityId) {
+        return borrowRead(entityId);
+    }
+
+    @Override
+    public boolean set(int entityId, T component) {
+        int index = sparse[entityId];
+        if (index != ABSENT) {
+            components[index].copy(component);
+            return false;
+        }
+        if (count == components.length) {
+            growDense();
+        }
+        entityIds[count] = entityId;
+        components[count] = type.createCopy(component);
+        sparse[entityId] = count;
+        count++;
+        return true;
+    }
+
+    @Override
+    public T remove(int entityId) {
+        int index = sparse[entityId];
+        if (index == ABSENT) {
+            return null;
+        }
+        T result = components[index];
+        int last = --count;
+        if (index != last) {
+            int movedEntity = entityIds[last];
+            entityIds[index] = movedEntity;
+            components[index] = components[last];
+            sparse[movedEntity] = index;
+        }
+        components[last] = null;
+        sparse[entityId] = ABSENT;
+        return result;
+    }
+
+    @Override
+    public int iterationCost() {
+        return count;
+    }
+
+    @Override
+    public void extend(int capacity) {
+        if (capacity >= sparse.length) {
+            int oldLength = sparse.length;
+            sparse = Arrays.copyOf(sparse, capacity * 2);
+            Arrays.fill(sparse, oldLength, sparse.length, ABSENT);
+        }
+    }
+
+    @Override
+    public ComponentIterator<T> iterate() {
+        return new DenseComponentIterator();
+    }
+
+    private void growDense() {
+        int newCapacity = components.length * 2;
+        entityIds = Arrays.copyOf(entityIds, newCapacity);
+        components = Arrays.copyOf(components, newCapacity);
+    }
+
+    private class DenseComponentIterator implements ComponentIterator<T> {
+
+        private int index = count;
+
+        @Override
+        public boolean next() {
+            if (index > count) {
+                // Components were removed since the last step, continue from the new end
+                index = count;
+            }
+            index--;
+            return index >= 0;
+        }
+
+        @Override
+        public int nextBlock(int[] entityIds) {
+            if (index > count) {
+                index = count;
+            }
+            // index is -1 once next() has run off the end
+            int blockSize = Math.max(0, Math.min(index, entityIds.length));
+            for (int i = 0; i < blockSize; ++i) {
+                entityIds[i] = DenseComponentStore.this.entityIds[--index];
+            }
+            return blockSize;
+        }
+
+        @Override
+        public void getComponent(Component<T> component) {
+            component.copy(components[index]);
+        }
+
+        @Override
+        public T borrowRead() {
+            return components[index];
+        }
+
+        @Override
+        public T borrowWrite() {
+            return components[index];
+        }
+
+        @Override
+        public int getEntityId() {
+            return entityIds[index];
+        }
+
+        @Override
+        public String toString() {
+            return index + " of " + count;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.component.store;
+
+import org.terasology.gestalt.entitysystem.component.Component;
+import org.terasology.gestalt.entitysystem.component.ComponentIterator;
+import org.terasology.gestalt.entitysystem.component.management.ComponentType;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Optional;
+
+/**
+ * DoubleBufferedComponentStore wraps another ComponentStore, allowing other threads to read a consistent snapshot of
+ * its contents without taking any locks.
+ * <p>
+ * The ComponentStore methods of this store act on the wrapped store (the back buffer) and must all be called from a
+ * single writer thread. Reader threads instead use {@link #getSnapshot()}, which returns an immutable view of the
+ * store as of the last {@link #swap()}. Calling swap() - also from the writer thread - publishes a new snapshot,
+ * copying forward only the components that were set or removed since the previous swap. Unchanged components are
+ * shared between successive snapshots.
+ *
+ * @param <T> The type of component stored in this store.
+ */
+public class DoubleBufferedComponentStore<T extends Component<T>> implements ComponentStore<T> {
+
+    private static final int PAGE_SHIFT = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final ComponentStore<T> store;
+    private final BitSet dirty = new BitSet();
+    private volatile Snapshot front;
+
+    /**
+     * @param store The store to wrap. It should be empty, or {@link #swap()} should be called after every entity
+     *              with a component has been set through this store.
+     */
+    @SuppressWarnings("unchecked")
+    public DoubleBufferedComponentStore(ComponentStore<T> store) {
+        this.store = store;
+        this.front = new Snapshot((T[][]) new Component[0][], 0);
+    }
+
+    @Override
+    public ComponentType<T> getType() {
+        return store.getType();
+    }
+
+    @Override
+    public boolean has(int entityId) {
+        return store.has(entityId);
+    }
+
+    @Override
+    public boolean get(int entityId, T into) {
+        return store.get(entityId, into);
+    }
+
+    @Override
+    public T borrowRead(int entityId) {
+        return store.borrowRead(entityId);
+    }
+
+    @Override
+    public T borrowWrite(int entityId) {
+        T borrowed = store.borrowWrite(entityId);
+        if (borrowed != null) {
+            dirty.set(entityId);
+        }
+        return borrowed;
+    }
+
+    @Override
+    public boolean set(int entityId, T component) {
+        dirty.set(entityId);
+        return store.set(entityId, component);
+    }
+
+    @Override
+    public T remove(int entityId) {
+        T removed = store.remove(entityId);
+        if (removed != null) {
+            dirty.set(entityId);
+        }
+        return removed;
+    }
+
+    @Override
+    public int iterationCost() {
+        return store.iterationCost();
+    }
+
+    @Override
+    public int estimateSize() {
+        return store.estimateSize();
+    }
+
+    @Override
+    public void extend(int capacity) {
+        store.extend(capacity);
+    }
+
+    @Override
+    public ComponentIterator<T> iterate() {
+        return new DirtyTrackingIterator(store.iterate());
+    }
+
+    @Override
+    public Optional<PropertyIndex> getPropertyIndex(String propertyName) {
+        return store.getPropertyIndex(propertyName);
+    }
+
+    /**
+     * @return An immutable view of this store as of the last {@link #swap()}. Safe to use from any thread without
+     * synchronization. Components may be borrowed for reading, but the set, remove, extend and borrowWrite methods of
+     * the view throw UnsupportedOperationException.
+     */
+    public ComponentStore<T> getSnapshot() {
+        return front;
+    }
+
+    /**
+     * @return Whether any components have been set or removed since the last swap
+     */
+    public boolean isDirty() {
+        return !dirty.isEmpty();
+    }
+
+    /**
+     * Publishes the current state of the store as a new snapshot for readers. Only components changed since the
+     * last swap are copied. Must be called from the writer thread.
+     */
+    @SuppressWarnings("unchecked")
+    public void swap() {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        Snapshot previous = front;
+        ComponentType<T> type = store.getType();
+        int requiredPages = (dirty.length() + PAGE_MASK) >>> PAGE_SHIFT;
+        T[][] pages = Arrays.copyOf(previous.pages, Math.max(previous.pages.length, requiredPages));
+        int size = previous.size;
+
+        int copiedPage = -1;
+        T buffer = type.create();
+        for (int entityId = dirty.nextSetBit(0); entityId >= 0; entityId = dirty.nextSetBit(entityId + 1)) {
+            int pageIndex = entityId >>> PAGE_SHIFT;
+            if (pageIndex != copiedPage) {
+                T[] page = pages[pageIndex];
+                if (page == null) {
+                    pages[pageIndex] = (T[]) Array.newInstance(type.getComponentClass(), PAGE_SIZE);
+                } else {
+                    pages[pageIndex] = Arrays.copyOf(page, PAGE_SIZE);
+                }
+                copiedPage = pageIndex;
+            }
+            T[] page = pages[pageIndex];
+            int row = entityId & PAGE_MASK;
+            boolean existed = page[row] != null;
+            if (store.get(entityId, buffer)) {
+                page[row] = buffer;
+                buffer = type.create();
+                if (!existed) {
+                    size++;
+                }
+            } else if (existed) {
+                page[row] = null;
+                size--;
+            }
+        }
+        dirty.clear();
+        front = new Snapshot(pages, size);
+    }
+
+    /**
+     * Marks components borrowed for writing during iteration as dirty
+     */
+    private class DirtyTrackingIterator implements ComponentIterator<T> {
+        private final ComponentIterator<T> inner;
+
+        DirtyTrackingIterator(ComponentIterator<T> inner) {
+            this.inner = inner;
+        }
+
+        @Override
+        public boolean next() {
+            return inner.next();
+        }
+
+        @Override
+        public int nextBlock(int[] entityIds) {
+            return inner.nextBlock(entityIds);
+        }
+
+        @Override
+        public int getEntityId() {
+            return inner.getEntityId();
+        }
+
+        @Override
+        public void getComponent(Component<T> component) {
+            inner.getComponent(component);
+        }
+
+        @Override
+        public T borrowRead() {
+            return inner.borrowRead();
+        }
+
+        @Override
+        public T borrowWrite() {
+            T borrowed = inner.borrowWrite();
+            dirty.set(inner.getEntityId());
+            return borrowed;
+        }
+    }
+
+    /**
+     * An immutable view of the store at a point in time.
+     */
+    private class Snapshot implements ComponentStore<T> {
+        private final T[][] pages;
+        private final int size;
+
+        Snapshot(T[][] pages, int size) {
+            this.pages = pages;
+            this.size = size;
+        }
+
+        @Override
+        public ComponentType<T> getType() {
+            return store.getType();
+        }
+
+        @Override
+        public boolean has(int entityId) {
+            return lookup(entityId) != null;
+        }
+
+        @Override
+        public boolean get(int entityId, T into) {
+            T value = lookup(entityId);
+            if (value != null) {
+                into.copy(value);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public T borrowRead(int entityId) {
+            return lookup(entityId);
+        }
+
+        @Override
+        public boolean set(int entityId, T component) {
+            throw new UnsupportedOperationException("Snapshots are read only");
+        }
+
+        @Override
+        public T remove(int entityId) {
+            throw new UnsupportedOperationException("Snapshots are read only");
+        }
+
+        @Override
+        public int iterationCost() {
+            return size;
+        }
+
+        @Override
+        public void extend(int capacity) {
+            throw new UnsupportedOperationException("Snapshots are read only");
+        }
+
+        @Override
+        public ComponentIterator<T> iterate() {
+            return new SnapshotIterator();
+        }
+
+        private T lookup(int entityId) {
+            int pageIndex = entityId >>> PAGE_SHIFT;
+            if (entityId < 0 || pageIndex >= pages.length) {
+                return null;
+            }
+            T[] page = pages[pageIndex];
+            return (page != null) ? page[entityId & PAGE_MASK] : null;
+        }
+
+        private class SnapshotIterator implements ComponentIterator<T> {
+            private int index = -1;
+
+            @Override
+            public boolean next() {
+                int limit = pages.length << PAGE_SHIFT;
+                while (++index < limit) {
+                    T[] page = pages[index >>> PAGE_SHIFT];
+                    if (page == null) {
+                        index |= PAGE_MASK;
+                    } else if (page[index & PAGE_MASK] != null) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            @Override
+            public int getEntityId() {
+                return index;
+            }
+
+            @Override
+            public void getComponent(Component<T> component) {
+                component.copy(pages[index >>> PAGE_SHIFT][index & PAGE_MASK]);
+            }
+
+            @Override
+            public T borrowRead() {
+                return pages[index >>> PAGE_SHIFT][index & PAGE_MASK];
+            }
+        }
+    }
+}
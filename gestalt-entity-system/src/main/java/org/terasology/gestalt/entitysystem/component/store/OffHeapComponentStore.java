@@ -0,0 +1,346 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.component.store;
+
+import com.google.common.collect.Lists;
+
+import org.terasology.gestalt.entitysystem.component.Component;
+import org.terasology.gestalt.entitysystem.component.ComponentIterator;
+import org.terasology.gestalt.entitysystem.component.management.ComponentType;
+import org.terasology.gestalt.entitysystem.component.management.PropertyAccessor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * OffHeapComponentStore is a ComponentStore that encodes components into direct ByteBuffers, outside of the java heap.
+ * Each component is stored as a fixed size record, with the layout derived from the properties of the component type.
+ * Records are allocated in slabs of a fixed number of entities, so extending the store allocates new slabs rather
+ * than copying the existing ones.
+ * <p>
+ * As no component instances are retained, this store does not contribute to garbage collection pressure however
+ * many components it holds. Components are decoded into the caller's instance on get, and encoded in place on set.
+ * <p>
+ * Only component types whose properties are all primitives can be stored. As with {@link ColumnarComponentStore}, only
+ * the properties exposed through the component's {@link PropertyAccessor}s are stored.
+ *
+ * @param <T> The type of component stored in this ComponentStore
+ */
+public class OffHeapComponentStore<T extends Component<T>> implements ComponentStore<T> {
+
+    private static final int SLAB_SHIFT = 12;
+    private static final int ENTITIES_PER_SLAB = 1 << SLAB_SHIFT;
+    private static final int SLAB_MASK = ENTITIES_PER_SLAB - 1;
+    private static final byte PRESENT = 1;
+    private static final byte ABSENT = 0;
+
+    private final ComponentType<T> type;
+    private final FieldCodec<T>[] fields;
+    private final int recordSize;
+    private final int presentOffset;
+    private ByteBuffer[] slabs = new ByteBuffer[0];
+
+    /**
+     * @param componentType Type information for the component type to store
+     * @throws IllegalArgumentException If the component type has properties that are not primitives
+     */
+    public OffHeapComponentStore(ComponentType<T> componentType) {
+        this(componentType, 1000);
+    }
+
+    /**
+     * @param type            Type information for the component type to store
+     * @param initialCapacity The initial number of entities to allocate records for
+     * @throws IllegalArgumentException If the component type has properties that are not primitives
+     */
+    @SuppressWarnings("unchecked")
+    public OffHeapComponentStore(ComponentType<T> type, int initialCapacity) {
+        this.type = type;
+
+        // Largest fields first, so every field is naturally aligned within the record
+        List<PropertyAccessor<T, ?>> properties = Lists.newArrayList(type.getPropertyInfo().getProperties().values());
+        properties.sort(Comparator.comparingInt((PropertyAccessor<T, ?> x) -> sizeOf(x.getPropertyClass())).reversed());
+
+        this.fields = new FieldCodec[properties.size()];
+        int offset = 0;
+        for (int i = 0; i < properties.size(); ++i) {
+            PropertyAccessor<T, ?> property = properties.get(i);
+            fields[i] = createCodec(property, offset);
+            offset += sizeOf(property.getPropertyClass());
+        }
+        this.presentOffset = offset;
+        this.recordSize = (offset + Long.BYTES) & ~(Long.BYTES - 1);
+        extend(initialCapacity);
+    }
+
+    @Override
+    public ComponentType<T> getType() {
+        return type;
+    }
+
+    @Override
+    public boolean has(int entityId) {
+        return slabs[entityId >>> SLAB_SHIFT].get(recordOffset(entityId) + presentOffset) == PRESENT;
+    }
+
+    @Override
+    public boolean get(int entityId, T into) {
+        ByteBuffer slab = slabs[entityId >>> SLAB_SHIFT];
+        int record = recordOffset(entityId);
+        if (slab.get(record + presentOffset) == PRESENT) {
+            decode(slab, record, into);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean set(int entityId, T component) {
+        ByteBuffer slab = slabs[entityId >>> SLAB_SHIFT];
+        int record = recordOffset(entityId);
+        for (FieldCodec<T> field : fields) {
+            field.encode(slab, record, component);
+        }
+        if (slab.get(record + presentOffset) == PRESENT) {
+            return false;
+        }
+        slab.put(record + presentOffset, PRESENT);
+        return true;
+    }
+
+    @Override
+    public T remove(int entityId) {
+        ByteBuffer slab = slabs[entityId >>> SLAB_SHIFT];
+        int record = recordOffset(entityId);
+        if (slab.get(record + presentOffset) != PRESENT) {
+            return null;
+        }
+        T result = type.create();
+        decode(slab, record, result);
+        slab.put(record + presentOffset, ABSENT);
+        return result;
+    }
+
+    @Override
+    public int iterationCost() {
+        return slabs.length * ENTITIES_PER_SLAB;
+    }
+
+    @Override
+    public void extend(int capacity) {
+        int requiredSlabs = (capacity + ENTITIES_PER_SLAB) >>> SLAB_SHIFT;
+        if (requiredSlabs > slabs.length) {
+            ByteBuffer[] newSlabs = Arrays.copyOf(slabs, requiredSlabs);
+            for (int i = slabs.length; i < requiredSlabs; ++i) {
+                // Direct buffers are zero filled, so all records start absent
+                newSlabs[i] = ByteBuffer.allocateDirect(ENTITIES_PER_SLAB * recordSize).order(ByteOrder.nativeOrder());
+            }
+            slabs = newSlabs;
+        }
+    }
+
+    @Override
+    public ComponentIterator<T> iterate() {
+        return new OffHeapComponentIterator();
+    }
+
+    private int recordOffset(int entityId) {
+        return (entityId & SLAB_MASK) * recordSize;
+    }
+
+    private void decode(ByteBuffer slab, int record, T into) {
+        for (FieldCodec<T> field : fields) {
+            field.decode(slab, record, into);
+        }
+    }
+
+    private static int sizeOf(Class<?> propertyClass) {
+        if (propertyClass == Long.TYPE || propertyClass == Double.TYPE) {
+            return Long.BYTES;
+        } else if (propertyClass == Integer.TYPE || propertyClass == Float.TYPE) {
+            return Integer.BYTES;
+        } else if (propertyClass == Short.TYPE || propertyClass == Character.TYPE) {
+            return Short.BYTES;
+        } else if (propertyClass == Byte.TYPE || propertyClass == Boolean.TYPE) {
+            return Byte.BYTES;
+        }
+        return 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> FieldCodec<T> createCodec(PropertyAccessor<T, ?> property, int offset) {
+        Class<?> propertyClass = property.getPropertyClass();
+        if (propertyClass == Float.TYPE) {
+            PropertyAccessor<T, Float> accessor = (PropertyAccessor<T, Float>) property;
+            return new FieldCodec<T>(offset) {
+                @Override
+                void encode(ByteBuffer slab, int record, T component) {
+                    slab.putFloat(record + offset, accessor.get(component));
+                }
+
+                @Override
+                void decode(ByteBuffer slab, int record, T component) {
+                    accessor.set(component, slab.getFloat(record + offset));
+                }
+            };
+        } else if (propertyClass == Integer.TYPE) {
+            PropertyAccessor<T, Integer> accessor = (PropertyAccessor<T, Integer>) property;
+            return new FieldCodec<T>(offset) {
+                @Override
+                void encode(ByteBuffer slab, int record, T component) {
+                    slab.putInt(record + offset, accessor.get(component));
+                }
+
+                @Override
+                void decode(ByteBuffer slab, int record, T component) {
+                    accessor.set(component, slab.getInt(record + offset));
+                }
+            };
+        } else if (propertyClass == Long.TYPE) {
+            PropertyAccessor<T, Long> accessor = (PropertyAccessor<T, Long>) property;
+            return new FieldCodec<T>(offset) {
+                @Override
+                void encode(ByteBuffer slab, int record, T component) {
+                    slab.putLong(record + offset, accessor.get(component));
+                }
+
+                @Override
+                void decode(ByteBuffer slab, int record, T component) {
+                    accessor.set(component, slab.getLong(record + offset));
+                }
+            };
+        } else if (propertyClass == Double.TYPE) {
+            PropertyAccessor<T, Double> accessor = (PropertyAccessor<T, Double>) property;
+            return new FieldCodec<T>(offset) {
+                @Override
+                void encode(ByteBuffer slab, int record, T component) {
+                    slab.putDouble(record + offset, accessor.get(component));
+                }
+
+                @Override
+                void decode(ByteBuffer slab, int record, T component) {
+                    accessor.set(component, slab.getDouble(record + offset));
+                }
+            };
+        } else if (propertyClass == Short.TYPE) {
+            PropertyAccessor<T, Short> accessor = (PropertyAccessor<T, Short>) property;
+            return new FieldCodec<T>(offset) {
+                @Override
+                void encode(ByteBuffer slab, int record, T component) {
+                    slab.putShort(record + offset, accessor.get(component));
+                }
+
+                @Override
+                void decode(ByteBuffer slab, int record, T component) {
+                    accessor.set(component, slab.getShort(record + offset));
+                }
+            };
+        } else if (propertyClass == Character.TYPE) {
+            PropertyAccessor<T, Character> accessor = (PropertyAccessor<T, Character>) property;
+            return new FieldCodec<T>(offset) {
+                @Override
+                void encode(ByteBuffer slab, int record, T component) {
+                    slab.putChar(record + offset, accessor.get(component));
+                }
+
+                @Override
+                void decode(ByteBuffer slab, int record, T component) {
+                    accessor.set(component, slab.getChar(record + offset));
+                }
+            };
+        } else if (propertyClass == Byte.TYPE) {
+            PropertyAccessor<T, Byte> accessor = (PropertyAccessor<T, Byte>) property;
+            return new FieldCodec<T>(offset) {
+                @Override
+                void encode(ByteBuffer slab, int record, T component) {
+                    slab.put(record + offset, accessor.get(component));
+                }
+
+                @Override
+                void decode(ByteBuffer slab, int record, T component) {
+                    accessor.set(component, slab.get(record + offset));
+                }
+            };
+        } else if (propertyClass == Boolean.TYPE) {
+            PropertyAccessor<T, Boolean> accessor = (PropertyAccessor<T, Boolean>) property;
+            return new FieldCodec<T>(offset) {
+                @Override
+                void encode(ByteBuffer slab, int record, T component) {
+                    slab.put(record + offset, accessor.get(component) ? (byte) 1 : (byte) 0);
+                }
+
+                @Override
+                void decode(ByteBuffer slab, int record, T component) {
+                    accessor.set(component, slab.get(record + offset) != 0);
+                }
+            };
+        }
+        throw new IllegalArgumentException("Property '" + property.getName() + "' of '" + property.getOwningClass()
+                + "' is not a primitive, so cannot be stored off heap");
+    }
+
+    /**
+     * Encodes and decodes a single property of a component, at a fixed offset within a record
+     *
+     * @param <T> The type of component the property belongs to
+     */
+    private abstract static class FieldCodec<T> {
+        protected final int offset;
+
+        FieldCodec(int offset) {
+            this.offset = offset;
+        }
+
+        abstract void encode(ByteBuffer slab, int record, T component);
+
+        abstract void decode(ByteBuffer slab, int record, T component);
+    }
+
+    private class OffHeapComponentIterator implements ComponentIterator<T> {
+
+        private int index = -1;
+        private int endIndex = slabs.length * ENTITIES_PER_SLAB;
+
+        @Override
+        public boolean next() {
+            index++;
+            while (index < endIndex && !has(index)) {
+                index++;
+            }
+            return index < endIndex;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void getComponent(Component<T> component) {
+            decode(slabs[index >>> SLAB_SHIFT], recordOffset(index), (T) component);
+        }
+
+        @Override
+        public int getEntityId() {
+            return index;
+        }
+
+        @Override
+        public String toString() {
+            return index + " of " + endIndex;
+        }
+    }
+}
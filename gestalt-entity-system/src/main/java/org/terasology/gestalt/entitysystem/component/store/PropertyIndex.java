@@ -0,0 +1,137 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.component.store;
+
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Primitives;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.terasology.gestalt.entitysystem.component.management.PropertyAccessor;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+
+/**
+ * An index from the values of a component property to the ids of the entities with those values, maintained by a
+ * {@link PropertyIndexedComponentStore}.
+ * <p>
+ * Properties with comparable values (including primitives and enums) are indexed in sorted order, and support range
+ * lookups as well as equality lookups. Other properties are hashed, and support only equality lookups. Indexed values
+ * should be immutable - changes made to a value after it is set are not seen by the index.
+ */
+@ThreadSafe
+public final class PropertyIndex {
+
+    private final PropertyAccessor<?, ?> property;
+    private final boolean ordered;
+    private final Map<Object, TIntSet> entitiesByValue;
+    private final TIntSet nullValued = new TIntHashSet();
+
+    PropertyIndex(PropertyAccessor<?, ?> property) {
+        this.property = property;
+        this.ordered = Comparable.class.isAssignableFrom(Primitives.wrap(property.getPropertyClass()));
+        if (ordered) {
+            this.entitiesByValue = new TreeMap<>();
+        } else {
+            this.entitiesByValue = Maps.newHashMap();
+        }
+    }
+
+    /**
+     * @return The name of the indexed property
+     */
+    public String getPropertyName() {
+        return property.getName();
+    }
+
+    /**
+     * @return Whether this index supports range lookups
+     */
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    /**
+     * @param value The value to look up. May be null.
+     * @return The ids of the entities whose property is equal to the value
+     */
+    public synchronized int[] find(Object value) {
+        TIntSet entities = (value == null) ? nullValued : entitiesByValue.get(value);
+        return (entities != null) ? entities.toArray() : new int[0];
+    }
+
+    /**
+     * @param from The lowest value to include
+     * @param to   The value to stop before
+     * @return The ids of the entities whose property value is at least from and less than to, ordered by value
+     * @throws UnsupportedOperationException If the property is not ordered
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized int[] findRange(Object from, Object to) {
+        if (!ordered) {
+            throw new UnsupportedOperationException("Property " + property.getName() + " is not ordered, so does not support range lookups");
+        }
+        if (((Comparable<Object>) from).compareTo(to) >= 0) {
+            return new int[0];
+        }
+        Collection<TIntSet> matches = ((NavigableMap<Object, TIntSet>) entitiesByValue).subMap(from, true, to, false).values();
+        int size = 0;
+        for (TIntSet entities : matches) {
+            size += entities.size();
+        }
+        int[] result = new int[size];
+        int offset = 0;
+        for (TIntSet entities : matches) {
+            TIntIterator iterator = entities.iterator();
+            while (iterator.hasNext()) {
+                result[offset++] = iterator.next();
+            }
+        }
+        return result;
+    }
+
+    synchronized void add(int entityId, Object value) {
+        if (value == null) {
+            nullValued.add(entityId);
+        } else {
+            entitiesByValue.computeIfAbsent(value, k -> new TIntHashSet()).add(entityId);
+        }
+    }
+
+    synchronized void remove(int entityId, Object value) {
+        if (value == null) {
+            nullValued.remove(entityId);
+        } else {
+            TIntSet entities = entitiesByValue.get(value);
+            if (entities != null && entities.remove(entityId) && entities.isEmpty()) {
+                entitiesByValue.remove(value);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    Object getValue(Object component) {
+        return ((PropertyAccessor<Object, Object>) property).get(component);
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.component.store;
+
+import com.google.common.collect.Maps;
+
+import org.terasology.gestalt.entitysystem.component.Component;
+import org.terasology.gestalt.entitysystem.component.ComponentIterator;
+import org.terasology.gestalt.entitysystem.component.management.ComponentType;
+import org.terasology.gestalt.entitysystem.component.management.PropertyAccessor;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * PropertyIndexedComponentStore wraps another ComponentStore, maintaining a {@link PropertyIndex} for each of a set
+ * of component properties as components are set and removed. The indexes allow entities to be found by property value
+ * without iterating the store, either directly or through
+ * {@link org.terasology.gestalt.entitysystem.entity.EntityManager#findEntities(Class, String, Object)}.
+ * <p>
+ * Changes made to borrowed components can't be seen by the indexes, so components can only be borrowed for reading.
+ * All modification must be through the wrapping store. The store itself is not thread safe, but may be wrapped in a
+ * {@link ConcurrentComponentStore}. The indexes are thread safe.
+ *
+ * @param <T> The type of component stored in this store.
+ */
+public class PropertyIndexedComponentStore<T extends Component<T>> implements ComponentStore<T> {
+
+    private final ComponentStore<T> store;
+    private final Map<String, PropertyIndex> indexes = Maps.newLinkedHashMap();
+    private final PropertyIndex[] indexArray;
+    private final T previous;
+
+    /**
+     * @param store         The store to wrap. Any components already in the store are indexed.
+     * @param propertyNames The names of the properties to index
+     * @throws IllegalArgumentException If the component type has no property with one of the names
+     */
+    public PropertyIndexedComponentStore(ComponentStore<T> store, String... propertyNames) {
+        this.store = store;
+        for (String propertyName : propertyNames) {
+            PropertyAccessor<T, ?> property = store.getType().getPropertyInfo().getProperty(propertyName)
+                    .orElseThrow(() -> new IllegalArgumentException(store.getType() + " has no property " + propertyName));
+            indexes.put(propertyName, new PropertyIndex(property));
+        }
+        this.indexArray = indexes.values().toArray(new PropertyIndex[0]);
+        this.previous = store.getType().create();
+
+        ComponentIterator<T> iterator = store.iterate();
+        while (iterator.next()) {
+            iterator.getComponent(previous);
+            for (PropertyIndex index : indexArray) {
+                index.add(iterator.getEntityId(), index.getValue(previous));
+            }
+        }
+    }
+
+    @Override
+    public ComponentType<T> getType() {
+        return store.getType();
+    }
+
+    @Override
+    public boolean has(int entityId) {
+        return store.has(entityId);
+    }
+
+    @Override
+    public boolean get(int entityId, T into) {
+        return store.get(entityId, into);
+    }
+
+    @Override
+    public T borrowRead(int entityId) {
+        return store.borrowRead(entityId);
+    }
+
+    @Override
+    public boolean set(int entityId, T component) {
+        boolean existed = store.get(entityId, previous);
+        boolean added = store.set(entityId, component);
+        for (PropertyIndex index : indexArray) {
+            Object value = index.getValue(component);
+            if (existed) {
+                Object previousValue = index.getValue(previous);
+                if (Objects.equals(previousValue, value)) {
+                    continue;
+                }
+                index.remove(entityId, previousValue);
+            }
+            index.add(entityId, value);
+        }
+        return added;
+    }
+
+    @Override
+    public T remove(int entityId) {
+        T removed = store.remove(entityId);
+        if (removed != null) {
+            for (PropertyIndex index : indexArray) {
+                index.remove(entityId, index.getValue(removed));
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public int iterationCost() {
+        return store.iterationCost();
+    }
+
+    @Override
+    public int estimateSize() {
+        return store.estimateSize();
+    }
+
+    @Override
+    public void extend(int capacity) {
+        store.extend(capacity);
+    }
+
+    @Override
+    public ComponentIterator<T> iterate() {
+        return new ReadOnlyIterator(store.iterate());
+    }
+
+    @Override
+    public Optional<PropertyIndex> getPropertyIndex(String propertyName) {
+        return Optional.ofNullable(indexes.get(propertyName));
+    }
+
+    /**
+     * Prevents components being borrowed for writing during iteration
+     */
+    private class ReadOnlyIterator implements ComponentIterator<T> {
+        private final ComponentIterator<T> inner;
+
+        ReadOnlyIterator(ComponentIterator<T> inner) {
+            this.inner = inner;
+        }
+
+        @Override
+        public boolean next() {
+            return inner.next();
+        }
+
+        @Override
+        public int nextBlock(int[] entityIds) {
+            return inner.nextBlock(entityIds);
+        }
+
+        @Override
+        public int getEntityId() {
+            return inner.getEntityId();
+        }
+
+        @Override
+        public void getComponent(Component<T> component) {
+            inner.getComponent(component);
+        }
+
+        @Override
+        public T borrowRead() {
+            return inner.borrowRead();
+        }
+    }
+}
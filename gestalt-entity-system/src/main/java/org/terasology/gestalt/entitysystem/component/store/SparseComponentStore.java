@@ -63,6 +63,16 @@ public boolean get(int entityId, T into) {
         return true;
     }
 
+    @Override
+    public T borrowRead(int entityId) {
+        return store.get(entityId);
+    }
+
+    @Override
+    public T borrowWrite(int entityId) {
+        return store.get(entityId);
+    }
+
     @Override
     public boolean set(int entityId, T component) {
         T stored = store.get(entityId);
@@ -121,6 +131,16 @@ public int getEntityId() {
         public void getComponent(Component<T> component) {
             component.copy(iterator.value());
         }
+
+        @Override
+        public T borrowRead() {
+            return iterator.value();
+        }
+
+        @Override
+        public T borrowWrite() {
+            return iterator.value();
+        }
     }
 
 }
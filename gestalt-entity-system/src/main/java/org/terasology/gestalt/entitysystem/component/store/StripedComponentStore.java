@@ -0,0 +1,257 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.component.store;
+
+import com.google.common.base.Preconditions;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.terasology.gestalt.entitysystem.component.Component;
+import org.terasology.gestalt.entitysystem.component.ComponentIterator;
+import org.terasology.gestalt.entitysystem.component.management.ComponentType;
+
+import java.util.Optional;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * StripedComponentStore wraps another ComponentStore, making it thread safe in the same sense as
+ * {@link ConcurrentComponentStore} - every method is atomic - but designed for many concurrent readers.
+ * <p>
+ * Entity ids are divided into ranges of {@link #STRIPE_RANGE}, with each range mapped to one of a number of stripes.
+ * Each stripe has its own {@link StampedLock}, so adding, updating or removing a component only blocks readers and
+ * writers of entities in the same stripe. Reads are optimistic - the read is performed without locking and then
+ * validated against the stripe's stamp, retrying under a read lock only if a write overlapped it. Uncontended reads
+ * therefore never write to shared memory. Only extending the store is exclusive, taking every stripe's write lock.
+ * <p>
+ * The wrapped store must allow components of entities in different stripes to be added, updated and removed at the
+ * same time. This holds for {@link ArrayComponentStore}, {@link ColumnarComponentStore} and
+ * {@link OffHeapComponentStore}, which keep each entity's component in its own slot. Stores that share structure
+ * between entities, such as {@link SparseComponentStore} and {@link DenseComponentStore}, should be wrapped with
+ * ConcurrentComponentStore instead.
+ * <p>
+ * As with ConcurrentComponentStore, this doesn't prevent iteration being affected by concurrent modification, and
+ * all interaction with the store must be through the wrapping store.
+ *
+ * @param <T> The type of component stored in this store.
+ */
+@ThreadSafe
+public class StripedComponentStore<T extends Component<T>> implements ComponentStore<T> {
+
+    /**
+     * The number of consecutive entity ids that share a stripe
+     */
+    public static final int STRIPE_RANGE = 64;
+
+    private static final int STRIPE_RANGE_SHIFT = Integer.numberOfTrailingZeros(STRIPE_RANGE);
+    private static final int DEFAULT_STRIPES = 16;
+
+    private final ComponentStore<T> store;
+    private final StampedLock[] stripes;
+    private final int stripeMask;
+
+    /**
+     * @param store The store to wrap
+     */
+    public StripedComponentStore(ComponentStore<T> store) {
+        this(store, DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param store   The store to wrap
+     * @param stripes The number of stripes to divide entity ids between. Must be a power of two.
+     */
+    public StripedComponentStore(ComponentStore<T> store, int stripes) {
+        Preconditions.checkArgument(stripes > 0 && Integer.bitCount(stripes) == 1, "Stripes must be a positive power of two, was %s", stripes);
+        this.store = store;
+        this.stripes = new StampedLock[stripes];
+        for (int i = 0; i < stripes; ++i) {
+            this.stripes[i] = new StampedLock();
+        }
+        this.stripeMask = stripes - 1;
+    }
+
+    @Override
+    public ComponentType<T> getType() {
+        return store.getType();
+    }
+
+    @Override
+    public boolean has(int entityId) {
+        StampedLock stripe = stripeFor(entityId);
+        long stamp = stripe.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                boolean result = store.has(entityId);
+                if (stripe.validate(stamp)) {
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                if (stripe.validate(stamp)) {
+                    throw e;
+                }
+            }
+        }
+
+        stamp = stripe.readLock();
+        try {
+            return store.has(entityId);
+        } finally {
+            stripe.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public boolean get(int entityId, T into) {
+        StampedLock stripe = stripeFor(entityId);
+        long stamp = stripe.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                boolean result = store.get(entityId, into);
+                if (stripe.validate(stamp)) {
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                if (stripe.validate(stamp)) {
+                    throw e;
+                }
+            }
+        }
+
+        stamp = stripe.readLock();
+        try {
+            return store.get(entityId, into);
+        } finally {
+            stripe.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public boolean set(int entityId, T component) {
+        StampedLock stripe = stripeFor(entityId);
+        long stamp = stripe.writeLock();
+        try {
+            return store.set(entityId, component);
+        } finally {
+            stripe.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public T remove(int entityId) {
+        StampedLock stripe = stripeFor(entityId);
+        long stamp = stripe.writeLock();
+        try {
+            return store.remove(entityId);
+        } finally {
+            stripe.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public int iterationCost() {
+        return store.iterationCost();
+    }
+
+    @Override
+    public int estimateSize() {
+        return store.estimateSize();
+    }
+
+    @Override
+    public void extend(int capacity) {
+        long[] stamps = new long[stripes.length];
+        for (int i = 0; i < stripes.length; ++i) {
+            stamps[i] = stripes[i].writeLock();
+        }
+        try {
+            store.extend(capacity);
+        } finally {
+            for (int i = stripes.length - 1; i >= 0; --i) {
+                stripes[i].unlockWrite(stamps[i]);
+            }
+        }
+    }
+
+    @Override
+    public ComponentIterator<T> iterate() {
+        return new StripedComponentIterator(store.iterate());
+    }
+
+    @Override
+    public Optional<PropertyIndex> getPropertyIndex(String propertyName) {
+        return store.getPropertyIndex(propertyName);
+    }
+
+    private StampedLock stripeFor(int entityId) {
+        return stripes[(entityId >>> STRIPE_RANGE_SHIFT) & stripeMask];
+    }
+
+    private class StripedComponentIterator implements ComponentIterator<T> {
+        private final ComponentIterator<T> inner;
+
+        private StripedComponentIterator(ComponentIterator<T> iterator) {
+            inner = iterator;
+        }
+
+        /**
+         * Advancing the iterator is not guarded - which entity it moves to is not known in advance, so there is no
+         * stripe to lock. Concurrent changes behave as a concurrent modification.
+         */
+        @Override
+        public boolean next() {
+            return inner.next();
+        }
+
+        /**
+         * As with {@link #next()}, reading a block is not guarded.
+         */
+        @Override
+        public int nextBlock(int[] entityIds) {
+            return inner.nextBlock(entityIds);
+        }
+
+        @Override
+        public int getEntityId() {
+            return inner.getEntityId();
+        }
+
+        @Override
+        public void getComponent(Component<T> component) {
+            StampedLock stripe = stripeFor(inner.getEntityId());
+            long stamp = stripe.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    inner.getComponent(component);
+                    if (stripe.validate(stamp)) {
+                        return;
+                    }
+                } catch (RuntimeException e) {
+                    if (stripe.validate(stamp)) {
+                        throw e;
+                    }
+                }
+            }
+
+            stamp = stripe.readLock();
+            try {
+                inner.getComponent(component);
+            } finally {
+                stripe.unlockRead(stamp);
+            }
+        }
+    }
+}
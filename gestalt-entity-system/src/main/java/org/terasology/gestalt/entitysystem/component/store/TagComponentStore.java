@@ -0,0 +1,165 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.component.store;
+
+import com.google.common.base.Preconditions;
+
+import org.terasology.gestalt.entitysystem.component.Component;
+import org.terasology.gestalt.entitysystem.component.ComponentIterator;
+import org.terasology.gestalt.entitysystem.component.management.ComponentType;
+
+import java.util.BitSet;
+
+/**
+ * TagComponentStore is a component store for components with no properties, such as marker or tag components. As
+ * every instance of such a component is equivalent, only the set of entities with the component is recorded, as a
+ * bitset - one bit per entity, rather than a reference per entity as {@link ArrayComponentStore} uses. The single
+ * shared instance of the component is provided when reading or borrowing.
+ * <p>
+ * This store is used automatically for singleton component types by {@link ComponentStores#create(ComponentType)}.
+ *
+ * @param <T> The type of component stored in this store
+ */
+public class TagComponentStore<T extends Component<T>> implements ComponentStore<T> {
+    private final ComponentType<T> type;
+    private final T instance;
+    private final BitSet entities;
+    private int size;
+
+    /**
+     * @param type Type information for the component type stored in store. It must be a singleton type.
+     * @throws IllegalArgumentException If the component type has properties
+     */
+    public TagComponentStore(ComponentType<T> type) {
+        this(type, 1000);
+    }
+
+    /**
+     * @param type            Type information for the component type stored in store. It must be a singleton type.
+     * @param initialCapacity The initial number of entities to allow for
+     * @throws IllegalArgumentException If the component type has properties
+     */
+    public TagComponentStore(ComponentType<T> type, int initialCapacity) {
+        Preconditions.checkArgument(type.isSingleton(), "TagComponentStore only supports components without properties, not %s", type.getComponentClass());
+        this.type = type;
+        this.instance = type.create();
+        this.entities = new BitSet(initialCapacity);
+    }
+
+    @Override
+    public ComponentType<T> getType() {
+        return type;
+    }
+
+    @Override
+    public boolean has(int entityId) {
+        return entities.get(entityId);
+    }
+
+    @Override
+    public boolean get(int entityId, T into) {
+        if (entities.get(entityId)) {
+            into.copy(instance);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public T borrowRead(int entityId) {
+        return entities.get(entityId) ? instance : null;
+    }
+
+    @Override
+    public T borrowWrite(int entityId) {
+        return entities.get(entityId) ? instance : null;
+    }
+
+    @Override
+    public boolean set(int entityId, T component) {
+        if (entities.get(entityId)) {
+            return false;
+        }
+        entities.set(entityId);
+        size++;
+        return true;
+    }
+
+    @Override
+    public T remove(int entityId) {
+        if (entities.get(entityId)) {
+            entities.clear(entityId);
+            size--;
+            return instance;
+        }
+        return null;
+    }
+
+    @Override
+    public int iterationCost() {
+        return size;
+    }
+
+    @Override
+    public void extend(int capacity) {
+        // No action required, the bitset grows as needed
+    }
+
+    @Override
+    public ComponentIterator<T> iterate() {
+        return new TagComponentIterator();
+    }
+
+    private class TagComponentIterator implements ComponentIterator<T> {
+
+        private int index = -1;
+
+        @Override
+        public boolean next() {
+            if (index == Integer.MAX_VALUE) {
+                return false;
+            }
+            int nextIndex = entities.nextSetBit(index + 1);
+            if (nextIndex < 0) {
+                index = Integer.MAX_VALUE;
+                return false;
+            }
+            index = nextIndex;
+            return true;
+        }
+
+        @Override
+        public int getEntityId() {
+            return index;
+        }
+
+        @Override
+        public void getComponent(Component<T> component) {
+            component.copy(instance);
+        }
+
+        @Override
+        public T borrowRead() {
+            return instance;
+        }
+
+        @Override
+        public T borrowWrite() {
+            return instance;
+        }
+    }
+}
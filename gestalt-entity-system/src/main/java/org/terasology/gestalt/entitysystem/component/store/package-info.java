@@ -2,8 +2,13 @@
  * This package provides component stores - each component store handles storage of a single type
  * of component across entities, by entity id. Different implementations are offered for different
  * performance use cases, although if in doubt {@link org.terasology.gestalt.entitysystem.component.store.ArrayComponentStore}
- * is probably the reliable go-to. {@link org.terasology.gestalt.entitysystem.component.store.ConcurrentComponentStore}
+ * is probably the reliable go-to, with {@link org.terasology.gestalt.entitysystem.component.store.DenseComponentStore}
+ * better suited to components used by only a few of many entities. {@link org.terasology.gestalt.entitysystem.component.store.ConcurrentComponentStore}
  * can be used to make any component store thread safe, at least in so far as making single actions
  * atomic - it doesn't protect against broader concerns such as lost update scenarios.
+ * {@link org.terasology.gestalt.entitysystem.component.store.ColumnarComponentStore} stores each property in
+ * its own array, and suits plain data components with many instances, while
+ * {@link org.terasology.gestalt.entitysystem.component.store.OffHeapComponentStore} keeps components
+ * with only primitive properties outside of the java heap.
  */
 package org.terasology.gestalt.entitysystem.component.store;
\ No newline at end of file
@@ -32,4 +32,22 @@ public interface EntityIterator {
      * @return The current entity
      */
     EntityRef getEntity();
+
+    /**
+     * Advances the iterator over a batch of entities, writing their ids into the provided array. Unlike
+     * {@link #next()}, this has no secondary effects such as retrieving components - the components of each entity
+     * can be retrieved from the relevant stores by id. Implementations should override this to avoid the per-entity
+     * cost of next().
+     *
+     * @param entityIds The array to fill with entity ids
+     * @return The number of entity ids written. This is 0 only when iteration is complete, but may be less than the
+     * length of the array before then.
+     */
+    default int nextBatch(int[] entityIds) {
+        int count = 0;
+        while (count < entityIds.length && next()) {
+            entityIds[count++] = getEntity().getId();
+        }
+        return count;
+    }
 }
@@ -18,11 +18,14 @@
 
 import org.terasology.gestalt.entitysystem.component.Component;
 import org.terasology.gestalt.entitysystem.component.store.ComponentStore;
+import org.terasology.gestalt.entitysystem.component.store.PropertyIndex;
 import org.terasology.gestalt.entitysystem.prefab.Prefab;
 import org.terasology.gestalt.naming.Name;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -54,6 +57,22 @@ default EntityRef createEntity(Component ... components) {
      */
     EntityRef createEntity(Collection<Component> components);
 
+    /**
+     * Creates a number of new entities, each with a copy of a set of template components. Implementations should
+     * override this to reserve storage for all the entities at once.
+     *
+     * @param count    The number of entities to create
+     * @param template The components to create each entity with
+     * @return The new entities
+     */
+    default List<EntityRef> createEntities(int count, Component... template) {
+        List<EntityRef> result = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            result.add(createEntity(template));
+        }
+        return result;
+    }
+
     /**
      * Creates an instance of each entity in a prefab, and returns the root entity
      *
@@ -70,6 +89,79 @@ default EntityRef createEntity(Component ... components) {
      */
     Map<Name, EntityRef> createEntities(Prefab prefab);
 
+    /**
+     * Creates a number of instances of a prefab. Implementations should override this to instantiate all the
+     * instances in a single pass.
+     *
+     * @param prefab The prefab to create entities from
+     * @param count  The number of instances to create
+     * @return The root entity of each instance
+     */
+    default List<EntityRef> spawn(Prefab prefab, int count) {
+        List<EntityRef> result = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            result.add(createEntity(prefab));
+        }
+        return result;
+    }
+
+    /**
+     * Finds the entities with a component whose property is equal to a value, using an index maintained by the
+     * component's store.
+     *
+     * @param componentType The type of component
+     * @param propertyName  The name of the indexed property
+     * @param value         The value to find
+     * @param <T>           The type of component
+     * @return The entities with a matching component
+     * @throws IllegalArgumentException If the property is not indexed
+     */
+    default <T extends Component<T>> List<EntityRef> findEntities(Class<T> componentType, String propertyName, Object value) {
+        int[] entityIds = getPropertyIndex(componentType, propertyName).find(value);
+        List<EntityRef> result = new ArrayList<>(entityIds.length);
+        for (int entityId : entityIds) {
+            result.add(getEntity(entityId));
+        }
+        return result;
+    }
+
+    /**
+     * Finds the entities with a component whose property is within a range of values, using an ordered index
+     * maintained by the component's store.
+     *
+     * @param componentType The type of component
+     * @param propertyName  The name of the indexed property
+     * @param from          The lowest value to include
+     * @param to            The value to stop before
+     * @param <T>           The type of component
+     * @return The entities with a matching component, ordered by property value
+     * @throws IllegalArgumentException      If the property is not indexed
+     * @throws UnsupportedOperationException If the index is not ordered
+     */
+    default <T extends Component<T>> List<EntityRef> findEntitiesInRange(Class<T> componentType, String propertyName, Object from, Object to) {
+        int[] entityIds = getPropertyIndex(componentType, propertyName).findRange(from, to);
+        List<EntityRef> result = new ArrayList<>(entityIds.length);
+        for (int entityId : entityIds) {
+            result.add(getEntity(entityId));
+        }
+        return result;
+    }
+
+    /**
+     * @param componentType The type of component
+     * @param propertyName  The name of the property
+     * @param <T>           The type of component
+     * @return The index of the property maintained by the component's store
+     * @throws IllegalArgumentException If the property is not indexed
+     */
+    default <T extends Component<T>> PropertyIndex getPropertyIndex(Class<T> componentType, String propertyName) {
+        ComponentStore<T> store = getComponentStore(componentType);
+        if (store == null) {
+            throw new IllegalArgumentException("No component store available for " + componentType);
+        }
+        return store.getPropertyIndex(propertyName).orElseThrow(() -> new IllegalArgumentException("Property " + propertyName + " of " + componentType + " is not indexed"));
+    }
+
     /**
      * @param id The id of the entity to return
      * @return The entity ref for the given id. If the entity doesn't exist, this will be a null entity ref .
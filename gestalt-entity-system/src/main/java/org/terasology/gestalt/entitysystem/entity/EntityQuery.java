@@ -0,0 +1,469 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.entity;
+
+import com.google.common.collect.Lists;
+
+import org.terasology.gestalt.entitysystem.component.Component;
+import org.terasology.gestalt.entitysystem.component.ComponentIterator;
+import org.terasology.gestalt.entitysystem.component.store.ComponentStore;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * A reusable query over the entities of an entity manager. A query matches entities that have all of a set of
+ * included component types and none of a set of excluded component types. Optional component types don't affect
+ * which entities match, but can be retrieved during iteration if present.
+ * <p>
+ * The component stores involved are resolved when the query is created. The query also plans the order stores are
+ * checked in from their {@link ComponentStore#estimateSize() estimated sizes} - iterating the smallest included store
+ * and checking the others smallest first - and keeps that plan until the sizes of the included stores shift
+ * significantly.
+ * <p>
+ * Iteration only copies the components that are requested, and reuses a single iterator, so a query can be run
+ * every frame without allocation beyond the driving store's iterator. As the iterator is reused, a query should not
+ * be iterated again while a previous iteration is still in use - create a separate query for nested iteration.
+ * Queries can also be run in parallel with {@link #parallelForEach(ForkJoinPool, Consumer)}.
+ */
+public final class EntityQuery {
+
+    /**
+     * The factor by which a store's estimated size must change before the query is re-planned
+     */
+    private static final int REPLAN_FACTOR = 2;
+
+    /**
+     * Changes to estimated size below this are never considered significant
+     */
+    private static final int MIN_SIGNIFICANT_SIZE_CHANGE = 16;
+
+    /**
+     * The number of ids read from the driving store at a time when preparing a parallel iteration
+     */
+    private static final int BLOCK_SIZE = 1024;
+
+    /**
+     * Parallel tasks covering at most this many candidate entities are not split further
+     */
+    private static final int TASK_SIZE = 256;
+
+    private final EntityManager entityManager;
+    private final ComponentStore<?>[] included;
+    private final int[] plannedSizes;
+    private final ComponentStore<?>[] excluded;
+    private final Class<?>[] optionalTypes;
+    private final ComponentStore<?>[] optional;
+    private final QueryIterator iterator = new QueryIterator();
+
+    private EntityQuery(EntityManager entityManager, List<ComponentStore<?>> included, List<ComponentStore<?>> excluded, List<Class<? extends Component>> optionalTypes, List<ComponentStore<?>> optional) {
+        this.entityManager = entityManager;
+        this.included = included.toArray(new ComponentStore<?>[0]);
+        this.plannedSizes = new int[this.included.length];
+        this.excluded = excluded.toArray(new ComponentStore<?>[0]);
+        this.optionalTypes = optionalTypes.toArray(new Class<?>[0]);
+        this.optional = optional.toArray(new ComponentStore<?>[0]);
+        plan();
+    }
+
+    /**
+     * Starts iterating over the entities matching this query. This resets and returns the query's iterator, so any
+     * previous iteration of this query is ended.
+     *
+     * @return An iterator over the matching entities
+     */
+    public QueryIterator iterate() {
+        if (planOutdated()) {
+            plan();
+        }
+        iterator.reset(included[0].iterate());
+        return iterator;
+    }
+
+    /**
+     * @return The number of entities matching this query. This iterates over the matching entities.
+     */
+    public int count() {
+        int count = 0;
+        QueryIterator it = iterate();
+        while (it.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Runs an action for each entity matching this query, in parallel across the common fork join pool.
+     *
+     * @param action The action to run for each entity
+     * @see #parallelForEach(ForkJoinPool, Consumer)
+     */
+    public void parallelForEach(Consumer<EntityView> action) {
+        parallelForEach(ForkJoinPool.commonPool(), action);
+    }
+
+    /**
+     * Runs an action for each entity matching this query, in parallel across a fork join pool. The ids of the driving
+     * store are read in blocks up front, then the id range is partitioned between tasks, with each task checking the
+     * other stores and running the action for its part of the range. Each task has its own {@link EntityView}, with
+     * its own instances of components.
+     * <p>
+     * The component stores must support concurrent reads. Stores that are not thread safe, such as the plain stores,
+     * may only be written to by the action to update existing components of the entity it is visiting. Adding or
+     * removing components during the iteration requires thread safe stores, such as
+     * {@link org.terasology.gestalt.entitysystem.component.store.ConcurrentComponentStore}. This blocks until all
+     * entities have been processed.
+     *
+     * @param pool   The pool to run the tasks in
+     * @param action The action to run for each entity
+     */
+    public void parallelForEach(ForkJoinPool pool, Consumer<EntityView> action) {
+        if (planOutdated()) {
+            plan();
+        }
+        ComponentIterator<?> driver = included[0].iterate();
+        int[] block = new int[BLOCK_SIZE];
+        int[] candidates = block;
+        int count = 0;
+        int read;
+        while ((read = driver.nextBlock(block)) > 0) {
+            if (candidates == block || count + read > candidates.length) {
+                candidates = Arrays.copyOf(candidates, Math.max(candidates.length * 2, count + read));
+            }
+            System.arraycopy(block, 0, candidates, count, read);
+            count += read;
+        }
+        pool.invoke(new ForEachTask(candidates, 0, count, action));
+    }
+
+    private boolean matches(int entityId) {
+        for (int i = 1; i < included.length; ++i) {
+            if (!included[i].has(entityId)) {
+                return false;
+            }
+        }
+        for (ComponentStore<?> store : excluded) {
+            if (store.has(entityId)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean planOutdated() {
+        for (int i = 0; i < included.length; ++i) {
+            int size = included[i].estimateSize();
+            int planned = plannedSizes[i];
+            if (Math.abs(size - planned) >= MIN_SIGNIFICANT_SIZE_CHANGE && (size > planned * REPLAN_FACTOR || size * REPLAN_FACTOR < planned)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Orders the included stores by estimated size, smallest first
+     */
+    private void plan() {
+        for (int i = 0; i < included.length; ++i) {
+            plannedSizes[i] = included[i].estimateSize();
+        }
+        for (int i = 1; i < included.length; ++i) {
+            ComponentStore<?> store = included[i];
+            int size = plannedSizes[i];
+            int j = i - 1;
+            while (j >= 0 && plannedSizes[j] > size) {
+                included[j + 1] = included[j];
+                plannedSizes[j + 1] = plannedSizes[j];
+                j--;
+            }
+            included[j + 1] = store;
+            plannedSizes[j + 1] = size;
+        }
+    }
+
+    /**
+     * The iterator over the entities matching an EntityQuery. Components of the current entity can be retrieved
+     * through {@link #getComponent(Component)}.
+     */
+    public final class QueryIterator implements EntityIterator {
+        private ComponentIterator<?> driver;
+
+        private QueryIterator() {
+        }
+
+        private void reset(ComponentIterator<?> drivingIterator) {
+            this.driver = drivingIterator;
+        }
+
+        @Override
+        public boolean next() {
+            while (driver.next()) {
+                if (matches(driver.getEntityId())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Reads blocks of candidates from the driving store and filters them in place. Components are not copied.
+         */
+        @Override
+        public int nextBatch(int[] entityIds) {
+            int found = 0;
+            while (found == 0) {
+                int candidates = driver.nextBlock(entityIds);
+                if (candidates == 0) {
+                    return 0;
+                }
+                for (int i = 0; i < candidates; ++i) {
+                    if (matches(entityIds[i])) {
+                        entityIds[found++] = entityIds[i];
+                    }
+                }
+            }
+            return found;
+        }
+
+        /**
+         * @return The id of the current entity
+         */
+        public int getEntityId() {
+            return driver.getEntityId();
+        }
+
+        @Override
+        public EntityRef getEntity() {
+            return entityManager.getEntity(driver.getEntityId());
+        }
+
+        /**
+         * Copies a component of the current entity into the provided component. The component's type must be one of
+         * the included or optional types of the query.
+         *
+         * @param component The component to populate
+         * @param <T>       The type of component
+         * @return Whether the current entity has the component - always true for included component types.
+         * @throws IllegalArgumentException If the component type is not an included or optional type of the query
+         */
+        @SuppressWarnings("unchecked")
+        public <T extends Component<T>> boolean getComponent(T component) {
+            Class<?> type = component.getClass();
+            if (included[0].getType().getComponentClass() == type) {
+                ((ComponentIterator<T>) driver).getComponent(component);
+                return true;
+            }
+            for (int i = 1; i < included.length; ++i) {
+                if (included[i].getType().getComponentClass() == type) {
+                    return ((ComponentStore<T>) included[i]).get(driver.getEntityId(), component);
+                }
+            }
+            for (int i = 0; i < optionalTypes.length; ++i) {
+                if (optionalTypes[i] == type) {
+                    return optional[i] != null && ((ComponentStore<T>) optional[i]).get(driver.getEntityId(), component);
+                }
+            }
+            throw new IllegalArgumentException(type + " is not an included or optional component of this query");
+        }
+    }
+
+    /**
+     * Provides access to the entity being visited during {@link #parallelForEach(ForkJoinPool, Consumer)}. Each
+     * parallel task has its own view, and the view's components are only used by that task.
+     */
+    public final class EntityView {
+        private final Component<?>[] includedComponents = new Component<?>[included.length];
+        private final Component<?>[] optionalComponents = new Component<?>[optional.length];
+        private int entityId;
+
+        private EntityView() {
+        }
+
+        /**
+         * @return The id of the current entity
+         */
+        public int getEntityId() {
+            return entityId;
+        }
+
+        /**
+         * @return The current entity
+         */
+        public EntityRef getEntity() {
+            return entityManager.getEntity(entityId);
+        }
+
+        /**
+         * Provides a copy of a component of the current entity. The returned component belongs to this view, and is
+         * overwritten the next time a component of that type is requested.
+         *
+         * @param type The type of component, which must be one of the included or optional types of the query
+         * @param <T>  The type of component
+         * @return The component, or null if the component type is optional and the entity doesn't have it
+         * @throws IllegalArgumentException If the component type is not an included or optional type of the query
+         */
+        @SuppressWarnings("unchecked")
+        public <T extends Component<T>> T getComponent(Class<T> type) {
+            for (int i = 0; i < included.length; ++i) {
+                ComponentStore<T> store = (ComponentStore<T>) included[i];
+                if (store.getType().getComponentClass() == type) {
+                    if (includedComponents[i] == null) {
+                        includedComponents[i] = store.getType().create();
+                    }
+                    T component = (T) includedComponents[i];
+                    store.get(entityId, component);
+                    return component;
+                }
+            }
+            for (int i = 0; i < optionalTypes.length; ++i) {
+                if (optionalTypes[i] == type) {
+                    ComponentStore<T> store = (ComponentStore<T>) optional[i];
+                    if (store == null) {
+                        return null;
+                    }
+                    if (optionalComponents[i] == null) {
+                        optionalComponents[i] = store.getType().create();
+                    }
+                    T component = (T) optionalComponents[i];
+                    return store.get(entityId, component) ? component : null;
+                }
+            }
+            throw new IllegalArgumentException(type + " is not an included or optional component of this query");
+        }
+    }
+
+    /**
+     * Splits a range of candidate entity ids until it is small enough, then runs the action for each matching entity
+     */
+    private final class ForEachTask extends RecursiveAction {
+        private final int[] candidates;
+        private final int from;
+        private final int to;
+        private final Consumer<EntityView> action;
+
+        ForEachTask(int[] candidates, int from, int to, Consumer<EntityView> action) {
+            this.candidates = candidates;
+            this.from = from;
+            this.to = to;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= TASK_SIZE) {
+                EntityView view = new EntityView();
+                for (int i = from; i < to; ++i) {
+                    if (matches(candidates[i])) {
+                        view.entityId = candidates[i];
+                        action.accept(view);
+                    }
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ForEachTask(candidates, from, middle, action), new ForEachTask(candidates, middle, to, action));
+            }
+        }
+    }
+
+    /**
+     * A builder used to construct an {@link EntityQuery}
+     */
+    public static class Builder {
+        private final EntityManager entityManager;
+        private final List<Class<? extends Component>> included = Lists.newArrayList();
+        private final List<Class<? extends Component>> excluded = Lists.newArrayList();
+        private final List<Class<? extends Component>> optional = Lists.newArrayList();
+
+        /**
+         * @param entityManager The entity manager the query will run against
+         */
+        public Builder(EntityManager entityManager) {
+            this.entityManager = entityManager;
+        }
+
+        /**
+         * @param componentTypes Component types that matching entities must have
+         * @return The builder
+         */
+        @SafeVarargs
+        public final Builder include(Class<? extends Component>... componentTypes) {
+            included.addAll(Arrays.asList(componentTypes));
+            return this;
+        }
+
+        /**
+         * @param componentTypes Component types that matching entities must not have
+         * @return The builder
+         */
+        @SafeVarargs
+        public final Builder exclude(Class<? extends Component>... componentTypes) {
+            excluded.addAll(Arrays.asList(componentTypes));
+            return this;
+        }
+
+        /**
+         * @param componentTypes Component types that may be retrieved from matching entities if present
+         * @return The builder
+         */
+        @SafeVarargs
+        public final Builder optional(Class<? extends Component>... componentTypes) {
+            optional.addAll(Arrays.asList(componentTypes));
+            return this;
+        }
+
+        /**
+         * @return The new EntityQuery
+         * @throws IllegalArgumentException If no component types are included, or an included component type is not
+         *                                  supported by the entity manager
+         */
+        public EntityQuery create() {
+            if (included.isEmpty()) {
+                throw new IllegalArgumentException("A query must include at least one component type");
+            }
+            List<ComponentStore<?>> includedStores = Lists.newArrayList();
+            for (Class<? extends Component> type : included) {
+                ComponentStore<?> store = getStore(type);
+                if (store == null) {
+                    throw new IllegalArgumentException("No component store available for included type " + type);
+                }
+                includedStores.add(store);
+            }
+            // Entities can't have or provide components without a store, so such types can be ignored
+            List<ComponentStore<?>> excludedStores = Lists.newArrayList();
+            for (Class<? extends Component> type : excluded) {
+                ComponentStore<?> store = getStore(type);
+                if (store != null) {
+                    excludedStores.add(store);
+                }
+            }
+            List<ComponentStore<?>> optionalStores = Lists.newArrayList();
+            for (Class<? extends Component> type : optional) {
+                optionalStores.add(getStore(type));
+            }
+            return new EntityQuery(entityManager, includedStores, excludedStores, optional, optionalStores);
+        }
+
+        @SuppressWarnings("unchecked")
+        private ComponentStore<?> getStore(Class<? extends Component> type) {
+            return entityManager.getComponentStore((Class) type);
+        }
+    }
+}
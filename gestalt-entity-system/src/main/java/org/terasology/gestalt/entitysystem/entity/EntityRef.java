@@ -77,6 +77,22 @@ public interface EntityRef {
      */
     Set<Class<? extends Component>> getComponentTypes();
 
+    /**
+     * Determines which of a number of component types this entity has, without allocating. Bit i of the mask is set
+     * if the entity has a component of componentTypes[i]. Bits are only ever set, so the mask should be cleared first.
+     *
+     * @param componentTypes The types of component to check for the presence of
+     * @param mask           The mask to set bits in. Must have at least (componentTypes.length + 63) / 64 elements.
+     */
+    @SuppressWarnings("unchecked")
+    default void getComponentMask(Class<? extends Component>[] componentTypes, long[] mask) {
+        for (int i = 0; i < componentTypes.length; ++i) {
+            if (hasComponent((Class) componentTypes[i])) {
+                mask[i >>> 6] |= 1L << i;
+            }
+        }
+    }
+
     /**
      * Retrieves all component used by this entity.
      * @return The components composing this entity
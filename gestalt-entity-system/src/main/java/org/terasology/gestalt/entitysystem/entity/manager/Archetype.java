@@ -0,0 +1,249 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.entity.manager;
+
+import com.google.common.collect.Lists;
+
+import org.terasology.gestalt.entitysystem.component.Component;
+import org.terasology.gestalt.entitysystem.component.management.ComponentType;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * An archetype holds all the entities that have exactly the same set of component types. The entities are stored in
+ * fixed size chunks, each of which holds a column of components per component type, so the components of the entities
+ * in an archetype are contiguous and iteration over them only visits entities that have all of them.
+ * <p>
+ * Entities are addressed by slot within the archetype - slot / {@link #CHUNK_SIZE} gives the chunk, slot % CHUNK_SIZE
+ * the row in the chunk. Releasing a slot moves the last entity in the archetype into it, so slots are always packed.
+ * Component instances are owned by the archetype and reused - moving an entity swaps instances rather than copying.
+ */
+final class Archetype {
+
+    static final int CHUNK_SIZE = 128;
+
+    private final BitSet mask;
+    private final int[] typeIndices;
+    private final int[] columnByType;
+    private final ComponentType<?>[] columnTypes;
+    private final List<Chunk> chunks = Lists.newArrayList();
+    private int size;
+
+    private Archetype[] addEdges;
+    private Archetype[] removeEdges;
+
+    /**
+     * @param mask  The indices of the component types of this archetype
+     * @param types All component types known to the entity manager, by index
+     */
+    Archetype(BitSet mask, ComponentType<?>[] types) {
+        this.mask = (BitSet) mask.clone();
+        this.typeIndices = mask.stream().toArray();
+        this.columnByType = new int[types.length];
+        Arrays.fill(columnByType, -1);
+        this.columnTypes = new ComponentType<?>[typeIndices.length];
+        for (int column = 0; column < typeIndices.length; ++column) {
+            columnByType[typeIndices[column]] = column;
+            columnTypes[column] = types[typeIndices[column]];
+        }
+        this.addEdges = new Archetype[types.length];
+        this.removeEdges = new Archetype[types.length];
+    }
+
+    /**
+     * @return A copy of the set of component type indices of this archetype
+     */
+    BitSet getMask() {
+        return (BitSet) mask.clone();
+    }
+
+    /**
+     * @return The component type indices of this archetype, in ascending order. Must not be modified.
+     */
+    int[] getTypeIndices() {
+        return typeIndices;
+    }
+
+    /**
+     * @return The component types of this archetype, by column. Must not be modified.
+     */
+    ComponentType<?>[] getColumnTypes() {
+        return columnTypes;
+    }
+
+    /**
+     * @param typeIndex The index of a component type
+     * @return The column holding that type of component, or -1 if the archetype doesn't have it
+     */
+    int columnOf(int typeIndex) {
+        return columnByType[typeIndex];
+    }
+
+    /**
+     * @param typeIndices The indices of a number of component types
+     * @return Whether this archetype has all of the given component types
+     */
+    boolean hasAll(int[] typeIndices) {
+        for (int typeIndex : typeIndices) {
+            if (columnByType[typeIndex] == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of entities in this archetype
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param slot The slot of an entity
+     * @return The id of the entity in that slot
+     */
+    int entityAt(int slot) {
+        return chunks.get(slot / CHUNK_SIZE).entityIds[slot % CHUNK_SIZE];
+    }
+
+    /**
+     * @param slot   The slot of an entity
+     * @param column The column of the component
+     * @return The component instance held for the entity. This is owned by the archetype.
+     */
+    Component componentAt(int slot, int column) {
+        Chunk chunk = chunks.get(slot / CHUNK_SIZE);
+        int row = slot % CHUNK_SIZE;
+        Component component = chunk.columns[column][row];
+        if (component == null) {
+            component = columnTypes[column].create();
+            chunk.columns[column][row] = component;
+        }
+        return component;
+    }
+
+    /**
+     * Allocates a slot for an entity at the end of the archetype
+     *
+     * @param entityId The id of the entity
+     * @return The slot of the entity
+     */
+    int allocate(int entityId) {
+        int slot = size++;
+        if (slot == chunks.size() * CHUNK_SIZE) {
+            chunks.add(new Chunk(columnTypes));
+        }
+        chunks.get(slot / CHUNK_SIZE).entityIds[slot % CHUNK_SIZE] = entityId;
+        return slot;
+    }
+
+    /**
+     * Releases a slot, moving the last entity of the archetype into it.
+     *
+     * @param slot The slot to release
+     * @return The id of the entity that was moved into the slot, or -1 if no entity was moved
+     */
+    int release(int slot) {
+        int last = --size;
+        if (slot == last) {
+            return -1;
+        }
+        Chunk chunk = chunks.get(slot / CHUNK_SIZE);
+        int row = slot % CHUNK_SIZE;
+        Chunk lastChunk = chunks.get(last / CHUNK_SIZE);
+        int lastRow = last % CHUNK_SIZE;
+        int movedEntity = lastChunk.entityIds[lastRow];
+        chunk.entityIds[row] = movedEntity;
+        for (int column = 0; column < columnTypes.length; ++column) {
+            Component moved = lastChunk.columns[column][lastRow];
+            lastChunk.columns[column][lastRow] = chunk.columns[column][row];
+            chunk.columns[column][row] = moved;
+        }
+        return movedEntity;
+    }
+
+    /**
+     * Moves the components an entity has in this archetype to a slot in another archetype. Components the other
+     * archetype doesn't have are left behind, to be reused. The source slot is not released.
+     *
+     * @param slot       The slot of the entity in this archetype
+     * @param target     The archetype to transfer the components to
+     * @param targetSlot The slot of the entity in the target archetype
+     */
+    void transferTo(int slot, Archetype target, int targetSlot) {
+        Chunk chunk = chunks.get(slot / CHUNK_SIZE);
+        int row = slot % CHUNK_SIZE;
+        Chunk targetChunk = target.chunks.get(targetSlot / CHUNK_SIZE);
+        int targetRow = targetSlot % CHUNK_SIZE;
+        for (int column = 0; column < typeIndices.length; ++column) {
+            int targetColumn = target.columnByType[typeIndices[column]];
+            if (targetColumn != -1) {
+                Component moved = chunk.columns[column][row];
+                chunk.columns[column][row] = targetChunk.columns[targetColumn][targetRow];
+                targetChunk.columns[targetColumn][targetRow] = moved;
+            }
+        }
+    }
+
+    /**
+     * @param typeIndex The index of a component type
+     * @return The cached archetype reached by adding the component type to this archetype, or null if not yet known
+     */
+    Archetype getAddEdge(int typeIndex) {
+        return addEdges[typeIndex];
+    }
+
+    void setAddEdge(int typeIndex, Archetype archetype) {
+        addEdges[typeIndex] = archetype;
+    }
+
+    /**
+     * @param typeIndex The index of a component type
+     * @return The cached archetype reached by removing the component type from this archetype, or null if not yet known
+     */
+    Archetype getRemoveEdge(int typeIndex) {
+        return removeEdges[typeIndex];
+    }
+
+    void setRemoveEdge(int typeIndex, Archetype archetype) {
+        removeEdges[typeIndex] = archetype;
+    }
+
+    @Override
+    public String toString() {
+        return "Archetype" + Arrays.toString(columnTypes) + " (" + size + " entities)";
+    }
+
+    /**
+     * A fixed size block of entities, with a column of components for each component type of the archetype
+     */
+    private static final class Chunk {
+        private final int[] entityIds = new int[CHUNK_SIZE];
+        private final Component[][] columns;
+
+        Chunk(ComponentType<?>[] columnTypes) {
+            columns = new Component[columnTypes.length][];
+            for (int column = 0; column < columnTypes.length; ++column) {
+                columns[column] = (Component[]) Array.newInstance(columnTypes[column].getComponentClass(), CHUNK_SIZE);
+            }
+        }
+    }
+}
@@ -0,0 +1,672 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.entity.manager;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.terasology.gestalt.entitysystem.component.Component;
+import org.terasology.gestalt.entitysystem.component.ComponentIterator;
+import org.terasology.gestalt.entitysystem.component.management.ComponentType;
+import org.terasology.gestalt.entitysystem.component.store.ComponentStore;
+import org.terasology.gestalt.entitysystem.entity.EntityIterator;
+import org.terasology.gestalt.entitysystem.entity.EntityManager;
+import org.terasology.gestalt.entitysystem.entity.EntityRef;
+import org.terasology.gestalt.entitysystem.entity.NullEntityRef;
+import org.terasology.gestalt.entitysystem.prefab.Prefab;
+import org.terasology.gestalt.naming.Name;
+import org.terasology.gestalt.util.collection.TypeKeyedMap;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An implementation of EntityManager that groups entities by archetype - the set of component types they have.
+ * Each archetype stores its entities in fixed size chunks, with the components of each type held together, and
+ * entities move between archetypes as components are added and removed.
+ * <p>
+ * Compared to {@link CoreEntityManager}, iterating over entities with several components only visits the archetypes
+ * that have all of those components, and reads the components from contiguous storage rather than probing a store per
+ * component for each candidate entity. In exchange, adding or removing a component moves the entity's other components
+ * to a different archetype.
+ * <ul>
+ *     <li>The component types supported are fixed at construction. Storage for them is managed by the entity manager,
+ *     and {@link #getComponentStore(Class)} provides a view over that storage.</li>
+ *     <li>Reuses entity ids after entities are destroyed.</li>
+ *     <li>Iterators visit the entities each archetype holds when iteration reaches it, skipping entities that are
+ *     deleted or move to another archetype during iteration, so an entity is never visited twice.</li>
+ *     <li>Is not thread safe - all access should occur on a single thread, or be externally synchronized.</li>
+ * </ul>
+ */
+public class ArchetypeEntityManager implements EntityManager {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private final ComponentType<?>[] types;
+    private final Map<Class<? extends Component>, ArchetypeComponentStore<?>> componentStores = Maps.newLinkedHashMap();
+
+    private final Map<BitSet, Archetype> archetypeLookup = Maps.newHashMap();
+    private final List<Archetype> archetypes = Lists.newArrayList();
+    private final Archetype emptyArchetype;
+    private final PrefabInstantiator prefabInstantiator = new PrefabInstantiator(this);
+
+    private EntityRef[] entities;
+    private Archetype[] archetypeOf;
+    private int[] slotOf;
+    private int[] movedAt;
+    private int moveCount;
+    private int nextId;
+    private int[] freedIds = new int[16];
+    private int freedIdCount;
+
+    /**
+     * @param componentTypes The component types supported by this entity manager
+     */
+    public ArchetypeEntityManager(ComponentType<?>... componentTypes) {
+        this(Arrays.asList(componentTypes), DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param componentTypes The component types supported by this entity manager
+     */
+    public ArchetypeEntityManager(Collection<ComponentType<?>> componentTypes) {
+        this(componentTypes, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param componentTypes The component types supported by this entity manager
+     * @param capacity       The initial capacity of entities.
+     */
+    public ArchetypeEntityManager(Collection<ComponentType<?>> componentTypes, int capacity) {
+        this.types = componentTypes.toArray(new ComponentType<?>[0]);
+        for (int i = 0; i < types.length; ++i) {
+            ArchetypeComponentStore<?> store = new ArchetypeComponentStore<>(types[i], i);
+            if (componentStores.put(types[i].getComponentClass(), store) != null) {
+                throw new IllegalArgumentException("Component type " + types[i] + " provided more than once");
+            }
+        }
+        this.emptyArchetype = getArchetype(new BitSet());
+
+        int initialCapacity = Math.max(capacity, 1);
+        this.entities = new EntityRef[initialCapacity];
+        Arrays.fill(entities, NullEntityRef.get());
+        this.archetypeOf = new Archetype[initialCapacity];
+        this.slotOf = new int[initialCapacity];
+        this.movedAt = new int[initialCapacity];
+    }
+
+    @Override
+    public EntityRef createEntity() {
+        int id;
+        if (freedIdCount > 0) {
+            id = freedIds[--freedIdCount];
+        } else {
+            id = nextId++;
+            if (id >= entities.length) {
+                extendStorage(id + 1);
+            }
+        }
+        archetypeOf[id] = emptyArchetype;
+        slotOf[id] = emptyArchetype.allocate(id);
+        EntityRef result = new ArchetypeEntityRef(this, id);
+        entities[id] = result;
+        return result;
+    }
+
+    @Override
+    public EntityRef createEntity(Collection<Component> components) {
+        EntityRef entity = createEntity();
+        entity.setComponents(components);
+        return entity;
+    }
+
+    @Override
+    public EntityRef createEntity(Prefab prefab) {
+        Map<Name, EntityRef> entities = createEntities(prefab);
+        return entities.get(prefab.getRootEntityUrn().getFragmentName());
+    }
+
+    @Override
+    public Map<Name, EntityRef> createEntities(Prefab prefab) {
+        return prefabInstantiator.createEntities(prefab);
+    }
+
+    @Override
+    public List<EntityRef> spawn(Prefab prefab, int count) {
+        return prefabInstantiator.spawn(prefab, count);
+    }
+
+    @Override
+    public EntityRef getEntity(int id) {
+        if (id >= 0 && id < entities.length) {
+            return entities[id];
+        }
+        return NullEntityRef.get();
+    }
+
+    @Override
+    public int size() {
+        return nextId - freedIdCount;
+    }
+
+    @Override
+    public EntityIterator iterate(Component... components) {
+        int[] typeIndices = new int[components.length];
+        for (int i = 0; i < components.length; ++i) {
+            typeIndices[i] = typeIndexOf(components[i].getClass());
+        }
+        return new ArchetypeEntityIterator(typeIndices, components);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends Component<T>> ComponentStore<T> getComponentStore(Class<T> componentType) {
+        return (ComponentStore<T>) componentStores.get(componentType);
+    }
+
+    @Override
+    public Iterable<EntityRef> allEntities() {
+        return Collections.unmodifiableList(Arrays.asList(entities));
+    }
+
+    @Override
+    public Iterable<ComponentStore<?>> allComponentStores() {
+        return Collections.unmodifiableCollection(componentStores.values());
+    }
+
+    /**
+     * @return The number of distinct archetypes - combinations of component types - that have occurred
+     */
+    public int archetypeCount() {
+        return archetypes.size();
+    }
+
+    Set<Class<? extends Component>> getComponentTypes(int entityId) {
+        Set<Class<? extends Component>> result = Sets.newLinkedHashSet();
+        Archetype archetype = archetypeOf[entityId];
+        if (archetype != null) {
+            for (ComponentType<?> type : archetype.getColumnTypes()) {
+                result.add(type.getComponentClass());
+            }
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    TypeKeyedMap<Component> getAllComponents(int entityId) {
+        TypeKeyedMap<Component> result = new TypeKeyedMap<>();
+        Archetype archetype = archetypeOf[entityId];
+        if (archetype != null) {
+            ComponentType[] columnTypes = archetype.getColumnTypes();
+            for (int column = 0; column < columnTypes.length; ++column) {
+                result.put(columnTypes[column].createCopy(archetype.componentAt(slotOf[entityId], column)));
+            }
+        }
+        return result;
+    }
+
+    Set<Component<?>> removeComponents(int entityId, Collection<Class<? extends Component>> componentTypes) {
+        Set<Component<?>> removed = Sets.newLinkedHashSet();
+        for (Class<? extends Component> componentType : componentTypes) {
+            Component<?> component = remove(entityId, typeIndexOf(componentType));
+            if (component != null) {
+                removed.add(component);
+            }
+        }
+        return removed;
+    }
+
+    @SuppressWarnings("unchecked")
+    Set<Component<?>> delete(int entityId) {
+        Set<Component<?>> removed = Sets.newLinkedHashSet();
+        Archetype archetype = archetypeOf[entityId];
+        if (archetype == null) {
+            return removed;
+        }
+        int slot = slotOf[entityId];
+        ComponentType[] columnTypes = archetype.getColumnTypes();
+        for (int column = 0; column < columnTypes.length; ++column) {
+            removed.add(columnTypes[column].createCopy(archetype.componentAt(slot, column)));
+        }
+        releaseSlot(archetype, slot);
+        archetypeOf[entityId] = null;
+        // So iterators skip the id if it is reused
+        movedAt[entityId] = ++moveCount;
+        entities[entityId] = NullEntityRef.get();
+        if (freedIdCount == freedIds.length) {
+            freedIds = Arrays.copyOf(freedIds, freedIds.length * 2);
+        }
+        freedIds[freedIdCount++] = entityId;
+        return removed;
+    }
+
+    private boolean has(int entityId, int typeIndex) {
+        if (entityId < 0 || entityId >= archetypeOf.length) {
+            return false;
+        }
+        Archetype archetype = archetypeOf[entityId];
+        return archetype != null && archetype.columnOf(typeIndex) != -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean get(int entityId, int typeIndex, Component into) {
+        if (entityId < 0 || entityId >= archetypeOf.length) {
+            return false;
+        }
+        Archetype archetype = archetypeOf[entityId];
+        if (archetype == null) {
+            return false;
+        }
+        int column = archetype.columnOf(typeIndex);
+        if (column == -1) {
+            return false;
+        }
+        into.copy(archetype.componentAt(slotOf[entityId], column));
+        return true;
+    }
+
+    private Component borrow(int entityId, int typeIndex) {
+        if (entityId < 0 || entityId >= archetypeOf.length) {
+            return null;
+        }
+        Archetype archetype = archetypeOf[entityId];
+        if (archetype == null) {
+            return null;
+        }
+        int column = archetype.columnOf(typeIndex);
+        if (column == -1) {
+            return null;
+        }
+        return archetype.componentAt(slotOf[entityId], column);
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean set(int entityId, int typeIndex, Component component) {
+        Archetype archetype = existingArchetypeOf(entityId);
+        int column = archetype.columnOf(typeIndex);
+        if (column != -1) {
+            archetype.componentAt(slotOf[entityId], column).copy(component);
+            return false;
+        }
+        Archetype target = archetype.getAddEdge(typeIndex);
+        if (target == null) {
+            BitSet mask = archetype.getMask();
+            mask.set(typeIndex);
+            target = getArchetype(mask);
+            archetype.setAddEdge(typeIndex, target);
+            target.setRemoveEdge(typeIndex, archetype);
+        }
+        moveEntity(entityId, archetype, target);
+        target.componentAt(slotOf[entityId], target.columnOf(typeIndex)).copy(component);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Component remove(int entityId, int typeIndex) {
+        if (entityId < 0 || entityId >= archetypeOf.length) {
+            return null;
+        }
+        Archetype archetype = archetypeOf[entityId];
+        if (archetype == null) {
+            return null;
+        }
+        int column = archetype.columnOf(typeIndex);
+        if (column == -1) {
+            return null;
+        }
+        ComponentType type = types[typeIndex];
+        Component result = type.createCopy(archetype.componentAt(slotOf[entityId], column));
+        Archetype target = archetype.getRemoveEdge(typeIndex);
+        if (target == null) {
+            BitSet mask = archetype.getMask();
+            mask.clear(typeIndex);
+            target = getArchetype(mask);
+            archetype.setRemoveEdge(typeIndex, target);
+            target.setAddEdge(typeIndex, archetype);
+        }
+        moveEntity(entityId, archetype, target);
+        return result;
+    }
+
+    private Archetype existingArchetypeOf(int entityId) {
+        Archetype archetype = (entityId >= 0 && entityId < archetypeOf.length) ? archetypeOf[entityId] : null;
+        if (archetype == null) {
+            throw new IllegalArgumentException("Entity " + entityId + " does not exist");
+        }
+        return archetype;
+    }
+
+    private void moveEntity(int entityId, Archetype from, Archetype to) {
+        int slot = slotOf[entityId];
+        int newSlot = to.allocate(entityId);
+        from.transferTo(slot, to, newSlot);
+        releaseSlot(from, slot);
+        archetypeOf[entityId] = to;
+        slotOf[entityId] = newSlot;
+        movedAt[entityId] = ++moveCount;
+    }
+
+    /**
+     * @param entityId  The id of the entity to check
+     * @param moveStamp The value of moveCount at some earlier point
+     * @return Whether the entity has moved between archetypes or been deleted since moveCount had the given value
+     */
+    private boolean movedSince(int entityId, int moveStamp) {
+        // Compared by difference so the check survives moveCount wrapping
+        return movedAt[entityId] - moveStamp > 0;
+    }
+
+    /**
+     * @param entityId  The id of an entity from a snapshot of the archetype
+     * @param archetype The archetype being iterated
+     * @param moveStamp The value of moveCount when iteration started
+     * @return Whether the entity should be visited by an iterator over the archetype
+     */
+    private boolean visible(int entityId, Archetype archetype, int moveStamp) {
+        return archetypeOf[entityId] == archetype && !movedSince(entityId, moveStamp);
+    }
+
+    /**
+     * Copies the ids of the entities in an archetype, in slot order.
+     *
+     * @param archetype The archetype to copy the entity ids of
+     * @param buffer    A buffer to copy into, if large enough
+     * @return The buffer holding the entity ids, either the one provided or a larger replacement
+     */
+    private int[] snapshotEntities(Archetype archetype, int[] buffer) {
+        int size = archetype.size();
+        int[] result = (buffer.length >= size) ? buffer : new int[Math.max(size, buffer.length * 2)];
+        for (int slot = 0; slot < size; ++slot) {
+            result[slot] = archetype.entityAt(slot);
+        }
+        return result;
+    }
+
+    private void releaseSlot(Archetype archetype, int slot) {
+        int movedEntity = archetype.release(slot);
+        if (movedEntity != -1) {
+            slotOf[movedEntity] = slot;
+        }
+    }
+
+    private Archetype getArchetype(BitSet mask) {
+        Archetype archetype = archetypeLookup.get(mask);
+        if (archetype == null) {
+            archetype = new Archetype(mask, types);
+            archetypeLookup.put(archetype.getMask(), archetype);
+            archetypes.add(archetype);
+        }
+        return archetype;
+    }
+
+    private int typeIndexOf(Class<?> componentClass) {
+        ArchetypeComponentStore<?> store = componentStores.get(componentClass);
+        if (store == null) {
+            throw new IllegalArgumentException("Component type " + componentClass + " is not supported by this entity manager");
+        }
+        return store.typeIndex;
+    }
+
+    /**
+     * Extends the internal storage of the entity manager to fit the required number of entities
+     */
+    private void extendStorage(int required) {
+        int newSize = Math.max(entities.length * 2, required);
+        int oldSize = entities.length;
+        entities = Arrays.copyOf(entities, newSize);
+        Arrays.fill(entities, oldSize, newSize, NullEntityRef.get());
+        archetypeOf = Arrays.copyOf(archetypeOf, newSize);
+        slotOf = Arrays.copyOf(slotOf, newSize);
+        movedAt = Arrays.copyOf(movedAt, newSize);
+    }
+
+    /**
+     * Iterates over the entities of all archetypes containing a set of component types. Each archetype is iterated
+     * over a snapshot of its entity ids taken when iteration reaches it, as deleting or moving an entity moves another
+     * entity into its slot. Only the archetypes that existed when iteration started are visited, and entities that
+     * have moved between archetypes or been deleted since then are skipped, as they may already have been visited.
+     */
+    private class ArchetypeEntityIterator implements EntityIterator {
+        private final int[] typeIndices;
+        private final Component[] components;
+        private final int[] columns;
+
+        private final int archetypeLimit = archetypes.size();
+        private final int moveStamp = moveCount;
+        private int archetypeIndex = -1;
+        private Archetype archetype;
+        private int[] snapshot = new int[16];
+        private int remaining;
+        private int entityId = -1;
+
+        ArchetypeEntityIterator(int[] typeIndices, Component[] components) {
+            this.typeIndices = typeIndices;
+            this.components = components;
+            this.columns = new int[typeIndices.length];
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean next() {
+            while (true) {
+                if (archetype != null) {
+                    while (--remaining >= 0) {
+                        int candidate = snapshot[remaining];
+                        if (visible(candidate, archetype, moveStamp)) {
+                            entityId = candidate;
+                            int slot = slotOf[candidate];
+                            for (int i = 0; i < components.length; ++i) {
+                                components[i].copy(archetype.componentAt(slot, columns[i]));
+                            }
+                            return true;
+                        }
+                    }
+                }
+                if (!nextArchetype()) {
+                    archetype = null;
+                    entityId = -1;
+                    return false;
+                }
+            }
+        }
+
+        private boolean nextArchetype() {
+            while (++archetypeIndex < archetypeLimit) {
+                Archetype candidate = archetypes.get(archetypeIndex);
+                if (candidate.size() > 0 && candidate.hasAll(typeIndices)) {
+                    archetype = candidate;
+                    snapshot = snapshotEntities(candidate, snapshot);
+                    remaining = candidate.size();
+                    for (int i = 0; i < typeIndices.length; ++i) {
+                        columns[i] = candidate.columnOf(typeIndices[i]);
+                    }
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public EntityRef getEntity() {
+            return ArchetypeEntityManager.this.getEntity(entityId);
+        }
+    }
+
+    /**
+     * A view over the components of a single type, across all archetypes
+     *
+     * @param <T> The type of component
+     */
+    private class ArchetypeComponentStore<T extends Component<T>> implements ComponentStore<T> {
+        private final ComponentType<T> type;
+        private final int typeIndex;
+
+        ArchetypeComponentStore(ComponentType<T> type, int typeIndex) {
+            this.type = type;
+            this.typeIndex = typeIndex;
+        }
+
+        @Override
+        public ComponentType<T> getType() {
+            return type;
+        }
+
+        @Override
+        public boolean has(int entityId) {
+            return ArchetypeEntityManager.this.has(entityId, typeIndex);
+        }
+
+        @Override
+        public boolean get(int entityId, T into) {
+            return ArchetypeEntityManager.this.get(entityId, typeIndex, into);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T borrowRead(int entityId) {
+            return (T) ArchetypeEntityManager.this.borrow(entityId, typeIndex);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T borrowWrite(int entityId) {
+            return (T) ArchetypeEntityManager.this.borrow(entityId, typeIndex);
+        }
+
+        @Override
+        public boolean set(int entityId, T component) {
+            return ArchetypeEntityManager.this.set(entityId, typeIndex, component);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T remove(int entityId) {
+            return (T) ArchetypeEntityManager.this.remove(entityId, typeIndex);
+        }
+
+        @Override
+        public int iterationCost() {
+            int count = 0;
+            for (Archetype archetype : archetypes) {
+                if (archetype.columnOf(typeIndex) != -1) {
+                    count += archetype.size();
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public void extend(int capacity) {
+            // Storage is managed by the entity manager
+        }
+
+        @Override
+        public ComponentIterator<T> iterate() {
+            return new ArchetypeComponentIterator();
+        }
+
+        @Override
+        public String toString() {
+            return "ArchetypeComponentStore(" + type + ")";
+        }
+
+        /**
+         * Iterates over snapshots of the archetypes that existed when iteration started, skipping entities that have
+         * moved between archetypes or been deleted since then.
+         */
+        private class ArchetypeComponentIterator implements ComponentIterator<T> {
+            private final int archetypeLimit = archetypes.size();
+            private final int moveStamp = moveCount;
+            private int archetypeIndex = -1;
+            private Archetype archetype;
+            private int column;
+            private int[] snapshot = new int[16];
+            private int remaining;
+            private int entityId = -1;
+            private int slot;
+
+            @Override
+            public boolean next() {
+                while (true) {
+                    if (archetype != null) {
+                        while (--remaining >= 0) {
+                            int candidate = snapshot[remaining];
+                            if (visible(candidate, archetype, moveStamp)) {
+                                entityId = candidate;
+                                slot = slotOf[candidate];
+                                return true;
+                            }
+                        }
+                    }
+                    if (!nextArchetype()) {
+                        archetype = null;
+                        return false;
+                    }
+                }
+            }
+
+            private boolean nextArchetype() {
+                while (++archetypeIndex < archetypeLimit) {
+                    Archetype candidate = archetypes.get(archetypeIndex);
+                    int candidateColumn = candidate.columnOf(typeIndex);
+                    if (candidateColumn != -1 && candidate.size() > 0) {
+                        archetype = candidate;
+                        column = candidateColumn;
+                        snapshot = snapshotEntities(candidate, snapshot);
+                        remaining = candidate.size();
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public void getComponent(Component<T> component) {
+                component.copy((T) archetype.componentAt(slot, column));
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T borrowRead() {
+                return (T) archetype.componentAt(slot, column);
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T borrowWrite() {
+                return (T) archetype.componentAt(slot, column);
+            }
+
+            @Override
+            public int getEntityId() {
+                return entityId;
+            }
+
+            @Override
+            public String toString() {
+                return slot + " of " + archetype;
+            }
+        }
+    }
+}
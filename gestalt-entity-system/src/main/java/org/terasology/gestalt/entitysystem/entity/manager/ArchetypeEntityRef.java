@@ -0,0 +1,144 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.entity.manager;
+
+import org.terasology.gestalt.entitysystem.component.Component;
+import org.terasology.gestalt.entitysystem.component.store.ComponentStore;
+import org.terasology.gestalt.entitysystem.entity.EntityRef;
+import org.terasology.gestalt.util.collection.TypeKeyedMap;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * The EntityRef implementation used by {@link ArchetypeEntityManager}.
+ */
+class ArchetypeEntityRef implements EntityRef {
+
+    private ArchetypeEntityManager entityManager;
+    private final int id;
+
+    ArchetypeEntityRef(ArchetypeEntityManager entityManager, int entityId) {
+        this.entityManager = entityManager;
+        this.id = entityId;
+    }
+
+    @Override
+    public int getId() {
+        return id;
+    }
+
+    @Override
+    public boolean exists() {
+        return entityManager != null;
+    }
+
+    @Override
+    public <T extends Component<T>> boolean hasComponent(Class<T> type) {
+        if (entityManager != null) {
+            return entityManager.getComponentStore(type).has(id);
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends Component<T>> boolean getComponent(T component) {
+        if (entityManager != null) {
+            return entityManager.getComponentStore(component.getClass()).get(id, component);
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public <T extends Component<T>> Optional<T> getComponent(Class<T> componentType) {
+        if (entityManager != null) {
+            ComponentStore<T> componentStore = entityManager.getComponentStore(componentType);
+            T result = componentStore.getType().create();
+            if (componentStore.get(id, result)) {
+                return Optional.of(result);
+            }
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends Component<T>> boolean setComponent(T component) {
+        if (entityManager != null) {
+            return entityManager.getComponentStore(component.getClass()).set(id, component);
+        }
+        return false;
+    }
+
+    @Override
+    public <T extends Component<T>> T removeComponent(Class<T> componentType) {
+        if (entityManager != null) {
+            return entityManager.getComponentStore(componentType).remove(id);
+        }
+        return null;
+    }
+
+    @Override
+    public Set<Component<?>> removeComponents(Collection<Class<? extends Component>> componentTypes) {
+        if (entityManager != null) {
+            return entityManager.removeComponents(id, componentTypes);
+        }
+        return Collections.emptySet();
+    }
+
+    @Override
+    public Set<Class<? extends Component>> getComponentTypes() {
+        if (entityManager != null) {
+            return entityManager.getComponentTypes(id);
+        } else {
+            return Collections.emptySet();
+        }
+    }
+
+    @Override
+    public TypeKeyedMap<Component> getAllComponents() {
+        if (entityManager != null) {
+            return entityManager.getAllComponents(id);
+        } else {
+            return TypeKeyedMap.empty();
+        }
+    }
+
+    @Override
+    public Set<Component<?>> delete() {
+        if (entityManager != null) {
+            Set<Component<?>> removedComponents = entityManager.delete(id);
+            entityManager = null;
+            return removedComponents;
+        }
+        return Collections.emptySet();
+    }
+
+    @Override
+    public String toString() {
+        if (entityManager != null) {
+            return "EntityRef(" + id + ")";
+        } else {
+            return "EntityRef(deleted)";
+        }
+    }
+}
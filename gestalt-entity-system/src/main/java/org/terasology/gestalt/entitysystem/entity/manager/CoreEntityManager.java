@@ -16,68 +16,98 @@
 
 package org.terasology.gestalt.entitysystem.entity.manager;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 import net.jcip.annotations.ThreadSafe;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.terasology.gestalt.assets.ResourceUrn;
-import org.terasology.gestalt.entitysystem.component.management.ComponentType;
-import org.terasology.gestalt.entitysystem.component.management.PropertyAccessor;
 import org.terasology.gestalt.entitysystem.component.Component;
 import org.terasology.gestalt.entitysystem.component.ComponentIterator;
+import org.terasology.gestalt.entitysystem.component.management.ComponentType;
 import org.terasology.gestalt.entitysystem.component.store.ComponentStore;
+import org.terasology.gestalt.entitysystem.component.store.PropertyIndex;
 import org.terasology.gestalt.entitysystem.entity.EntityIterator;
 import org.terasology.gestalt.entitysystem.entity.EntityManager;
 import org.terasology.gestalt.entitysystem.entity.EntityRef;
 import org.terasology.gestalt.entitysystem.entity.NullEntityRef;
-import org.terasology.gestalt.entitysystem.prefab.EntityRecipe;
-import org.terasology.gestalt.entitysystem.prefab.EntityRecipeRef;
-import org.terasology.gestalt.entitysystem.prefab.GeneratedFromRecipeComponent;
 import org.terasology.gestalt.entitysystem.prefab.Prefab;
-import org.terasology.gestalt.entitysystem.prefab.PrefabRef;
 import org.terasology.gestalt.naming.Name;
 import org.terasology.gestalt.util.collection.TypeKeyedMap;
-import org.terasology.gestalt.util.collection.UniqueQueue;
 
+import java.util.AbstractSet;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.stream.Collectors;
 
 /**
  * A basic but threadsafe implementation of EntityManager.
  * <ul>
- *     <li>Reuses entity ids after entities are destroyed.</li>
+ *     <li>Reuses entity ids after entities are destroyed. Each id has a generation that is advanced when an entity is
+ *     created or destroyed with it, so EntityRefs to a destroyed entity remain non-existent after the id is reused.</li>
+ *     <li>Allocates entity ids lock-free, using an atomic counter and a lock-free stack of freed ids.</li>
  *     <li>Extends all component stores entity capacity is reached.</li>
- *     <li>Read/write locks on entity ids and entity creation.</li>
+ *     <li>Read/write locks guard the per-entity storage against being replaced while it is extended.</li>
+ *     <li>Keeps a bitmask per entity of which component stores hold a component for it, so the component types of an
+ *     entity can be determined without checking every store. For this to remain accurate, components must be added
+ *     and removed through the stores provided by {@link #getComponentStore(Class)}, rather than the stores originally
+ *     given to the entity manager.</li>
+ *     <li>Maintains {@link EntityGroup}s incrementally from the component masks, as components are added and
+ *     removed.</li>
  * </ul>
  */
 @ThreadSafe
 public class CoreEntityManager implements EntityManager {
 
-    private static final Logger logger = LoggerFactory.getLogger(CoreEntityManager.class);
-
     private static final int DEFAULT_CAPACITY = 1024;
     private static final double EXTENSION_RATE = 1.5;
 
+    /**
+     * The number of probes of a store an iteration must make before its results are used to measure selectivity
+     */
+    private static final int MIN_MEASURED_PROBES = 32;
+
     private final ReadWriteLock locks = new ReentrantReadWriteLock();
-    private final Map<Class<? extends Component>, ComponentStore<?>> componentStores;
+    private volatile IndexedComponentStore<?>[] storesByIndex = new IndexedComponentStore<?>[0];
 
-    private final UniqueQueue<Integer> freedIdQueue = new UniqueQueue<>();
+    /**
+     * The stores indexed by the id of their component type, see {@link ComponentType#getId()}
+     */
+    private volatile IndexedComponentStore<?>[] storesByTypeId = new IndexedComponentStore<?>[0];
 
-    private EntityRef[] entities;
-    private int nextId = 0;
+    private final PrefabInstantiator prefabInstantiator = new PrefabInstantiator(this);
+
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final AtomicInteger entityCount = new AtomicInteger();
+    private final FreeIdStack freedIds;
+    private volatile int capacity;
+
+    /**
+     * The generation of each entity id. Odd generations indicate the id is in use by an entity, even that it is free.
+     */
+    private AtomicIntegerArray generations;
+
+    /**
+     * The component mask of each entity, maskWords longs per entity, with a bit set for each store the entity has a
+     * component in.
+     */
+    private AtomicLongArray masks;
+    private int maskWords = 1;
 
     /**
      * @param componentStores The component stores for components supported by this entity manager
@@ -98,13 +128,14 @@ public CoreEntityManager(Collection<ComponentStore<?>> componentStores) {
      * @param capacity The initial capacity of entities. All stores will be extended to this amount.
      */
     public CoreEntityManager(Collection<ComponentStore<?>> componentStores, int capacity) {
-        this.componentStores = new ConcurrentHashMap<>();
+        this.capacity = capacity;
+        this.generations = new AtomicIntegerArray(capacity);
+        this.freedIds = new FreeIdStack(capacity);
+        this.masks = new AtomicLongArray(capacity * maskWords);
         for (ComponentStore<?> store : componentStores) {
-            this.componentStores.put(store.getType().getComponentClass(), store);
             store.extend(capacity);
+            registerStore(store);
         }
-        this.entities = new EntityRef[capacity];
-        Arrays.fill(this.entities, NullEntityRef.get());
     }
 
     /**
@@ -113,14 +144,128 @@ public CoreEntityManager(Collection<ComponentStore<?>> componentStores, int capa
      * @throws IllegalStateException If a store for that component type is already present
      */
     public void addComponentStore(ComponentStore<?> store) {
-        Lock lock = locks.readLock();
+        Lock lock = locks.writeLock();
         lock.lock();
         try {
-            store.extend(entities.length);
-            if (componentStores.containsKey(store.getType().getComponentClass())) {
+            store.extend(capacity);
+            if (getIndexedStore(store.getType().getComponentClass()) != null) {
                 throw new IllegalStateException("Component store for type " + store.getType() + " already present");
             }
-            this.componentStores.put(store.getType().getComponentClass(), store);
+            registerStore(store);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Assigns the store the next component index, and records the components it already holds in the entity masks
+     */
+    @SuppressWarnings("unchecked")
+    private void registerStore(ComponentStore<?> store) {
+        int index = storesByIndex.length;
+        IndexedComponentStore<?> indexedStore = new IndexedComponentStore(store, index);
+        int requiredWords = (index >>> 6) + 1;
+        if (requiredWords > maskWords) {
+            AtomicLongArray newMasks = new AtomicLongArray(capacity * requiredWords);
+            for (int entityId = 0; entityId < capacity; ++entityId) {
+                for (int word = 0; word < maskWords; ++word) {
+                    newMasks.set(entityId * requiredWords + word, masks.get(entityId * maskWords + word));
+                }
+            }
+            masks = newMasks;
+            maskWords = requiredWords;
+        }
+        ComponentIterator<?> iterator = store.iterate();
+        while (iterator.next()) {
+            setMaskBit(iterator.getEntityId(), index);
+            indexedStore.componentCount.incrementAndGet();
+        }
+        IndexedComponentStore<?>[] newStoresByIndex = Arrays.copyOf(storesByIndex, index + 1);
+        newStoresByIndex[index] = indexedStore;
+        storesByIndex = newStoresByIndex;
+        int typeId = store.getType().getId();
+        IndexedComponentStore<?>[] newStoresByTypeId = Arrays.copyOf(storesByTypeId, Math.max(storesByTypeId.length, typeId + 1));
+        newStoresByTypeId[typeId] = indexedStore;
+        storesByTypeId = newStoresByTypeId;
+    }
+
+    /**
+     * Creates a group of the entities with all of the given component types. The group is populated with the matching
+     * entities that already exist, and is then kept up to date as components are added and removed, until it is
+     * removed with {@link #removeGroup(EntityGroup)}.
+     *
+     * @param componentTypes The component types entities in the group must have
+     * @return The new group
+     * @throws IllegalArgumentException If no component types are given, or there is no store for a component type
+     */
+    @SafeVarargs
+    public final EntityGroup createGroup(Class<? extends Component>... componentTypes) {
+        Preconditions.checkArgument(componentTypes.length > 0, "A group must have at least one component type");
+        Lock lock = locks.writeLock();
+        lock.lock();
+        try {
+            IndexedComponentStore<?>[] stores = new IndexedComponentStore<?>[componentTypes.length];
+            long[] signature = new long[maskWords];
+            for (int i = 0; i < componentTypes.length; ++i) {
+                stores[i] = getIndexedStore(componentTypes[i]);
+                if (stores[i] == null) {
+                    throw new IllegalArgumentException("No component store available for " + componentTypes[i]);
+                }
+                signature[stores[i].index >>> 6] |= 1L << stores[i].index;
+            }
+            EntityGroup group = new EntityGroup(this, ImmutableSet.copyOf(componentTypes), signature);
+
+            IndexedComponentStore<?> drivingStore = stores[0];
+            for (IndexedComponentStore<?> store : stores) {
+                if (store.iterationCost() < drivingStore.iterationCost()) {
+                    drivingStore = store;
+                }
+            }
+            ComponentIterator<?> iterator = drivingStore.iterate();
+            while (iterator.next()) {
+                group.update(iterator.getEntityId());
+            }
+            for (IndexedComponentStore<?> store : Sets.newHashSet(stores)) {
+                store.addGroup(group);
+            }
+            return group;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops maintaining a group. The group will no longer change.
+     *
+     * @param group The group to remove
+     */
+    public void removeGroup(EntityGroup group) {
+        Lock lock = locks.writeLock();
+        lock.lock();
+        try {
+            for (Class<? extends Component> componentType : group.getComponentTypes()) {
+                getIndexedStore(componentType).removeGroup(group);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param entityId  The entity
+     * @param signature A component mask
+     * @return Whether the entity has all the components in the signature, according to its component mask
+     */
+    boolean matches(int entityId, long[] signature) {
+        Lock lock = locks.readLock();
+        lock.lock();
+        try {
+            for (int word = 0; word < signature.length; ++word) {
+                if ((masks.get(entityId * maskWords + word) & signature[word]) != signature[word]) {
+                    return false;
+                }
+            }
+            return true;
         } finally {
             lock.unlock();
         }
@@ -128,10 +273,20 @@ public void addComponentStore(ComponentStore<?> store) {
 
     @Override
     public EntityRef getEntity(int id) {
+        if (id < 0) {
+            return NullEntityRef.get();
+        }
         Lock lock = locks.readLock();
         lock.lock();
         try {
-            return entities[id];
+            if (id >= generations.length()) {
+                return NullEntityRef.get();
+            }
+            int generation = generations.get(id);
+            if ((generation & 1) == 1) {
+                return new ManagedEntityRef(this, id, generation);
+            }
+            return NullEntityRef.get();
         } finally {
             lock.unlock();
         }
@@ -142,18 +297,21 @@ public EntityRef createEntity() {
         Lock lock = locks.readLock();
         lock.lock();
         try {
-            int id;
-            if (freedIdQueue.isEmpty()) {
-                id = nextId++;
-                if (id >= entities.length) {
-                    extendStorage();
+            int id = freedIds.pop();
+            if (id == FreeIdStack.EMPTY) {
+                id = nextId.getAndIncrement();
+                if (id >= capacity) {
+                    // The read lock can't be upgraded, so release it while extending
+                    lock.unlock();
+                    try {
+                        extendStorage(id + 1);
+                    } finally {
+                        lock.lock();
+                    }
                 }
-            } else {
-                id = freedIdQueue.remove();
             }
-            EntityRef result = new ManagedEntityRef(this, id);
-            entities[id] = result;
-            return result;
+            entityCount.incrementAndGet();
+            return new ManagedEntityRef(this, id, generations.incrementAndGet(id));
         } finally {
             lock.unlock();
         }
@@ -166,39 +324,111 @@ public EntityRef createEntity(Collection<Component> components) {
         return entity;
     }
 
-    void freeEntityId(int id) {
-        Lock lock = locks.writeLock();
+    /**
+     * Creates the entities with a contiguous range of new ids, extending storage at most once, and writes each
+     * template component to its store for the whole range under a single lock.
+     */
+    @Override
+    public List<EntityRef> createEntities(int count, Component... template) {
+        Preconditions.checkArgument(count >= 0, "Cannot create a negative number of entities");
+        IndexedComponentStore<?>[] stores = new IndexedComponentStore<?>[template.length];
+        for (int i = 0; i < template.length; ++i) {
+            stores[i] = getIndexedStore(template[i].getClass());
+            if (stores[i] == null) {
+                throw new IllegalArgumentException("No component store available for " + template[i].getClass());
+            }
+        }
+
+        int firstId = nextId.getAndAdd(count);
+        if (firstId + count > capacity) {
+            extendStorage(firstId + count);
+        }
+        List<EntityRef> result = Lists.newArrayListWithCapacity(count);
+        Lock lock = locks.readLock();
         lock.lock();
         try {
-            freedIdQueue.add(id);
+            for (int id = firstId; id < firstId + count; ++id) {
+                result.add(new ManagedEntityRef(this, id, generations.incrementAndGet(id)));
+            }
+            entityCount.addAndGet(count);
+            for (int i = 0; i < template.length; ++i) {
+                stores[i].setRange(firstId, count, template[i]);
+            }
         } finally {
             lock.unlock();
         }
+        return result;
     }
 
     @Override
     public int size() {
-        return nextId - freedIdQueue.size();
+        return entityCount.get();
     }
 
+    /**
+     * Plans the iteration from the number of components in each store and the measured selectivity of each store
+     * when probed. The driving store is the one with the lowest estimated total cost - the cost of iterating it,
+     * plus the expected number of probes of the other stores for its components. The other stores are probed in
+     * order of selectivity, so the stores that reject the most candidates are checked first.
+     */
     @Override
     public EntityIterator iterate(Component... components) {
-        List<Component> componentsOrdered = Lists.newArrayList(components);
-        componentsOrdered.sort(Comparator.comparing(x -> componentStores.get(x.getClass()).iterationCost()));
-        List<ComponentStore> stores = componentsOrdered.stream().map(x -> componentStores.get(x.getClass())).collect(Collectors.toList());
-
-        ComponentIterator drivingIterator = stores.get(0).iterate();
+        Preconditions.checkArgument(components.length > 0, "At least one component must be provided to iterate");
+        IndexedComponentStore<?>[] stores = new IndexedComponentStore<?>[components.length];
+        for (int i = 0; i < components.length; ++i) {
+            stores[i] = getIndexedStore(components[i].getClass());
+        }
+        int entities = Math.max(entityCount.get(), 1);
+        Integer[] bySelectivity = new Integer[stores.length];
+        float[] selectivity = new float[stores.length];
+        for (int i = 0; i < stores.length; ++i) {
+            bySelectivity[i] = i;
+            selectivity[i] = stores[i].estimateSelectivity(entities);
+        }
+        Arrays.sort(bySelectivity, Comparator.comparingDouble(i -> selectivity[i]));
+
+        int driver = 0;
+        double lowestCost = Double.MAX_VALUE;
+        for (int candidate = 0; candidate < stores.length; ++candidate) {
+            double probes = 0;
+            double surviving = stores[candidate].componentCount.get();
+            for (int i : bySelectivity) {
+                if (i != candidate) {
+                    probes += surviving;
+                    surviving *= selectivity[i];
+                }
+            }
+            double cost = stores[candidate].iterationCost() + probes;
+            if (cost < lowestCost) {
+                lowestCost = cost;
+                driver = candidate;
+            }
+        }
 
-        return new ComponentsIterator(drivingIterator, componentsOrdered, stores);
+        IndexedComponentStore<?>[] probeStores = new IndexedComponentStore<?>[stores.length - 1];
+        Component[] probeComponents = new Component[stores.length - 1];
+        int probeIndex = 0;
+        for (int i : bySelectivity) {
+            if (i != driver) {
+                probeStores[probeIndex] = stores[i];
+                probeComponents[probeIndex] = components[i];
+                probeIndex++;
+            }
+        }
+        return new ComponentsIterator(stores[driver].iterate(), components[driver], probeStores, probeComponents);
     }
 
     @Override
     @SuppressWarnings("unchecked")
     public <T extends Component<T>> ComponentStore<T> getComponentStore(Class<T> componentType) {
-        return (ComponentStore<T>) componentStores.get(componentType);
+        return (ComponentStore<T>) getIndexedStore(componentType);
     }
 
-    // TODO: Better home for prefab instantiation code?
+    private IndexedComponentStore<?> getIndexedStore(Class<? extends Component> componentType) {
+        IndexedComponentStore<?>[] stores = storesByTypeId;
+        int typeId = ComponentType.getId(componentType);
+        return (typeId < stores.length) ? stores[typeId] : null;
+    }
 
     @Override
     public EntityRef createEntity(Prefab prefab) {
@@ -208,81 +438,238 @@ public EntityRef createEntity(Prefab prefab) {
 
     @Override
     public Map<Name, EntityRef> createEntities(Prefab prefab) {
-        Map<Name, EntityRef> result = createPrefabEntities(prefab);
-        populatePrefabEntities(prefab, result);
-        return result;
+        return prefabInstantiator.createEntities(prefab);
     }
 
-    @SuppressWarnings("unchecked")
-    private void populatePrefabEntities(Prefab prefab, Map<Name, EntityRef> result) {
-        for (EntityRecipe entityRecipe : prefab.getEntityRecipes().values()) {
-            EntityRef entity = result.get(entityRecipe.getIdentifier().getFragmentName());
-            GeneratedFromRecipeComponent prefabComponent = new GeneratedFromRecipeComponent();
-            prefabComponent.setEntityRecipe(entityRecipe.getIdentifier());
-            entity.setComponent(prefabComponent);
+    @Override
+    public List<EntityRef> spawn(Prefab prefab, int count) {
+        return prefabInstantiator.spawn(prefab, count);
+    }
+
+    /**
+     * @param entityId   The entity id
+     * @param generation The generation of the entity
+     * @return Whether the entity with the given id and generation still exists
+     */
+    boolean exists(int entityId, int generation) {
+        Lock lock = locks.readLock();
+        lock.lock();
+        try {
+            return generations.get(entityId) == generation;
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            for (TypeKeyedMap.Entry<? extends Component> entry : entityRecipe.getComponents().entrySet()) {
-                ComponentType componentType = componentStores.get(entry.getKey()).getType();
-                Component component = componentType.createCopy(entry.getValue());
-                processReferences(componentType, component, entityRecipe.getIdentifier(), result);
-                entity.setComponent(component);
+    /**
+     * @param entityId      The entity
+     * @param componentType The type of component
+     * @return Whether the entity has a component of the given type, according to its component mask
+     */
+    boolean hasComponent(int entityId, Class<? extends Component> componentType) {
+        IndexedComponentStore<?> store = getIndexedStore(componentType);
+        if (store == null) {
+            return false;
+        }
+        Lock lock = locks.readLock();
+        lock.lock();
+        try {
+            return (masks.get(entityId * maskWords + (store.index >>> 6)) & (1L << store.index)) != 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets bit i of the mask if the entity has a component of componentTypes[i], according to its component mask
+     *
+     * @param entityId       The entity
+     * @param componentTypes The types of component to check for
+     * @param mask           The mask to set bits in
+     */
+    void getComponentMask(int entityId, Class<? extends Component>[] componentTypes, long[] mask) {
+        Lock lock = locks.readLock();
+        lock.lock();
+        try {
+            int entityOffset = entityId * maskWords;
+            for (int i = 0; i < componentTypes.length; ++i) {
+                IndexedComponentStore<?> store = getIndexedStore(componentTypes[i]);
+                if (store != null && (masks.get(entityOffset + (store.index >>> 6)) & (1L << store.index)) != 0) {
+                    mask[i >>> 6] |= 1L << i;
+                }
             }
+        } finally {
+            lock.unlock();
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private void processReferences(ComponentType<?> componentType, Component component, ResourceUrn entityRecipeUrn, Map<Name, EntityRef> entityMap) {
-        for (PropertyAccessor property : componentType.getPropertyInfo().getPropertiesOfType(EntityRef.class)) {
-            EntityRef existing = (EntityRef) property.get(component);
-            EntityRef newRef;
-            if (existing instanceof EntityRecipeRef) {
-                newRef = entityMap.get(((EntityRecipeRef) existing).getRecipe().getIdentifier().getFragmentName());
-                if (newRef == null) {
-                    logger.error("{} references external or unknown entity prefab {}", entityRecipeUrn, existing);
-                    newRef = NullEntityRef.get();
+    /**
+     * @param entityId The entity
+     * @return A snapshot of the component types of the entity, based on its component mask
+     */
+    Set<Class<? extends Component>> getComponentTypes(int entityId) {
+        return new ComponentTypeSet(storesByIndex, copyMask(entityId));
+    }
+
+    /**
+     * @param entityId The entity
+     * @return Copies of all the components of the entity
+     */
+    TypeKeyedMap<Component> getAllComponents(int entityId) {
+        TypeKeyedMap<Component> components = new TypeKeyedMap<>();
+        long[] mask = copyMask(entityId);
+        IndexedComponentStore<?>[] stores = storesByIndex;
+        for (int index = nextBit(mask, 0); index >= 0; index = nextBit(mask, index + 1)) {
+            stores[index].copyInto(entityId, components);
+        }
+        return components;
+    }
+
+    /**
+     * Removes components from an entity
+     *
+     * @param entityId       The entity
+     * @param componentTypes The types of component to remove
+     * @return The removed components
+     */
+    Set<Component<?>> removeComponents(int entityId, Collection<Class<? extends Component>> componentTypes) {
+        Set<Component<?>> removedComponents = Sets.newLinkedHashSet();
+        for (Class<? extends Component> componentType : componentTypes) {
+            IndexedComponentStore<?> store = getIndexedStore(componentType);
+            if (store != null) {
+                Component<?> removed = store.remove(entityId);
+                if (removed != null) {
+                    removedComponents.add(removed);
                 }
-            } else if (existing instanceof PrefabRef) {
-                newRef = createEntity(((PrefabRef) existing).getPrefab());
-            } else {
-                logger.error("{} contains unsupported entity ref {}", entityRecipeUrn, existing);
-                newRef = NullEntityRef.get();
             }
-            property.set(component, newRef);
         }
+        return removedComponents;
     }
 
     /**
-     * Create all the entities described by a prefab.
+     * Removes all components from an entity and frees its id, if the entity still exists
+     *
+     * @param entityId   The entity
+     * @param generation The generation of the entity
+     * @return The removed components
      */
-    private Map<Name, EntityRef> createPrefabEntities(Prefab prefab) {
-        Map<Name, EntityRef> result = Maps.newLinkedHashMap();
-        for (EntityRecipe entityRecipe : prefab.getEntityRecipes().values()) {
-            result.put(entityRecipe.getIdentifier().getFragmentName(), createEntity());
+    Set<Component<?>> delete(int entityId, int generation) {
+        if (!exists(entityId, generation)) {
+            return Collections.emptySet();
         }
-        return result;
+        Set<Component<?>> removedComponents = Sets.newLinkedHashSet();
+        long[] mask = copyMask(entityId);
+        IndexedComponentStore<?>[] stores = storesByIndex;
+        for (int index = nextBit(mask, 0); index >= 0; index = nextBit(mask, index + 1)) {
+            Component<?> removed = stores[index].remove(entityId);
+            if (removed != null) {
+                removedComponents.add(removed);
+            }
+        }
+        Lock lock = locks.readLock();
+        lock.lock();
+        try {
+            if (generations.compareAndSet(entityId, generation, generation + 1)) {
+                entityCount.decrementAndGet();
+                freedIds.push(entityId);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return removedComponents;
+    }
+
+    private long[] copyMask(int entityId) {
+        Lock lock = locks.readLock();
+        lock.lock();
+        try {
+            long[] result = new long[maskWords];
+            for (int word = 0; word < maskWords; ++word) {
+                result[word] = masks.get(entityId * maskWords + word);
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void setMaskBit(int entityId, int index) {
+        int word = entityId * maskWords + (index >>> 6);
+        long bit = 1L << index;
+        long current;
+        do {
+            current = masks.get(word);
+        } while ((current & bit) == 0 && !masks.compareAndSet(word, current, current | bit));
+    }
+
+    private void clearMaskBit(int entityId, int index) {
+        int word = entityId * maskWords + (index >>> 6);
+        long bit = 1L << index;
+        long current;
+        do {
+            current = masks.get(word);
+        } while ((current & bit) != 0 && !masks.compareAndSet(word, current, current & ~bit));
+    }
+
+    /**
+     * @return The index of the next set bit in the mask at or after from, or -1 if there is none
+     */
+    private static int nextBit(long[] mask, int from) {
+        int word = from >>> 6;
+        if (word >= mask.length) {
+            return -1;
+        }
+        long bits = mask[word] & (-1L << from);
+        while (bits == 0) {
+            if (++word == mask.length) {
+                return -1;
+            }
+            bits = mask[word];
+        }
+        return (word << 6) + Long.numberOfTrailingZeros(bits);
     }
 
     @Override
     public Iterable<EntityRef> allEntities() {
-        return Collections.unmodifiableList(Arrays.asList(entities));
+        List<EntityRef> result = Lists.newArrayList();
+        int limit = nextId.get();
+        for (int id = 0; id < limit; ++id) {
+            EntityRef entity = getEntity(id);
+            if (entity.exists()) {
+                result.add(entity);
+            }
+        }
+        return Collections.unmodifiableList(result);
     }
 
     /**
-     * Extends the internal storage of the entity manager and all the component stores, if they are exhausted
+     * Extends the internal storage of the entity manager and all the component stores, if they are smaller than
+     * required
+     *
+     * @param required The number of entities that must be supported
      */
-    private void extendStorage() {
+    private void extendStorage(int required) {
         Lock lock = locks.writeLock();
         lock.lock();
         try {
-            if (entities.length <= nextId) {
-                int newSize = Math.min((int) (entities.length * EXTENSION_RATE), entities.length + 1);
-                EntityRef[] newEntities = new EntityRef[newSize];
-                System.arraycopy(entities, 0, newEntities, 0, entities.length);
-                Arrays.fill(newEntities, entities.length, newEntities.length, NullEntityRef.get());
-                entities = newEntities;
-
-                for (ComponentStore<?> store : componentStores.values()) {
-                    store.extend(entities.length);
+            if (capacity < required) {
+                int newSize = Math.max((int) (capacity * EXTENSION_RATE), required);
+                AtomicIntegerArray newGenerations = new AtomicIntegerArray(newSize);
+                for (int i = 0; i < capacity; ++i) {
+                    newGenerations.set(i, generations.get(i));
+                }
+                generations = newGenerations;
+                freedIds.extend(newSize);
+
+                AtomicLongArray newMasks = new AtomicLongArray(newSize * maskWords);
+                for (int i = 0; i < masks.length(); ++i) {
+                    newMasks.set(i, masks.get(i));
+                }
+                masks = newMasks;
+                capacity = newSize;
+
+                for (ComponentStore<?> store : storesByIndex) {
+                    store.extend(newSize);
                 }
             }
         } finally {
@@ -292,39 +679,330 @@ private void extendStorage() {
 
     @Override
     public Iterable<ComponentStore<?>> allComponentStores() {
-        return componentStores.values();
+        return Collections.unmodifiableList(Arrays.asList(storesByIndex));
     }
 
-    private class ComponentsIterator implements EntityIterator {
-        private ComponentIterator drivingIterator;
-        private List<Component> components;
-        private List<ComponentStore> componentStores;
+    /**
+     * Wraps each component store of the entity manager, maintaining the component masks of entities as components are
+     * added and removed.
+     *
+     * @param <T> The type of component stored
+     */
+    private class IndexedComponentStore<T extends Component<T>> implements ComponentStore<T> {
+        private final ComponentStore<T> inner;
+        private final int index;
+        private final AtomicInteger componentCount = new AtomicInteger();
+        private volatile EntityGroup[] groups = new EntityGroup[0];
+
+        /**
+         * The measured fraction of probes of this store that find a component, or a negative value before enough
+         * probes have been measured
+         */
+        private volatile float measuredSelectivity = -1;
+
+        IndexedComponentStore(ComponentStore<T> inner, int index) {
+            this.inner = inner;
+            this.index = index;
+        }
+
+        @Override
+        public ComponentType<T> getType() {
+            return inner.getType();
+        }
+
+        @Override
+        public boolean has(int entityId) {
+            return inner.has(entityId);
+        }
+
+        @Override
+        public boolean get(int entityId, T into) {
+            return inner.get(entityId, into);
+        }
+
+        @Override
+        public T borrowRead(int entityId) {
+            return inner.borrowRead(entityId);
+        }
+
+        @Override
+        public T borrowWrite(int entityId) {
+            return inner.borrowWrite(entityId);
+        }
+
+        @Override
+        public boolean set(int entityId, T component) {
+            Lock lock = locks.readLock();
+            lock.lock();
+            try {
+                if (inner.set(entityId, component)) {
+                    componentCount.incrementAndGet();
+                    setMaskBit(entityId, index);
+                    updateGroups(entityId);
+                    return true;
+                }
+                return false;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Sets the component for a range of entities. The caller must hold the read lock.
+         */
+        @SuppressWarnings("unchecked")
+        void setRange(int firstId, int count, Component component) {
+            for (int id = firstId; id < firstId + count; ++id) {
+                if (inner.set(id, (T) component)) {
+                    componentCount.incrementAndGet();
+                    setMaskBit(id, index);
+                    updateGroups(id);
+                }
+            }
+        }
+
+        @Override
+        public T remove(int entityId) {
+            Lock lock = locks.readLock();
+            lock.lock();
+            try {
+                T removed = inner.remove(entityId);
+                if (removed != null) {
+                    componentCount.decrementAndGet();
+                    clearMaskBit(entityId, index);
+                    updateGroups(entityId);
+                }
+                return removed;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public int iterationCost() {
+            return inner.iterationCost();
+        }
+
+        @Override
+        public int estimateSize() {
+            return componentCount.get();
+        }
+
+        @Override
+        public void extend(int capacity) {
+            inner.extend(capacity);
+        }
+
+        @Override
+        public ComponentIterator<T> iterate() {
+            return inner.iterate();
+        }
+
+        @Override
+        public Optional<PropertyIndex> getPropertyIndex(String propertyName) {
+            return inner.getPropertyIndex(propertyName);
+        }
 
-        private ComponentsIterator(ComponentIterator drivingIterator, List<Component> components, List<ComponentStore> componentStores) {
+        /**
+         * Adds a group to be updated when components are added to or removed from this store. The caller must hold
+         * the write lock.
+         */
+        void addGroup(EntityGroup group) {
+            EntityGroup[] newGroups = Arrays.copyOf(groups, groups.length + 1);
+            newGroups[groups.length] = group;
+            groups = newGroups;
+        }
+
+        /**
+         * Removes a group from this store. The caller must hold the write lock.
+         */
+        void removeGroup(EntityGroup group) {
+            List<EntityGroup> remaining = Lists.newArrayList(groups);
+            remaining.remove(group);
+            groups = remaining.toArray(new EntityGroup[0]);
+        }
+
+        /**
+         * @param entities The number of entities in the entity manager
+         * @return The expected fraction of entities that have a component in this store
+         */
+        float estimateSelectivity(int entities) {
+            float measured = measuredSelectivity;
+            if (measured >= 0) {
+                return measured;
+            }
+            return Math.min(1f, (float) componentCount.get() / entities);
+        }
+
+        /**
+         * Updates the measured selectivity of this store from the results of a completed iteration
+         */
+        void recordProbes(int probes, int passes) {
+            if (probes >= MIN_MEASURED_PROBES) {
+                float measured = (float) passes / probes;
+                float previous = measuredSelectivity;
+                measuredSelectivity = (previous < 0) ? measured : (previous + measured) / 2;
+            }
+        }
+
+        private void updateGroups(int entityId) {
+            for (EntityGroup group : groups) {
+                group.update(entityId);
+            }
+        }
+
+        void copyInto(int entityId, TypeKeyedMap<Component> components) {
+            T component = inner.getType().create();
+            if (inner.get(entityId, component)) {
+                components.put(component);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return inner.toString();
+        }
+    }
+
+    /**
+     * An immutable set of component types, backed by a snapshot of an entity's component mask
+     */
+    private class ComponentTypeSet extends AbstractSet<Class<? extends Component>> {
+        private final IndexedComponentStore<?>[] stores;
+        private final long[] mask;
+
+        ComponentTypeSet(IndexedComponentStore<?>[] stores, long[] mask) {
+            this.stores = stores;
+            this.mask = mask;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Class)) {
+                return false;
+            }
+            if (!Component.class.isAssignableFrom((Class<?>) o)) {
+                return false;
+            }
+            IndexedComponentStore<?> store = getIndexedStore((Class<? extends Component>) o);
+            if (store == null || (store.index >>> 6) >= mask.length) {
+                return false;
+            }
+            return (mask[store.index >>> 6] & (1L << store.index)) != 0;
+        }
+
+        @Override
+        public Iterator<Class<? extends Component>> iterator() {
+            return new Iterator<Class<? extends Component>>() {
+                private int index = nextBit(mask, 0);
+
+                @Override
+                public boolean hasNext() {
+                    return index >= 0;
+                }
+
+                @Override
+                public Class<? extends Component> next() {
+                    if (index < 0) {
+                        throw new NoSuchElementException();
+                    }
+                    Class<? extends Component> result = stores[index].getType().getComponentClass();
+                    index = nextBit(mask, index + 1);
+                    return result;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (long word : mask) {
+                size += Long.bitCount(word);
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Iterates the driving store, probing the other stores with has() so that components are only copied for
+     * entities that have all the components. Records how many probes of each store succeeded once iteration is
+     * complete.
+     */
+    private class ComponentsIterator implements EntityIterator {
+        private final ComponentIterator drivingIterator;
+        private final Component drivingComponent;
+        private final IndexedComponentStore[] probeStores;
+        private final Component[] probeComponents;
+        private final int[] probes;
+        private final int[] passes;
+        private boolean complete;
+
+        private ComponentsIterator(ComponentIterator drivingIterator, Component drivingComponent, IndexedComponentStore[] probeStores, Component[] probeComponents) {
             this.drivingIterator = drivingIterator;
-            this.components = components;
-            this.componentStores = componentStores;
+            this.drivingComponent = drivingComponent;
+            this.probeStores = probeStores;
+            this.probeComponents = probeComponents;
+            this.probes = new int[probeStores.length];
+            this.passes = new int[probeStores.length];
         }
 
         @SuppressWarnings("unchecked")
         public boolean next() {
             while (drivingIterator.next()) {
                 int entityId = drivingIterator.getEntityId();
-                boolean found = true;
-                for (int i = 1; i < componentStores.size(); ++i) {
-                    if (!componentStores.get(i).get(entityId, components.get(i))) {
-                        found = false;
-                        break;
+                if (matches(entityId)) {
+                    drivingIterator.getComponent(drivingComponent);
+                    for (int i = 0; i < probeStores.length; ++i) {
+                        probeStores[i].get(entityId, probeComponents[i]);
                     }
-                }
-                if (found) {
-                    drivingIterator.getComponent(components.get(0));
                     return true;
                 }
             }
+            complete();
             return false;
         }
 
+        private void complete() {
+            if (!complete) {
+                complete = true;
+                for (int i = 0; i < probeStores.length; ++i) {
+                    probeStores[i].recordProbes(probes[i], passes[i]);
+                }
+            }
+        }
+
+        /**
+         * Reads blocks of candidates from the driving store and filters them in place. Components are not copied.
+         */
+        @Override
+        public int nextBatch(int[] entityIds) {
+            int found = 0;
+            while (found == 0) {
+                int candidates = drivingIterator.nextBlock(entityIds);
+                if (candidates == 0) {
+                    complete();
+                    return 0;
+                }
+                for (int i = 0; i < candidates; ++i) {
+                    if (matches(entityIds[i])) {
+                        entityIds[found++] = entityIds[i];
+                    }
+                }
+            }
+            return found;
+        }
+
+        private boolean matches(int entityId) {
+            for (int i = 0; i < probeStores.length; ++i) {
+                probes[i]++;
+                if (!probeStores[i].has(entityId)) {
+                    return false;
+                }
+                passes[i]++;
+            }
+            return true;
+        }
+
         @Override
         public EntityRef getEntity() {
             return CoreEntityManager.this.getEntity(drivingIterator.getEntityId());
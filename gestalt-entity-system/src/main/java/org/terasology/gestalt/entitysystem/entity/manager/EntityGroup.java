@@ -0,0 +1,140 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.entity.manager;
+
+import org.terasology.gestalt.entitysystem.component.Component;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.function.IntConsumer;
+
+/**
+ * A persistent group of the entities that have all of a set of component types. Groups are created through
+ * {@link CoreEntityManager#createGroup(Class[])}, and are kept up to date by the entity manager as components are added
+ * and removed, so iterating a group requires no join across component stores.
+ * <p>
+ * The ids of the entities in the group are packed into an array, in no particular order. Removing an entity from the
+ * group moves the last entity into its place, so entities may be skipped if the group changes while iterating it by
+ * index - iterating from the end avoids this for removals of the current entity. Reading the group while other
+ * threads are adding or removing components is not thread safe.
+ */
+public final class EntityGroup {
+
+    private final CoreEntityManager entityManager;
+    private final Set<Class<? extends Component>> componentTypes;
+    private final long[] signature;
+
+    private int[] entities = new int[16];
+    private int size;
+
+    /**
+     * The position in entities of each entity id plus one, or zero for entities not in the group
+     */
+    private int[] positions = new int[0];
+
+    EntityGroup(CoreEntityManager entityManager, Set<Class<? extends Component>> componentTypes, long[] signature) {
+        this.entityManager = entityManager;
+        this.componentTypes = componentTypes;
+        this.signature = signature;
+    }
+
+    /**
+     * @return The component types entities in this group have
+     */
+    public Set<Class<? extends Component>> getComponentTypes() {
+        return componentTypes;
+    }
+
+    /**
+     * @return The number of entities in the group
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index The index of the entity within the group, between 0 and size() - 1
+     * @return The id of the entity at that index
+     */
+    public int getEntityId(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return entities[index];
+    }
+
+    /**
+     * @param entityId The id of an entity
+     * @return Whether the entity is in the group
+     */
+    public boolean contains(int entityId) {
+        return entityId >= 0 && entityId < positions.length && positions[entityId] != 0;
+    }
+
+    /**
+     * Performs an action for the id of each entity in the group
+     *
+     * @param action The action to perform
+     */
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < size; ++i) {
+            action.accept(entities[i]);
+        }
+    }
+
+    long[] getSignature() {
+        return signature;
+    }
+
+    /**
+     * Adds or removes the entity from the group based on its current component mask. The mask is checked while holding
+     * the group's lock, so concurrent updates for the same entity leave the group matching the final mask.
+     *
+     * @param entityId The entity whose components have changed
+     */
+    synchronized void update(int entityId) {
+        if (entityManager.matches(entityId, signature)) {
+            add(entityId);
+        } else {
+            remove(entityId);
+        }
+    }
+
+    private void add(int entityId) {
+        if (entityId >= positions.length) {
+            positions = Arrays.copyOf(positions, Math.max(entityId + 1, positions.length * 2));
+        } else if (positions[entityId] != 0) {
+            return;
+        }
+        if (size == entities.length) {
+            entities = Arrays.copyOf(entities, size * 2);
+        }
+        entities[size++] = entityId;
+        positions[entityId] = size;
+    }
+
+    private void remove(int entityId) {
+        if (entityId >= positions.length || positions[entityId] == 0) {
+            return;
+        }
+        int position = positions[entityId] - 1;
+        int last = entities[--size];
+        entities[position] = last;
+        positions[last] = position + 1;
+        positions[entityId] = 0;
+    }
+}
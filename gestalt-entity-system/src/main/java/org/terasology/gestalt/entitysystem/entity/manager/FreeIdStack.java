@@ -0,0 +1,88 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.entity.manager;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free stack of freed entity ids. The stack is linked through an array indexed by entity id, so pushing and
+ * popping ids doesn't allocate. The head holds the top id in its lower 32 bits and a version in its upper 32 bits,
+ * which is advanced on every change so a pop can't succeed against a head that was popped and pushed back meanwhile.
+ * <p>
+ * {@link #extend(int)} replaces the link array, so it must not run concurrently with push or pop - the entity manager
+ * guards this with its storage lock.
+ */
+@ThreadSafe
+final class FreeIdStack {
+
+    static final int EMPTY = -1;
+
+    private static final long ID_MASK = 0xFFFFFFFFL;
+
+    private final AtomicLong head = new AtomicLong(ID_MASK & EMPTY);
+    private int[] next;
+
+    /**
+     * @param capacity The number of entity ids to support
+     */
+    FreeIdStack(int capacity) {
+        next = new int[capacity];
+    }
+
+    /**
+     * @param id A freed entity id, which must not already be in the stack
+     */
+    void push(int id) {
+        long current;
+        do {
+            current = head.get();
+            next[id] = (int) current;
+        } while (!head.compareAndSet(current, nextVersion(current) | (id & ID_MASK)));
+    }
+
+    /**
+     * @return The most recently freed entity id, or {@link #EMPTY} if there are none
+     */
+    int pop() {
+        long current;
+        int id;
+        do {
+            current = head.get();
+            id = (int) current;
+            if (id == EMPTY) {
+                return EMPTY;
+            }
+        } while (!head.compareAndSet(current, nextVersion(current) | (next[id] & ID_MASK)));
+        return id;
+    }
+
+    /**
+     * @param capacity The number of entity ids to support
+     */
+    void extend(int capacity) {
+        if (capacity > next.length) {
+            next = Arrays.copyOf(next, capacity);
+        }
+    }
+
+    private static long nextVersion(long current) {
+        return (current & ~ID_MASK) + (1L << 32);
+    }
+}
@@ -16,8 +16,6 @@
 
 package org.terasology.gestalt.entitysystem.entity.manager;
 
-import com.google.common.collect.Sets;
-
 import net.jcip.annotations.ThreadSafe;
 
 import org.terasology.gestalt.entitysystem.component.Component;
@@ -31,19 +29,22 @@
 import java.util.Set;
 
 /**
- * An EntityRef implementation for Entities managed by a CoreEntityManager.
+ * An EntityRef implementation for Entities managed by a CoreEntityManager. This is a lightweight handle - the entity id
+ * and the generation of the id the entity was created with. Once the entity is deleted the id's generation moves on,
+ * so the handle no longer exists even if the id is reused. Handles to the same entity are equal.
  */
 @ThreadSafe
 class ManagedEntityRef implements EntityRef {
-    private volatile CoreEntityManager entityManager;
+    private final CoreEntityManager entityManager;
     private final int id;
+    private final int generation;
 
-    ManagedEntityRef(CoreEntityManager entityManager, int entityId) {
+    ManagedEntityRef(CoreEntityManager entityManager, int entityId, int generation) {
         this.entityManager = entityManager;
         this.id = entityId;
+        this.generation = generation;
     }
 
-
     @Override
     public int getId() {
         return id;
@@ -51,22 +52,18 @@ public int getId() {
 
     @Override
     public boolean exists() {
-        return entityManager != null;
+        return entityManager.exists(id, generation);
     }
 
     @Override
     public <T extends Component<T>> boolean hasComponent(Class<T> type) {
-        if (entityManager != null) {
-            return entityManager.getComponentStore(type).has(id);
-        } else {
-            return false;
-        }
+        return exists() && entityManager.hasComponent(id, type);
     }
 
     @Override
     @SuppressWarnings("unchecked")
     public <T extends Component<T>> boolean getComponent(T component) {
-        if (entityManager != null) {
+        if (exists()) {
             return entityManager.getComponentStore(component.getClass()).get(id, component);
         } else {
             return false;
@@ -75,10 +72,12 @@ public <T extends Component<T>> boolean getComponent(T component) {
 
     @Override
     public <T extends Component<T>> Optional<T> getComponent(Class<T> componentType) {
-        ComponentStore<T> componentStore = entityManager.getComponentStore(componentType);
-        T result = componentStore.getType().create();
-        if (componentStore.get(id, result)) {
-            return Optional.of(result);
+        if (exists()) {
+            ComponentStore<T> componentStore = entityManager.getComponentStore(componentType);
+            T result = componentStore.getType().create();
+            if (componentStore.get(id, result)) {
+                return Optional.of(result);
+            }
         }
         return Optional.empty();
     }
@@ -86,7 +85,7 @@ public <T extends Component<T>> Optional<T> getComponent(Class<T> componentType)
     @Override
     @SuppressWarnings("unchecked")
     public <T extends Component<T>> boolean setComponent(T component) {
-        if (entityManager != null) {
+        if (exists()) {
             return entityManager.getComponentStore(component.getClass()).set(id, component);
         }
         return false;
@@ -94,7 +93,7 @@ public <T extends Component<T>> boolean setComponent(T component) {
 
     @Override
     public <T extends Component<T>> T removeComponent(Class<T> componentType) {
-        if (entityManager != null) {
+        if (exists()) {
             return entityManager.getComponentStore(componentType).remove(id);
         }
         return null;
@@ -102,19 +101,23 @@ public <T extends Component<T>> T removeComponent(Class<T> componentType) {
 
     @Override
     public Set<Component<?>> removeComponents(Collection<Class<? extends Component>> componentTypes) {
-        return null;
+        if (exists()) {
+            return entityManager.removeComponents(id, componentTypes);
+        }
+        return Collections.emptySet();
+    }
+
+    @Override
+    public void getComponentMask(Class<? extends Component>[] componentTypes, long[] mask) {
+        if (exists()) {
+            entityManager.getComponentMask(id, componentTypes, mask);
+        }
     }
 
     @Override
     public Set<Class<? extends Component>> getComponentTypes() {
-        if (entityManager != null) {
-            Set<Class<? extends Component>> types = Sets.newLinkedHashSet();
-            for (ComponentStore<?> store : entityManager.allComponentStores()) {
-                if (store.has(id)) {
-                    types.add(store.getType().getComponentClass());
-                }
-            }
-            return types;
+        if (exists()) {
+            return entityManager.getComponentTypes(id);
         } else {
             return Collections.emptySet();
         }
@@ -122,45 +125,38 @@ public Set<Class<? extends Component>> getComponentTypes() {
 
     @Override
     public TypeKeyedMap<Component> getAllComponents() {
-        if (entityManager != null) {
-            TypeKeyedMap<Component> components = new TypeKeyedMap<>();
-            for (ComponentStore<?> store : entityManager.allComponentStores()) {
-                addComponentFromStore(store, components);
-            }
-            return components;
+        if (exists()) {
+            return entityManager.getAllComponents(id);
         } else {
             return TypeKeyedMap.empty();
         }
     }
 
-    /*
-     * Supports getAllComponents, separate method to support generic trickery
-     */
-    private <T extends Component<T>> void addComponentFromStore(ComponentStore<T> store, TypeKeyedMap<Component> components) {
-        T component = store.getType().create();
-        store.get(id, component);
-        components.put(component);
+    @Override
+    public Set<Component<?>> delete() {
+        return entityManager.delete(id, generation);
     }
 
     @Override
-    public Set<Component<?>> delete() {
-        Set<Component<?>> removedComponents = Sets.newLinkedHashSet();
-        if (entityManager != null) {
-            for (ComponentStore<?> store : entityManager.allComponentStores()) {
-                Component<?> removed = store.remove(id);
-                if (removed != null) {
-                    removedComponents.add(removed);
-                }
-            }
-            entityManager.freeEntityId(id);
-            entityManager = null;
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
         }
-        return removedComponents;
+        if (obj instanceof ManagedEntityRef) {
+            ManagedEntityRef other = (ManagedEntityRef) obj;
+            return id == other.id && generation == other.generation && entityManager == other.entityManager;
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * id + generation;
     }
 
     @Override
     public String toString() {
-        if (entityManager != null) {
+        if (exists()) {
             return "EntityRef(" + id + ")";
         } else {
             return "EntityRef(deleted)";
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.entity.manager;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terasology.gestalt.assets.ResourceUrn;
+import org.terasology.gestalt.entitysystem.component.Component;
+import org.terasology.gestalt.entitysystem.component.management.ComponentType;
+import org.terasology.gestalt.entitysystem.component.management.PropertyAccessor;
+import org.terasology.gestalt.entitysystem.component.store.ComponentStore;
+import org.terasology.gestalt.entitysystem.entity.EntityManager;
+import org.terasology.gestalt.entitysystem.entity.EntityRef;
+import org.terasology.gestalt.entitysystem.entity.NullEntityRef;
+import org.terasology.gestalt.entitysystem.prefab.EntityRecipe;
+import org.terasology.gestalt.entitysystem.prefab.EntityRecipeRef;
+import org.terasology.gestalt.entitysystem.prefab.GeneratedFromRecipeComponent;
+import org.terasology.gestalt.entitysystem.prefab.Prefab;
+import org.terasology.gestalt.entitysystem.prefab.PrefabRef;
+import org.terasology.gestalt.naming.Name;
+import org.terasology.gestalt.util.collection.TypeKeyedMap;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Instantiates prefabs into an entity manager. Shared by the entity manager implementations, each of which has its own
+ * instantiator.
+ * <p>
+ * The first time a prefab is instantiated it is compiled into a {@link Plan} - the component stores to write to, the
+ * template component for each, and the EntityRef properties of each template that need to be linked to the
+ * instantiated entities. Later instantiations of the prefab just run the plan. Plans are recompiled when their prefab
+ * is reloaded, and are discarded along with their prefab.
+ */
+final class PrefabInstantiator {
+
+    private static final Logger logger = LoggerFactory.getLogger(PrefabInstantiator.class);
+
+    private final EntityManager entityManager;
+    private final Map<Prefab, Plan> plans = new MapMaker().weakKeys().makeMap();
+
+    /**
+     * @param entityManager The entity manager to create entities in
+     */
+    PrefabInstantiator(EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
+    /**
+     * Creates entities based on a prefab
+     *
+     * @param prefab The prefab to create entities from
+     * @return A map of EntityRefs created, by the name of the entity prefab.
+     */
+    Map<Name, EntityRef> createEntities(Prefab prefab) {
+        Plan plan = getPlan(prefab);
+        List<EntityRef> entities = plan.execute(1);
+        Map<Name, EntityRef> result = Maps.newLinkedHashMapWithExpectedSize(plan.names.length);
+        for (int i = 0; i < plan.names.length; ++i) {
+            result.put(plan.names[i], entities.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Creates a number of instances of a prefab in a single pass
+     *
+     * @param prefab The prefab to create entities from
+     * @param count  The number of instances to create
+     * @return The root entity of each instance
+     */
+    List<EntityRef> spawn(Prefab prefab, int count) {
+        Preconditions.checkArgument(count >= 0, "Cannot spawn a negative number of instances");
+        Plan plan = getPlan(prefab);
+        List<EntityRef> entities = plan.execute(count);
+        return Lists.newArrayList(entities.subList(plan.rootSlot * count, (plan.rootSlot + 1) * count));
+    }
+
+    private Plan getPlan(Prefab prefab) {
+        Plan plan = plans.get(prefab);
+        if (plan == null || plan.recipes != prefab.getEntityRecipes()) {
+            plan = compile(prefab);
+            plans.put(prefab, plan);
+        }
+        return plan;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Plan compile(Prefab prefab) {
+        Map<ResourceUrn, EntityRecipe> recipes = prefab.getEntityRecipes();
+        Map<Name, Integer> slots = Maps.newHashMap();
+        Name[] names = new Name[recipes.size()];
+        int rootSlot = -1;
+        for (ResourceUrn recipeUrn : recipes.keySet()) {
+            int slot = slots.size();
+            names[slot] = recipeUrn.getFragmentName();
+            slots.put(names[slot], slot);
+            if (recipeUrn.equals(prefab.getRootEntityUrn())) {
+                rootSlot = slot;
+            }
+        }
+
+        ComponentStore generatedFromStore = getStore(GeneratedFromRecipeComponent.class);
+        WriteOp[][] ops = new WriteOp[names.length][];
+        int slot = 0;
+        for (EntityRecipe entityRecipe : recipes.values()) {
+            List<WriteOp> slotOps = Lists.newArrayList();
+            GeneratedFromRecipeComponent prefabComponent = new GeneratedFromRecipeComponent();
+            prefabComponent.setEntityRecipe(entityRecipe.getIdentifier());
+            slotOps.add(new WriteOp(generatedFromStore, prefabComponent, new RefFixup[0]));
+
+            for (TypeKeyedMap.Entry<? extends Component> entry : entityRecipe.getComponents().entrySet()) {
+                ComponentStore<?> store = getStore(entry.getKey());
+                ComponentType<?> componentType = store.getType();
+                List<RefFixup> fixups = Lists.newArrayList();
+                for (PropertyAccessor property : componentType.getPropertyInfo().getPropertiesOfType(EntityRef.class)) {
+                    fixups.add(compileReference(property, (EntityRef) property.get(entry.getValue()), entityRecipe.getIdentifier(), slots));
+                }
+                slotOps.add(new WriteOp(store, entry.getValue(), fixups.toArray(new RefFixup[0])));
+            }
+            ops[slot++] = slotOps.toArray(new WriteOp[0]);
+        }
+        return new Plan(recipes, names, rootSlot, ops);
+    }
+
+    private RefFixup compileReference(PropertyAccessor property, EntityRef existing, ResourceUrn entityRecipeUrn, Map<Name, Integer> slots) {
+        if (existing instanceof EntityRecipeRef) {
+            Integer targetSlot = slots.get(((EntityRecipeRef) existing).getRecipe().getIdentifier().getFragmentName());
+            if (targetSlot != null) {
+                return new RefFixup(property, targetSlot, null);
+            }
+            logger.error("{} references external or unknown entity prefab {}", entityRecipeUrn, existing);
+        } else if (existing instanceof PrefabRef) {
+            return new RefFixup(property, -1, ((PrefabRef) existing).getPrefab());
+        } else {
+            logger.error("{} contains unsupported entity ref {}", entityRecipeUrn, existing);
+        }
+        return new RefFixup(property, -1, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private ComponentStore<?> getStore(Class<? extends Component> type) {
+        ComponentStore<?> store = entityManager.getComponentStore((Class) type);
+        if (store == null) {
+            throw new IllegalArgumentException("No component store available for " + type);
+        }
+        return store;
+    }
+
+    /**
+     * The compiled form of a prefab. Each entity recipe of the prefab is assigned a slot, with the entities of each
+     * slot created as a contiguous block so that each write operation is applied to all instances together.
+     */
+    private final class Plan {
+        private final Map<ResourceUrn, EntityRecipe> recipes;
+        private final Name[] names;
+        private final int rootSlot;
+        private final WriteOp[][] ops;
+
+        Plan(Map<ResourceUrn, EntityRecipe> recipes, Name[] names, int rootSlot, WriteOp[][] ops) {
+            this.recipes = recipes;
+            this.names = names;
+            this.rootSlot = rootSlot;
+            this.ops = ops;
+        }
+
+        /**
+         * @param count The number of instances to create
+         * @return All created entities, ordered by slot and then by instance
+         */
+        @SuppressWarnings("unchecked")
+        List<EntityRef> execute(int count) {
+            List<EntityRef> entities = entityManager.createEntities(count * names.length);
+            for (int slot = 0; slot < ops.length; ++slot) {
+                int base = slot * count;
+                for (WriteOp op : ops[slot]) {
+                    if (op.fixups.length == 0) {
+                        for (int i = 0; i < count; ++i) {
+                            op.store.set(entities.get(base + i).getId(), op.template);
+                        }
+                        continue;
+                    }
+                    List<EntityRef>[] prefabRoots = new List[op.fixups.length];
+                    for (int f = 0; f < op.fixups.length; ++f) {
+                        if (op.fixups[f].prefab != null) {
+                            prefabRoots[f] = spawn(op.fixups[f].prefab, count);
+                        }
+                    }
+                    Component component = op.store.getType().createCopy(op.template);
+                    for (int i = 0; i < count; ++i) {
+                        for (int f = 0; f < op.fixups.length; ++f) {
+                            RefFixup fixup = op.fixups[f];
+                            EntityRef target;
+                            if (fixup.targetSlot >= 0) {
+                                target = entities.get(fixup.targetSlot * count + i);
+                            } else if (prefabRoots[f] != null) {
+                                target = prefabRoots[f].get(i);
+                            } else {
+                                target = NullEntityRef.get();
+                            }
+                            fixup.property.set(component, target);
+                        }
+                        op.store.set(entities.get(base + i).getId(), component);
+                    }
+                }
+            }
+            return entities;
+        }
+    }
+
+    /**
+     * Writes a copy of a template component to a store
+     */
+    private static final class WriteOp {
+        private final ComponentStore store;
+        private final Component template;
+        private final RefFixup[] fixups;
+
+        WriteOp(ComponentStore store, Component template, RefFixup[] fixups) {
+            this.store = store;
+            this.template = template;
+            this.fixups = fixups;
+        }
+    }
+
+    /**
+     * Links an EntityRef property to either another entity of the same instance, the root entity of an instance of
+     * another prefab, or - if neither - to the null entity
+     */
+    private static final class RefFixup {
+        private final PropertyAccessor property;
+        private final int targetSlot;
+        private final Prefab prefab;
+
+        RefFixup(PropertyAccessor property, int targetSlot, Prefab prefab) {
+            this.property = property;
+            this.targetSlot = targetSlot;
+            this.prefab = prefab;
+        }
+    }
+}
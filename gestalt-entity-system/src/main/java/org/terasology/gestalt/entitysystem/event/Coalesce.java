@@ -0,0 +1,37 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.event;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an event as coalescing - at most one instance of the event is kept pending for each entity. If the event is
+ * sent to an entity that already has an instance pending, the pending instance is replaced by the new event, or
+ * merged with it if the event is a {@link MergeableEvent}. The event keeps the position in the queue of the first
+ * instance sent, so may be processed before other events that were sent to the entity after the first instance.
+ * <p>
+ * This has no effect on {@link Synchronous} events, which are never pending.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Inherited
+public @interface Coalesce {
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.event;
+
+/**
+ * An event that can merge a later instance of itself into a single event. Used for {@link Coalesce} events, rather than
+ * the later instance simply replacing the earlier one.
+ *
+ * @param <T> The type of the event
+ */
+public interface MergeableEvent<T extends MergeableEvent<T>> extends Event {
+
+    /**
+     * @param later An instance of the event sent to the same entity after this one
+     * @return The event to process in place of both events. This may be either event, modified, or a new event.
+     */
+    T merge(T later);
+}
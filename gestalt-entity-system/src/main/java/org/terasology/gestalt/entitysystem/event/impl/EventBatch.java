@@ -0,0 +1,86 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.event.impl;
+
+import org.terasology.gestalt.entitysystem.component.Component;
+import org.terasology.gestalt.entitysystem.entity.EntityRef;
+import org.terasology.gestalt.entitysystem.event.Event;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * A reusable batch of events drained from an {@link EventQueue}, stored in parallel arrays.
+ */
+final class EventBatch {
+
+    private Event[] events;
+    private EntityRef[] entities;
+    private Set<Class<? extends Component>>[] triggeringComponents;
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    EventBatch(int initialCapacity) {
+        this.events = new Event[initialCapacity];
+        this.entities = new EntityRef[initialCapacity];
+        this.triggeringComponents = new Set[initialCapacity];
+    }
+
+    void add(Event event, EntityRef entity, Set<Class<? extends Component>> triggering) {
+        if (size == events.length) {
+            int newCapacity = Math.max(size * 2, 16);
+            events = Arrays.copyOf(events, newCapacity);
+            entities = Arrays.copyOf(entities, newCapacity);
+            triggeringComponents = Arrays.copyOf(triggeringComponents, newCapacity);
+        }
+        events[size] = event;
+        entities[size] = entity;
+        triggeringComponents[size] = triggering;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Event getEvent(int index) {
+        return events[index];
+    }
+
+    EntityRef getEntity(int index) {
+        return entities[index];
+    }
+
+    Set<Class<? extends Component>> getTriggeringComponents(int index) {
+        return triggeringComponents[index];
+    }
+
+    void set(int index, Event event, Set<Class<? extends Component>> triggering) {
+        events[index] = event;
+        triggeringComponents[index] = triggering;
+    }
+
+    /**
+     * Removes all events from the batch, releasing references to them
+     */
+    void clear() {
+        Arrays.fill(events, 0, size, null);
+        Arrays.fill(entities, 0, size, null);
+        Arrays.fill(triggeringComponents, 0, size, null);
+        size = 0;
+    }
+}
@@ -28,18 +28,23 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.terasology.gestalt.entitysystem.component.Component;
+import org.terasology.gestalt.entitysystem.component.management.ComponentType;
 import org.terasology.gestalt.entitysystem.entity.EntityRef;
 import org.terasology.gestalt.entitysystem.event.Event;
 import org.terasology.gestalt.entitysystem.event.EventHandler;
 import org.terasology.gestalt.entitysystem.event.EventResult;
+import org.terasology.gestalt.entitysystem.event.GlobalOrdering;
 import org.terasology.gestalt.util.collection.KahnSorter;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.Collectors;
 
@@ -49,6 +54,10 @@
  * filtering out handlers that are not appropriate for the target entity based on the components it
  * has.  All of this occurs within a provided transaction. If an event handler
  * returns EventResult.COMPLETE or EventResult.CANCEL the event processing is halted.
+ * <p>
+ * The handlers to invoke for an event depend only on which of the components the handlers require are on the target
+ * entity and triggering the event, so they are resolved once per combination into a dispatch plan, and cached. The
+ * cached plans are discarded whenever handlers are registered or removed.
  *
  * @author Immortius
  */
@@ -57,6 +66,7 @@ public class EventProcessor {
     private final List<EventProcessor> children = new ArrayList<>();
     private final List<EventHandlerRegistration> eventHandlers = new CopyOnWriteArrayList<>();
     private final Multimap<Class<?>, EventHandlerRegistration> eventHandlersByProvider = ArrayListMultimap.create();
+    private volatile DispatchTable dispatchTable = new DispatchTable(Collections.emptyList());
 
     public EventProcessor() {
         this(null);
@@ -72,6 +82,7 @@ public EventProcessor(EventProcessor parent) {
             parent.children.add(this);
             this.eventHandlers.addAll(parent.eventHandlers);
             this.eventHandlersByProvider.putAll(parent.eventHandlersByProvider);
+            this.dispatchTable = new DispatchTable(eventHandlers);
         }
     }
 
@@ -102,21 +113,18 @@ public EventResult process(Event event, EntityRef entity) {
      */
     public EventResult process(Event event, EntityRef entity, Set<Class<? extends Component>> triggeringComponents) {
         EventResult result = EventResult.CONTINUE;
-        Set<Class<? extends Component>> componentTypes = entity.getComponentTypes();
-        for (EventHandlerRegistration handler : eventHandlers) {
-            if (validToInvoke(handler, componentTypes, triggeringComponents)) {
-                try {
-                    result = handler.invoke(event, entity);
-                    switch (result) {
-                        case COMPLETE:
-                        case CANCEL:
-                            return result;
-                        default:
-                            // Continue
-                    }
-                } catch (RuntimeException e) {
-                    logger.error("Exception thrown when processing event {}", event.getClass(), e);
+        for (EventHandlerRegistration handler : dispatchTable.getPlan(entity, triggeringComponents)) {
+            try {
+                result = handler.invoke(event, entity);
+                switch (result) {
+                    case COMPLETE:
+                    case CANCEL:
+                        return result;
+                    default:
+                        // Continue
                 }
+            } catch (RuntimeException e) {
+                logger.error("Exception thrown when processing event {}", event.getClass(), e);
             }
         }
 
@@ -126,22 +134,12 @@ public EventResult process(Event event, EntityRef entity, Set<Class<? extends Co
         return result;
     }
 
-    private boolean validToInvoke(EventHandlerRegistration handler, Set<Class<? extends Component>> targetComponents, Set<Class<? extends Component>> triggeringComponents) {
-        for (Class<? extends Component> component : handler.components) {
-            if (!targetComponents.contains(component) && !triggeringComponents.contains(component)) {
-                return false;
-            }
-        }
-        if (!triggeringComponents.isEmpty()) {
-            for (Class<? extends Component> component : handler.components) {
-                if (triggeringComponents.contains(component)) {
-                    return true;
-                }
-            }
-        } else {
-            return true;
-        }
-        return false;
+    /**
+     * @return Whether any of the registered handlers, or the classes providing them, are annotated with
+     * {@link GlobalOrdering}
+     */
+    public boolean requiresGlobalOrdering() {
+        return dispatchTable.globallyOrdered;
     }
 
     /**
@@ -154,7 +152,8 @@ private boolean validToInvoke(EventHandlerRegistration handler, Set<Class<? exte
      */
     public synchronized void registerHandler(EventHandler<?> eventHandler, Class<?> provider, Collection<Class<?>> before, Collection<Class<?>> after, Iterable<Class<? extends Component>> requiredComponents) {
         children.forEach(child -> child.registerHandler(eventHandler, provider, before, after, requiredComponents));
-        EventHandlerRegistration eventHandlerRegistration = new EventHandlerRegistration(eventHandler, before, after, requiredComponents);
+        boolean globallyOrdered = provider.isAnnotationPresent(GlobalOrdering.class) || eventHandler.getClass().isAnnotationPresent(GlobalOrdering.class);
+        EventHandlerRegistration eventHandlerRegistration = new EventHandlerRegistration(eventHandler, before, after, requiredComponents, globallyOrdered);
         eventHandlersByProvider.put(provider, eventHandlerRegistration);
         sortHandlers();
     }
@@ -172,6 +171,7 @@ private void sortHandlers() {
         }
         eventHandlers.clear();
         eventHandlers.addAll(sorter.sort());
+        dispatchTable = new DispatchTable(eventHandlers);
     }
 
     /**
@@ -180,7 +180,11 @@ private void sortHandlers() {
      * @return Whether any handlers were removed
      */
     public synchronized boolean removeProvider(Class<?> provider) {
-        return eventHandlers.removeAll(eventHandlersByProvider.removeAll(provider));
+        if (eventHandlers.removeAll(eventHandlersByProvider.removeAll(provider))) {
+            dispatchTable = new DispatchTable(eventHandlers);
+            return true;
+        }
+        return false;
     }
 
     /**
@@ -190,11 +194,173 @@ public synchronized boolean removeProvider(Class<?> provider) {
      */
     public synchronized boolean removeHandler(EventHandler<?> handler) {
         if (eventHandlersByProvider.values().removeIf(x -> x.receiver.equals(handler))) {
-            return eventHandlers.removeIf(x -> x.receiver.equals(handler));
+            boolean removed = eventHandlers.removeIf(x -> x.receiver.equals(handler));
+            dispatchTable = new DispatchTable(eventHandlers);
+            return removed;
         }
         return false;
     }
 
+    /**
+     * An immutable snapshot of the ordered handlers, with the dispatch plans resolved from them. Each component type
+     * required by any handler is given a local index, and a plan is keyed by the local indexes of the components on
+     * the target entity and of the triggering components. Components no handler requires don't affect the key, so
+     * the number of plans is bounded by the combinations of required components actually seen.
+     * <p>
+     * Plans are looked up with a per-thread probe key, filled from the entity's component mask, so dispatching an
+     * event only allocates when a new plan is resolved.
+     */
+    private static final class DispatchTable {
+        private final EventHandlerRegistration[] handlers;
+        private final int[][] handlerComponents;
+        private final Class<? extends Component>[] localTypes;
+        private final int[] localIndexByTypeId;
+        private final int words;
+        private final boolean globallyOrdered;
+        private final Map<PlanKey, EventHandlerRegistration[]> plans = new ConcurrentHashMap<>();
+        private final ThreadLocal<PlanKey> probes;
+
+        @SuppressWarnings("unchecked")
+        DispatchTable(List<EventHandlerRegistration> registrations) {
+            this.handlers = registrations.toArray(new EventHandlerRegistration[0]);
+            this.handlerComponents = new int[handlers.length][];
+            List<Class<? extends Component>> localTypes = Lists.newArrayList();
+            int[] localIndexes = new int[0];
+            boolean anyGloballyOrdered = false;
+            for (int i = 0; i < handlers.length; ++i) {
+                anyGloballyOrdered |= handlers[i].globallyOrdered;
+                ImmutableList<Class<? extends Component>> components = handlers[i].components;
+                handlerComponents[i] = new int[components.size()];
+                for (int j = 0; j < components.size(); ++j) {
+                    int typeId = ComponentType.getId(components.get(j));
+                    if (typeId >= localIndexes.length) {
+                        localIndexes = Arrays.copyOf(localIndexes, typeId + 1);
+                    }
+                    if (localIndexes[typeId] == 0) {
+                        localTypes.add(components.get(j));
+                        localIndexes[typeId] = localTypes.size();
+                    }
+                    handlerComponents[i][j] = localIndexes[typeId] - 1;
+                }
+            }
+            this.localTypes = localTypes.toArray(new Class[0]);
+            this.localIndexByTypeId = localIndexes;
+            this.words = Math.max(1, (localTypes.size() + 63) >>> 6);
+            this.globallyOrdered = anyGloballyOrdered;
+            this.probes = ThreadLocal.withInitial(() -> new PlanKey(new long[words], new long[words], false));
+        }
+
+        /**
+         * @param entity               The entity an event is being sent against
+         * @param triggeringComponents The components triggering the event
+         * @return The handlers to invoke, in order
+         */
+        EventHandlerRegistration[] getPlan(EntityRef entity, Set<Class<? extends Component>> triggeringComponents) {
+            if (handlers.length == 0) {
+                return handlers;
+            }
+            PlanKey probe = probes.get();
+            Arrays.fill(probe.components, 0);
+            Arrays.fill(probe.triggering, 0);
+            entity.getComponentMask(localTypes, probe.components);
+            probe.triggered = !triggeringComponents.isEmpty();
+            if (probe.triggered) {
+                for (Class<? extends Component> componentType : triggeringComponents) {
+                    addLocalIndex(probe.triggering, componentType);
+                }
+            }
+            probe.rehash();
+            EventHandlerRegistration[] plan = plans.get(probe);
+            if (plan == null) {
+                plan = plans.computeIfAbsent(probe.copy(), this::resolve);
+            }
+            return plan;
+        }
+
+        private void addLocalIndex(long[] bits, Class<? extends Component> componentType) {
+            int typeId = ComponentType.getId(componentType);
+            if (typeId < localIndexByTypeId.length && localIndexByTypeId[typeId] != 0) {
+                int localIndex = localIndexByTypeId[typeId] - 1;
+                bits[localIndex >>> 6] |= 1L << localIndex;
+            }
+        }
+
+        private EventHandlerRegistration[] resolve(PlanKey key) {
+            List<EventHandlerRegistration> plan = Lists.newArrayListWithCapacity(handlers.length);
+            for (int i = 0; i < handlers.length; ++i) {
+                if (validToInvoke(handlerComponents[i], key)) {
+                    plan.add(handlers[i]);
+                }
+            }
+            return plan.toArray(new EventHandlerRegistration[0]);
+        }
+
+        private static boolean validToInvoke(int[] handlerComponents, PlanKey key) {
+            for (int component : handlerComponents) {
+                if (!isSet(key.components, component) && !isSet(key.triggering, component)) {
+                    return false;
+                }
+            }
+            if (key.triggered) {
+                for (int component : handlerComponents) {
+                    if (isSet(key.triggering, component)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            return true;
+        }
+
+        private static boolean isSet(long[] bits, int index) {
+            return (bits[index >>> 6] & (1L << index)) != 0;
+        }
+    }
+
+    /**
+     * The key of a dispatch plan - the required components present on the target entity and triggering the event,
+     * and whether there were any triggering components at all. Keys in the plan map are never modified; probe keys
+     * are refilled for each lookup, and must be rehashed after.
+     */
+    private static final class PlanKey {
+        private final long[] components;
+        private final long[] triggering;
+        private boolean triggered;
+        private int hash;
+
+        PlanKey(long[] components, long[] triggering, boolean triggered) {
+            this.components = components;
+            this.triggering = triggering;
+            this.triggered = triggered;
+            rehash();
+        }
+
+        void rehash() {
+            this.hash = 31 * (31 * Arrays.hashCode(components) + Arrays.hashCode(triggering)) + Boolean.hashCode(triggered);
+        }
+
+        PlanKey copy() {
+            return new PlanKey(components.clone(), triggering.clone(), triggered);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (obj instanceof PlanKey) {
+                PlanKey other = (PlanKey) obj;
+                return triggered == other.triggered && Arrays.equals(components, other.components) && Arrays.equals(triggering, other.triggering);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
     /**
      * A registration of an EventHandler. Includes the handler to call and the components that an entity must have for the handler to be called.
      */
@@ -203,16 +369,19 @@ private static class EventHandlerRegistration {
         private final ImmutableList<Class<? extends Component>> components;
         private final List<Class<?>> before;
         private final List<Class<?>> after;
+        private final boolean globallyOrdered;
 
         /**
          * @param receiver           The event handler
          * @param requiredComponents The components an entity must have for the receiver to be called.
+         * @param globallyOrdered    Whether the handler requires global ordering
          */
-        EventHandlerRegistration(EventHandler<?> receiver, Iterable<Class<?>> before, Iterable<Class<?>> after, Iterable<Class<? extends Component>> requiredComponents) {
+        EventHandlerRegistration(EventHandler<?> receiver, Iterable<Class<?>> before, Iterable<Class<?>> after, Iterable<Class<? extends Component>> requiredComponents, boolean globallyOrdered) {
             this.receiver = receiver;
             this.components = ImmutableList.copyOf(requiredComponents);
             this.before = ImmutableList.copyOf(before);
             this.after = ImmutableList.copyOf(after);
+            this.globallyOrdered = globallyOrdered;
         }
 
         /**
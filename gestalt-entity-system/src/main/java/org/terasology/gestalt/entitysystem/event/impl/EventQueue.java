@@ -0,0 +1,276 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.event.impl;
+
+import com.google.common.base.Preconditions;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.terasology.gestalt.entitysystem.component.Component;
+import org.terasology.gestalt.entitysystem.entity.EntityRef;
+import org.terasology.gestalt.entitysystem.event.Event;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A bounded queue of pending events, supporting any number of threads adding events and a single thread draining
+ * them. The queue is a ring buffer of reusable envelopes - adding an event claims an envelope with a compare-and-set,
+ * without locking or allocating. What happens when the ring buffer is full is determined by the
+ * {@link OverflowPolicy}.
+ * <p>
+ * Events added by the same thread are drained in the order they were added.
+ */
+@ThreadSafe
+public final class EventQueue {
+
+    private static final long BLOCK_PARK_NANOS = 10_000;
+
+    private final Envelope[] ring;
+    private final int mask;
+    private final OverflowPolicy overflowPolicy;
+    private final BooleanSupplier canBlock;
+    private final AtomicLong enqueuePosition = new AtomicLong();
+    private final AtomicLong discardBefore = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Only accessed by the draining thread
+     */
+    private long dequeuePosition;
+
+    /**
+     * Events that didn't fit in the ring buffer. While this is in use all new events are added to it, until it is
+     * drained, so that events from each thread are kept in order.
+     */
+    private final Queue<Envelope> overflow = new ArrayDeque<>();
+    private volatile boolean overflowing;
+
+    /**
+     * @param capacity       The number of events the ring buffer can hold. Rounded up to a power of two, of at least 2.
+     * @param overflowPolicy What to do when adding an event to a full ring buffer
+     * @param canBlock       Whether the current thread can block waiting for space, if the policy is BLOCK. Threads that
+     *                       can't block - such as those draining the queue - add their events to the overflow instead.
+     */
+    public EventQueue(int capacity, OverflowPolicy overflowPolicy, BooleanSupplier canBlock) {
+        Preconditions.checkArgument(capacity > 0 && capacity <= 1 << 30, "Capacity must be between 1 and 2^30");
+        int size = Math.max(2, Integer.highestOneBit(capacity));
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.ring = new Envelope[size];
+        for (int i = 0; i < size; ++i) {
+            ring[i] = new Envelope(i);
+        }
+        this.mask = size - 1;
+        this.overflowPolicy = overflowPolicy;
+        this.canBlock = canBlock;
+    }
+
+    /**
+     * @return The number of events the ring buffer can hold
+     */
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    /**
+     * @return The number of events dropped because the ring buffer was full, with the DROP policy
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Adds an event to the queue. The triggering components are retained as is, so must not be modified afterwards.
+     *
+     * @param event                The event
+     * @param entity               The entity the event is sent against
+     * @param triggeringComponents The components triggering the event
+     * @return Whether the event was added - false only if it was dropped
+     */
+    public boolean add(Event event, EntityRef entity, Set<Class<? extends Component>> triggeringComponents) {
+        while (true) {
+            if (overflowing) {
+                addToOverflow(event, entity, triggeringComponents);
+                return true;
+            }
+            if (tryAdd(event, entity, triggeringComponents)) {
+                return true;
+            }
+            switch (overflowPolicy) {
+                case DROP:
+                    dropped.incrementAndGet();
+                    return false;
+                case GROW:
+                    addToOverflow(event, entity, triggeringComponents);
+                    return true;
+                default:
+                    if (!canBlock.getAsBoolean()) {
+                        addToOverflow(event, entity, triggeringComponents);
+                        return true;
+                    }
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+            }
+        }
+    }
+
+    private boolean tryAdd(Event event, EntityRef entity, Set<Class<? extends Component>> triggeringComponents) {
+        long position = enqueuePosition.get();
+        while (true) {
+            Envelope envelope = ring[(int) position & mask];
+            long difference = envelope.sequence - position;
+            if (difference == 0) {
+                if (enqueuePosition.compareAndSet(position, position + 1)) {
+                    envelope.event = event;
+                    envelope.entity = entity;
+                    envelope.triggeringComponents = triggeringComponents;
+                    envelope.sequence = position + 1;
+                    return true;
+                }
+                position = enqueuePosition.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = enqueuePosition.get();
+            }
+        }
+    }
+
+    private void addToOverflow(Event event, EntityRef entity, Set<Class<? extends Component>> triggeringComponents) {
+        Envelope envelope = new Envelope(0);
+        envelope.event = event;
+        envelope.entity = entity;
+        envelope.triggeringComponents = triggeringComponents;
+        synchronized (overflow) {
+            overflow.add(envelope);
+            overflowing = true;
+        }
+    }
+
+    /**
+     * Moves events from the queue into a batch. Must only be called by one thread at a time.
+     * <p>
+     * When events are taken from the overflow, the ring buffer is first drained up to the position claimed when they
+     * were taken - an event in the ring buffer may have been added by the same thread before an event in the
+     * overflow, after the first pass over the ring buffer finished. This may move more than maxEvents events.
+     *
+     * @param batch     The batch to add events to
+     * @param maxEvents The maximum number of events to move, other than those drained ahead of overflow events
+     * @return The number of events moved
+     */
+    int drain(EventBatch batch, int maxEvents) {
+        long discard = discardBefore.get();
+        int count = 0;
+        while (count < maxEvents) {
+            Envelope envelope = ring[(int) dequeuePosition & mask];
+            if (envelope.sequence != dequeuePosition + 1) {
+                break;
+            }
+            count += takeFromRing(envelope, batch, discard);
+        }
+        if (count < maxEvents && overflowing) {
+            Envelope[] taken;
+            long claimed;
+            synchronized (overflow) {
+                claimed = enqueuePosition.get();
+                taken = new Envelope[Math.min(maxEvents - count, overflow.size())];
+                for (int i = 0; i < taken.length; ++i) {
+                    taken[i] = overflow.remove();
+                }
+                overflowing = !overflow.isEmpty();
+            }
+            while (dequeuePosition < claimed) {
+                Envelope envelope = ring[(int) dequeuePosition & mask];
+                while (envelope.sequence != dequeuePosition + 1) {
+                    // Claimed but not yet published - the adding thread is between claiming and publishing
+                    Thread.yield();
+                }
+                count += takeFromRing(envelope, batch, discard);
+            }
+            for (Envelope envelope : taken) {
+                batch.add(envelope.event, envelope.entity, envelope.triggeringComponents);
+            }
+            count += taken.length;
+        }
+        return count;
+    }
+
+    /**
+     * Moves the event in the envelope at the dequeue position into the batch, unless discarded, and releases the
+     * envelope for reuse.
+     *
+     * @return The number of events moved into the batch
+     */
+    private int takeFromRing(Envelope envelope, EventBatch batch, long discard) {
+        int result = 0;
+        if (dequeuePosition >= discard) {
+            batch.add(envelope.event, envelope.entity, envelope.triggeringComponents);
+            result = 1;
+        }
+        envelope.event = null;
+        envelope.entity = null;
+        envelope.triggeringComponents = null;
+        envelope.sequence = dequeuePosition + ring.length;
+        dequeuePosition++;
+        return result;
+    }
+
+    /**
+     * Discards all events currently in the queue. Events in the ring buffer are skipped when next drained.
+     */
+    public void clear() {
+        long position = enqueuePosition.get();
+        discardBefore.accumulateAndGet(position, Math::max);
+        synchronized (overflow) {
+            overflow.clear();
+        }
+    }
+
+    /**
+     * The behaviour when an event is added to a full ring buffer
+     */
+    public enum OverflowPolicy {
+        /**
+         * Wait for space to become available. Threads that can't block add the event to an unbounded overflow queue.
+         */
+        BLOCK,
+        /**
+         * Discard the event
+         */
+        DROP,
+        /**
+         * Add the event to an unbounded overflow queue, which is drained after the ring buffer
+         */
+        GROW
+    }
+
+    private static final class Envelope {
+        private volatile long sequence;
+        private Event event;
+        private EntityRef entity;
+        private Set<Class<? extends Component>> triggeringComponents;
+
+        Envelope(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package org.terasology.gestalt.entitysystem.event.impl;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 import net.jcip.annotations.ThreadSafe;
 
@@ -9,57 +11,293 @@
 import org.slf4j.LoggerFactory;
 import org.terasology.gestalt.entitysystem.component.Component;
 import org.terasology.gestalt.entitysystem.entity.EntityRef;
+import org.terasology.gestalt.entitysystem.event.Coalesce;
 import org.terasology.gestalt.entitysystem.event.Event;
 import org.terasology.gestalt.entitysystem.event.EventHandler;
 import org.terasology.gestalt.entitysystem.event.EventSystem;
+import org.terasology.gestalt.entitysystem.event.GlobalOrdering;
+import org.terasology.gestalt.entitysystem.event.MergeableEvent;
 import org.terasology.gestalt.entitysystem.event.Synchronous;
+import org.terasology.gestalt.entitysystem.event.exception.EventSystemException;
 
 import java.util.Collection;
-import java.util.LinkedHashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Threadsafe event system implementation. Events are queued up from any thread (run immediately if {@link Synchronous}, and then processed
  * when processEvents is called. processEvents can only be called on a single thread at a time and is blocking until completed.
+ * <p>
+ * By default all events are processed one at a time. An event system created with an executor instead processes queued events in
+ * parallel, sharded by the id of the target entity, so events for the same entity are still processed in the order they were sent.
+ * Events of a type with any handlers annotated with {@link GlobalOrdering} act as barriers - all preceding events are completed, and the
+ * event is processed on its own, before later events are started. In this mode handlers without that annotation may run concurrently
+ * with handlers for other entities, including those of synchronous events.
+ * <p>
+ * Queued events are held in a bounded {@link EventQueue}, which adds events without locking or allocating, and are processed in
+ * batches. The triggering components of queued events are copied when sent, unless already immutable.
+ * Events annotated with {@link Coalesce} are kept pending at most once per entity.
  */
 @ThreadSafe
 public class EventSystemImpl implements EventSystem {
 
     private static final Logger logger = LoggerFactory.getLogger(EventSystemImpl.class);
 
-    private final BlockingQueue<PendingEventInfo> pendingEvents = new LinkedBlockingQueue<>();
-    private final Map<Class<? extends Event>, EventProcessor> eventProcessorLookup = new LinkedHashMap<>();
+    /**
+     * The default capacity of the queue of pending events
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1 << 16;
+
+    private static final int BATCH_SIZE = 1024;
+
+    private final EventQueue pendingEvents;
+    private final ThreadLocal<Boolean> processingEvents = ThreadLocal.withInitial(() -> false);
+    private final Map<Class<? extends Event>, EventProcessor> eventProcessorLookup = new ConcurrentHashMap<>();
+    private final Map<CoalesceKey, CoalescedEvent> coalescedEvents = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+    private final int shards;
+    private final Object processingLock = new Object();
+    private final Object globalOrderingLock = new Object();
+
+    /**
+     * Creates an event system that processes events one at a time, with a queue that grows beyond its default capacity as needed
+     */
+    public EventSystemImpl() {
+        this(DEFAULT_QUEUE_CAPACITY, EventQueue.OverflowPolicy.GROW);
+    }
+
+    /**
+     * Creates an event system that processes events one at a time
+     *
+     * @param queueCapacity  The capacity of the queue of pending events
+     * @param overflowPolicy What to do when an event is sent while the queue is full
+     */
+    public EventSystemImpl(int queueCapacity, EventQueue.OverflowPolicy overflowPolicy) {
+        this(null, 1, queueCapacity, overflowPolicy);
+    }
+
+    /**
+     * Creates an event system that processes queued events in parallel, with a queue that grows beyond its default capacity as needed
+     *
+     * @param executor The executor to process events with
+     * @param shards   The number of shards to split pending events into by entity id - typically the parallelism of the executor
+     */
+    public EventSystemImpl(ExecutorService executor, int shards) {
+        this(executor, shards, DEFAULT_QUEUE_CAPACITY, EventQueue.OverflowPolicy.GROW);
+    }
+
+    /**
+     * Creates an event system that processes queued events in parallel
+     *
+     * @param executor       The executor to process events with, or null to process events one at a time
+     * @param shards         The number of shards to split pending events into by entity id - typically the parallelism of the executor
+     * @param queueCapacity  The capacity of the queue of pending events
+     * @param overflowPolicy What to do when an event is sent while the queue is full
+     */
+    public EventSystemImpl(ExecutorService executor, int shards, int queueCapacity, EventQueue.OverflowPolicy overflowPolicy) {
+        Preconditions.checkArgument(shards > 0, "Shards must be positive");
+        this.executor = executor;
+        this.shards = shards;
+        this.pendingEvents = new EventQueue(queueCapacity, overflowPolicy, () -> !processingEvents.get());
+    }
+
+    /**
+     * @return The number of events dropped because the queue was full
+     */
+    public long getDroppedEventCount() {
+        return pendingEvents.getDroppedCount();
+    }
 
     @Override
     public void send(Event event, EntityRef entity, Set<Class<? extends Component>> triggeringComponents) {
         if (event.getClass().isAnnotationPresent(Synchronous.class)) {
             processEvent(event, entity, triggeringComponents);
+        } else if (event.getClass().isAnnotationPresent(Coalesce.class)) {
+            CoalesceKey key = new CoalesceKey(event.getClass(), entity);
+            CoalescedEvent created = new CoalescedEvent(key, event, immutableCopyOf(triggeringComponents));
+            CoalescedEvent pending = coalescedEvents.merge(key, created, (existing, value) -> existing.merge(event, triggeringComponents) ? existing : created);
+            if (pending == created && !pendingEvents.add(created, entity, Collections.emptySet())) {
+                // Dropped - don't leave it to absorb later events that would never be delivered
+                coalescedEvents.remove(key, created);
+            }
         } else {
-            pendingEvents.add(new PendingEventInfo(event, entity, triggeringComponents));
+            pendingEvents.add(event, entity, immutableCopyOf(triggeringComponents));
         }
     }
 
+    /**
+     * @return The triggering components, copied unless already immutable, so they can be retained while the event is pending
+     */
+    private static Set<Class<? extends Component>> immutableCopyOf(Set<Class<? extends Component>> triggeringComponents) {
+        if (triggeringComponents instanceof ImmutableSet || triggeringComponents == Collections.<Class<? extends Component>>emptySet()) {
+            return triggeringComponents;
+        }
+        return ImmutableSet.copyOf(triggeringComponents);
+    }
+
+    /**
+     * Blocks until all pending events and events sent by those events have been processed.
+     * <p>
+     * When processing in parallel, a call from an event handler returns immediately - the outer call is still draining
+     * the queue, and processes any events the handler sends, while waiting for it could deadlock the executor. If
+     * parallel processing is interrupted or a shard fails with an error, an {@link EventSystemException} is thrown and
+     * the events of the current batch that have not yet been processed are discarded. Events still in the queue remain
+     * pending.
+     */
     @Override
-    public synchronized void processEvents() {
-        List<PendingEventInfo> events = Lists.newArrayListWithExpectedSize(pendingEvents.size());
-        while (!pendingEvents.isEmpty()) {
-            pendingEvents.drainTo(events);
-            for (PendingEventInfo eventInfo : events) {
-                processEvent(eventInfo.getEvent(), eventInfo.getEntity(), eventInfo.triggeringComponents);
+    public void processEvents() {
+        boolean wasProcessing = processingEvents.get();
+        processingEvents.set(true);
+        try {
+            if (executor == null) {
+                synchronized (this) {
+                    EventBatch batch = new EventBatch(BATCH_SIZE);
+                    while (pendingEvents.drain(batch, BATCH_SIZE) > 0) {
+                        resolveCoalescedEvents(batch);
+                        processBatch(batch);
+                        batch.clear();
+                    }
+                }
+            } else if (!wasProcessing) {
+                synchronized (processingLock) {
+                    processEventsInParallel();
+                }
+            }
+        } finally {
+            processingEvents.set(wasProcessing);
+        }
+    }
+
+    private void processEventsInParallel() {
+        EventBatch batch = new EventBatch(BATCH_SIZE);
+        EventBatch[] shardBatches = new EventBatch[shards];
+        List<Callable<Void>> shardTasks = Lists.newArrayListWithCapacity(shards);
+        for (int i = 0; i < shards; ++i) {
+            EventBatch shardBatch = new EventBatch(BATCH_SIZE / shards + 1);
+            shardBatches[i] = shardBatch;
+            shardTasks.add(() -> {
+                boolean wasProcessing = processingEvents.get();
+                processingEvents.set(true);
+                try {
+                    processBatch(shardBatch);
+                } finally {
+                    processingEvents.set(wasProcessing);
+                }
+                return null;
+            });
+        }
+        while (pendingEvents.drain(batch, BATCH_SIZE) > 0) {
+            resolveCoalescedEvents(batch);
+            for (int i = 0; i < batch.size(); ++i) {
+                Event event = batch.getEvent(i);
+                EntityRef entity = batch.getEntity(i);
+                if (getEventProcessor(event.getClass()).requiresGlobalOrdering()) {
+                    processShards(shardBatches, shardTasks);
+                    processEvent(event, entity, batch.getTriggeringComponents(i));
+                } else {
+                    shardBatches[Math.floorMod(entity.getId(), shards)].add(event, entity, batch.getTriggeringComponents(i));
+                }
             }
+            batch.clear();
+            processShards(shardBatches, shardTasks);
+        }
+    }
+
+    /**
+     * Processes each non-empty shard of events as a task on the executor, and waits for them all to complete
+     */
+    private void processShards(EventBatch[] shardBatches, List<Callable<Void>> shardTasks) {
+        List<Callable<Void>> tasks = Lists.newArrayListWithCapacity(shards);
+        for (int i = 0; i < shards; ++i) {
+            if (shardBatches[i].size() > 0) {
+                tasks.add(shardTasks.get(i));
+            }
+        }
+        if (tasks.isEmpty()) {
+            return;
+        }
+        try {
+            for (Future<Void> result : executor.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EventSystemException("Interrupted while processing events", e);
+        } catch (ExecutionException e) {
+            throw new EventSystemException("Error processing events", e.getCause());
+        } finally {
+            for (EventBatch shardBatch : shardBatches) {
+                shardBatch.clear();
+            }
+        }
+    }
+
+    /**
+     * Replaces the placeholders for coalesced events in a batch with the events they hold. Once resolved, a placeholder
+     * no longer accepts events, so later events of the same type for the entity start a new placeholder.
+     */
+    private void resolveCoalescedEvents(EventBatch batch) {
+        for (int i = 0; i < batch.size(); ++i) {
+            if (batch.getEvent(i) instanceof CoalescedEvent) {
+                CoalescedEvent coalesced = (CoalescedEvent) batch.getEvent(i);
+                coalesced.close();
+                coalescedEvents.remove(coalesced.key, coalesced);
+                batch.set(i, coalesced.event, coalesced.triggeringComponents);
+            }
+        }
+    }
+
+    private void processBatch(EventBatch batch) {
+        for (int i = 0; i < batch.size(); ++i) {
+            processEvent(batch.getEvent(i), batch.getEntity(i), batch.getTriggeringComponents(i));
         }
     }
 
     @Override
     public void clearPendingEvents() {
+        // Placeholders are closed before being discarded, so a concurrent send can't merge into one that is no longer
+        // queued - it starts a new placeholder instead
+        closeCoalescedEvents();
         pendingEvents.clear();
+        // Placeholders started while the queue was being cleared may have been discarded with it. Any that are still
+        // queued are processed as normal once closed.
+        closeCoalescedEvents();
+    }
+
+    /**
+     * Closes all open placeholders for coalesced events, so later events of the same type for each entity start a new
+     * placeholder
+     */
+    private void closeCoalescedEvents() {
+        for (CoalescedEvent coalesced : coalescedEvents.values()) {
+            coalesced.close();
+            coalescedEvents.remove(coalesced.key, coalesced);
+        }
+    }
+
+    private void processEvent(Event event, EntityRef entity, Set<Class<? extends Component>> triggeringComponents) {
+        if (executor == null) {
+            synchronized (this) {
+                dispatchEvent(event, entity, triggeringComponents);
+            }
+        } else if (getEventProcessor(event.getClass()).requiresGlobalOrdering()) {
+            synchronized (globalOrderingLock) {
+                dispatchEvent(event, entity, triggeringComponents);
+            }
+        } else {
+            dispatchEvent(event, entity, triggeringComponents);
+        }
     }
 
-    private synchronized void processEvent(Event event, EntityRef entity, Set<Class<? extends Component>> triggeringComponents) {
+    private void dispatchEvent(Event event, EntityRef entity, Set<Class<? extends Component>> triggeringComponents) {
         if (entity.exists()) {
             EventProcessor eventProcessor = getEventProcessor(event.getClass());
             eventProcessor.process(event, entity, triggeringComponents);
@@ -90,7 +328,7 @@ public synchronized boolean removeHandler(EventHandler<?> handler) {
         return result;
     }
 
-    private synchronized EventProcessor getEventProcessor(Class<? extends Event> eventClass) {
+    private EventProcessor getEventProcessor(Class<? extends Event> eventClass) {
         EventProcessor eventProcessor = eventProcessorLookup.get(eventClass);
         if (eventProcessor == null) {
             eventProcessor = createEventProcessor(eventClass);
@@ -98,7 +336,11 @@ private synchronized EventProcessor getEventProcessor(Class<? extends Event> eve
         return eventProcessor;
     }
 
-    private EventProcessor createEventProcessor(Class<? extends Event> eventClass) {
+    private synchronized EventProcessor createEventProcessor(Class<? extends Event> eventClass) {
+        EventProcessor existing = eventProcessorLookup.get(eventClass);
+        if (existing != null) {
+            return existing;
+        }
         EventProcessor processor;
         if (Event.class.isAssignableFrom(eventClass.getSuperclass())) {
             EventProcessor parentProcessor = getEventProcessor((Class<? extends Event>) eventClass.getSuperclass());
@@ -110,27 +352,73 @@ private EventProcessor createEventProcessor(Class<? extends Event> eventClass) {
         return processor;
     }
 
-    private static class PendingEventInfo {
-        private final Event event;
+    private static final class CoalesceKey {
+        private final Class<? extends Event> eventClass;
         private final EntityRef entity;
-        private final Set<Class<? extends Component>> triggeringComponents;
 
-        private PendingEventInfo(Event event, EntityRef entity, Set<Class<? extends Component>> triggeringComponents) {
-            this.event = event;
+        CoalesceKey(Class<? extends Event> eventClass, EntityRef entity) {
+            this.eventClass = eventClass;
             this.entity = entity;
-            this.triggeringComponents = ImmutableSet.copyOf(triggeringComponents);
         }
 
-        public EntityRef getEntity() {
-            return entity;
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (obj instanceof CoalesceKey) {
+                CoalesceKey other = (CoalesceKey) obj;
+                return eventClass == other.eventClass && Objects.equals(entity, other.entity);
+            }
+            return false;
         }
 
-        public Event getEvent() {
-            return event;
+        @Override
+        public int hashCode() {
+            return 31 * eventClass.hashCode() + Objects.hashCode(entity);
         }
+    }
 
-        public Set<Class<? extends Component>> getTriggeringComponents() {
-            return triggeringComponents;
+    /**
+     * A placeholder in the queue of pending events for a coalescing event, holding the result of merging or replacing
+     * every instance of the event sent to the entity since the placeholder was queued.
+     */
+    private static final class CoalescedEvent implements Event {
+        private final CoalesceKey key;
+        private Event event;
+        private Set<Class<? extends Component>> triggeringComponents;
+        private boolean closed;
+
+        CoalescedEvent(CoalesceKey key, Event event, Set<Class<? extends Component>> triggeringComponents) {
+            this.key = key;
+            this.event = event;
+            this.triggeringComponents = triggeringComponents;
+        }
+
+        /**
+         * @return Whether the event was merged in, false if this placeholder has already been resolved
+         */
+        @SuppressWarnings("unchecked")
+        synchronized boolean merge(Event later, Set<Class<? extends Component>> laterTriggeringComponents) {
+            if (closed) {
+                return false;
+            }
+            if (event instanceof MergeableEvent) {
+                event = ((MergeableEvent) event).merge((MergeableEvent) later);
+            } else {
+                event = later;
+            }
+            // No triggering components means the event is not restricted to handlers of particular components
+            if (triggeringComponents.isEmpty() || laterTriggeringComponents.isEmpty()) {
+                triggeringComponents = Collections.emptySet();
+            } else if (!triggeringComponents.containsAll(laterTriggeringComponents)) {
+                triggeringComponents = Sets.union(triggeringComponents, laterTriggeringComponents).immutableCopy();
+            }
+            return true;
+        }
+
+        synchronized void close() {
+            closed = true;
         }
     }
 }
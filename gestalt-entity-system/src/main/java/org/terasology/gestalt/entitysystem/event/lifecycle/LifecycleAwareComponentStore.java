@@ -19,9 +19,12 @@
 import org.terasology.gestalt.entitysystem.component.Component;
 import org.terasology.gestalt.entitysystem.component.ComponentIterator;
 import org.terasology.gestalt.entitysystem.component.store.ComponentStore;
+import org.terasology.gestalt.entitysystem.component.store.PropertyIndex;
 import org.terasology.gestalt.entitysystem.component.management.ComponentType;
 import org.terasology.gestalt.entitysystem.entity.EntityManager;
 
+import java.util.Optional;
+
 /**
  * A wrapper for ComponentStore that captures component changes that should trigger lifecycle events.
  * This can be wrapped around the component store for any components that need to support such events.
@@ -81,11 +84,30 @@ public boolean get(int entityId, T into) {
         return inner.get(entityId, into);
     }
 
+    @Override
+    public T borrowRead(int entityId) {
+        return inner.borrowRead(entityId);
+    }
+
+    @Override
+    public T borrowWrite(int entityId) {
+        T result = inner.borrowWrite(entityId);
+        if (result != null) {
+            lifecycleEventManager.componentChanged(entityManager.getEntity(entityId), inner.getType().getComponentClass());
+        }
+        return result;
+    }
+
     @Override
     public int iterationCost() {
         return inner.iterationCost();
     }
 
+    @Override
+    public int estimateSize() {
+        return inner.estimateSize();
+    }
+
     @Override
     public void extend(int capacity) {
         inner.extend(capacity);
@@ -93,6 +115,54 @@ public void extend(int capacity) {
 
     @Override
     public ComponentIterator<T> iterate() {
-        return inner.iterate();
+        return new LifecycleAwareComponentIterator(inner.iterate());
+    }
+
+    @Override
+    public Optional<PropertyIndex> getPropertyIndex(String propertyName) {
+        return inner.getPropertyIndex(propertyName);
+    }
+
+    /**
+     * Notifies of changes to components borrowed for writing during iteration
+     */
+    private class LifecycleAwareComponentIterator implements ComponentIterator<T> {
+        private final ComponentIterator<T> iterator;
+
+        LifecycleAwareComponentIterator(ComponentIterator<T> iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public boolean next() {
+            return iterator.next();
+        }
+
+        @Override
+        public int nextBlock(int[] entityIds) {
+            return iterator.nextBlock(entityIds);
+        }
+
+        @Override
+        public int getEntityId() {
+            return iterator.getEntityId();
+        }
+
+        @Override
+        public void getComponent(Component<T> component) {
+            iterator.getComponent(component);
+        }
+
+        @Override
+        public T borrowRead() {
+            return iterator.borrowRead();
+        }
+
+        @Override
+        public T borrowWrite() {
+            T result = iterator.borrowWrite();
+            lifecycleEventManager.componentChanged(entityManager.getEntity(iterator.getEntityId()), inner.getType().getComponentClass());
+            return result;
+        }
     }
 }
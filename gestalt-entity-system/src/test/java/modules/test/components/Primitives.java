@@ -0,0 +1,148 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package modules.test.components;
+
+import org.terasology.gestalt.entitysystem.component.Component;
+
+import java.util.Objects;
+
+/**
+ * A component with a property of each primitive type, plus a string property.
+ */
+public final class Primitives implements Component<Primitives> {
+
+    private boolean active;
+    private byte level;
+    private short flags;
+    private char symbol;
+    private int count;
+    private long timestamp;
+    private float scale;
+    private double weight;
+    private String label = "";
+
+    public Primitives() {
+
+    }
+
+    public Primitives(Primitives other) {
+        copy(other);
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public void setActive(boolean active) {
+        this.active = active;
+    }
+
+    public byte getLevel() {
+        return level;
+    }
+
+    public void setLevel(byte level) {
+        this.level = level;
+    }
+
+    public short getFlags() {
+        return flags;
+    }
+
+    public void setFlags(short flags) {
+        this.flags = flags;
+    }
+
+    public char getSymbol() {
+        return symbol;
+    }
+
+    public void setSymbol(char symbol) {
+        this.symbol = symbol;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public float getScale() {
+        return scale;
+    }
+
+    public void setScale(float scale) {
+        this.scale = scale;
+    }
+
+    public double getWeight() {
+        return weight;
+    }
+
+    public void setWeight(double weight) {
+        this.weight = weight;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public void setLabel(String label) {
+        this.label = label;
+    }
+
+    public void copy(Primitives other) {
+        this.active = other.active;
+        this.level = other.level;
+        this.flags = other.flags;
+        this.symbol = other.symbol;
+        this.count = other.count;
+        this.timestamp = other.timestamp;
+        this.scale = other.scale;
+        this.weight = other.weight;
+        this.label = other.label;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (o instanceof Primitives) {
+            Primitives other = (Primitives) o;
+            return active == other.active && level == other.level && flags == other.flags && symbol == other.symbol
+                    && count == other.count && timestamp == other.timestamp && Float.compare(scale, other.scale) == 0
+                    && Double.compare(weight, other.weight) == 0 && Objects.equals(label, other.label);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(active, level, flags, symbol, count, timestamp, scale, weight, label);
+    }
+}
@@ -26,6 +26,7 @@
 import modules.test.components.Empty;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
@@ -69,6 +70,16 @@ public void constructEmptyComponent() {
         assertNotNull(instance);
     }
 
+    @Test
+    public void componentTypeIds() {
+        ComponentType<BasicComponent> basicType = componentManager.getType(BasicComponent.class);
+        ComponentType<Empty> emptyType = componentManager.getType(Empty.class);
+        assertEquals(ComponentType.getId(BasicComponent.class), basicType.getId());
+        assertEquals(ComponentType.getId(Empty.class), emptyType.getId());
+        assertNotEquals(basicType.getId(), emptyType.getId());
+        assertEquals(basicType.getId(), new ComponentManager(getComponentTypeFactory()).getType(BasicComponent.class).getId());
+    }
+
     @Test
     public void emptyComponentsSingletons() {
         Empty instance = componentManager.create(Empty.class);
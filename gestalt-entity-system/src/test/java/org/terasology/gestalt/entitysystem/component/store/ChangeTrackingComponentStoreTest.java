@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.component.store;
+
+import org.junit.Test;
+import org.terasology.gestalt.entitysystem.component.ComponentIterator;
+import org.terasology.gestalt.entitysystem.component.management.ComponentManager;
+
+import modules.test.components.Sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class ChangeTrackingComponentStoreTest {
+
+    private ComponentManager componentManager = new ComponentManager();
+    private ChangeTrackingComponentStore<Sample> store = new ChangeTrackingComponentStore<>(new ArrayComponentStore<>(componentManager.getType(Sample.class), 1000));
+
+    @Test
+    public void iteratesOnlyEntitiesChangedSinceTick() {
+        store.set(3, createSample("Fred"));
+        store.set(500, createSample("Bob"));
+        int tick = store.advanceTick();
+        store.set(700, createSample("Jill"));
+
+        ChangeTrackingComponentStore.ChangeIterator<Sample> changes = store.iterateChangedSince(tick);
+        assertTrue(changes.next());
+        assertEquals(700, changes.getEntityId());
+        assertFalse(changes.isRemoved());
+        Sample result = new Sample();
+        changes.getComponent(result);
+        assertEquals("Jill", result.getName());
+        assertFalse(changes.next());
+    }
+
+    @Test
+    public void iteratingFromTickZeroSkipsUnchangedEntities() {
+        store.set(3, createSample("Fred"));
+        store.set(700, createSample("Jill"));
+
+        ChangeTrackingComponentStore.ChangeIterator<Sample> changes = store.iterateChangedSince(0);
+        assertTrue(changes.next());
+        assertEquals(3, changes.getEntityId());
+        assertTrue(changes.next());
+        assertEquals(700, changes.getEntityId());
+        assertFalse(changes.next());
+    }
+
+    @Test
+    public void removalsAreReported() {
+        store.set(3, createSample("Fred"));
+        int tick = store.advanceTick();
+        store.remove(3);
+
+        ChangeTrackingComponentStore.ChangeIterator<Sample> changes = store.iterateChangedSince(tick);
+        assertTrue(changes.next());
+        assertEquals(3, changes.getEntityId());
+        assertTrue(changes.isRemoved());
+        assertFalse(changes.next());
+    }
+
+    @Test
+    public void borrowWriteDuringIterationIsTracked() {
+        store.set(3, createSample("Fred"));
+        store.set(4, createSample("Bob"));
+        int tick = store.advanceTick();
+
+        ComponentIterator<Sample> iterator = store.iterate();
+        while (iterator.next()) {
+            if (iterator.getEntityId() == 4) {
+                iterator.borrowWrite().setName("Jill");
+            }
+        }
+
+        assertEquals(1, store.getChangeTick(3));
+        assertEquals(tick, store.getChangeTick(4));
+        ChangeTrackingComponentStore.ChangeIterator<Sample> changes = store.iterateChangedSince(tick);
+        assertTrue(changes.next());
+        assertEquals(4, changes.getEntityId());
+        assertFalse(changes.next());
+    }
+
+    private Sample createSample(String name) {
+        Sample sample = new Sample();
+        sample.setName(name);
+        return sample;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.component.store;
+
+import org.junit.Test;
+import org.terasology.gestalt.entitysystem.component.ComponentIterator;
+import org.terasology.gestalt.entitysystem.component.management.ComponentManager;
+
+import modules.test.components.Empty;
+import modules.test.components.Primitives;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class ColumnarComponentStoreTest {
+
+    private ComponentManager componentManager = new ComponentManager();
+    private ColumnarComponentStore<Primitives> store = new ColumnarComponentStore<>(componentManager.getType(Primitives.class), 16);
+
+    @Test
+    public void setAndGetRoundTripsAllProperties() {
+        Primitives original = createPrimitives(3);
+        assertTrue(store.set(4, original));
+        assertTrue(store.has(4));
+
+        Primitives result = new Primitives();
+        assertTrue(store.get(4, result));
+        assertEquals(original, result);
+    }
+
+    @Test
+    public void getMissingComponent() {
+        assertFalse(store.has(2));
+        assertFalse(store.get(2, new Primitives()));
+    }
+
+    @Test
+    public void setExistingComponentUpdates() {
+        store.set(1, createPrimitives(1));
+        assertFalse(store.set(1, createPrimitives(2)));
+
+        Primitives result = new Primitives();
+        store.get(1, result);
+        assertEquals(createPrimitives(2), result);
+    }
+
+    @Test
+    public void removeReturnsComponent() {
+        store.set(1, createPrimitives(5));
+        assertEquals(createPrimitives(5), store.remove(1));
+        assertFalse(store.has(1));
+        assertNull(store.remove(1));
+    }
+
+    @Test
+    public void extendRetainsComponents() {
+        store.set(15, createPrimitives(7));
+        store.extend(64);
+        store.set(63, createPrimitives(8));
+
+        Primitives result = new Primitives();
+        assertTrue(store.get(15, result));
+        assertEquals(createPrimitives(7), result);
+        assertTrue(store.get(63, result));
+        assertEquals(createPrimitives(8), result);
+    }
+
+    @Test
+    public void iterateVisitsOnlyPresentComponents() {
+        store.set(2, createPrimitives(2));
+        store.set(9, createPrimitives(9));
+
+        ComponentIterator<Primitives> iterator = store.iterate();
+        Primitives result = new Primitives();
+        assertTrue(iterator.next());
+        assertEquals(2, iterator.getEntityId());
+        iterator.getComponent(result);
+        assertEquals(createPrimitives(2), result);
+        assertTrue(iterator.next());
+        assertEquals(9, iterator.getEntityId());
+        iterator.getComponent(result);
+        assertEquals(createPrimitives(9), result);
+        assertFalse(iterator.next());
+    }
+
+    @Test
+    public void storePropertylessComponent() {
+        ColumnarComponentStore<Empty> emptyStore = new ColumnarComponentStore<>(componentManager.getType(Empty.class), 16);
+        assertTrue(emptyStore.set(3, new Empty()));
+        assertTrue(emptyStore.has(3));
+        assertTrue(emptyStore.get(3, new Empty()));
+    }
+
+    private Primitives createPrimitives(int seed) {
+        Primitives result = new Primitives();
+        result.setActive(seed % 2 == 1);
+        result.setLevel((byte) seed);
+        result.setFlags((short) (seed * 3));
+        result.setSymbol((char) ('a' + seed));
+        result.setCount(seed * 10);
+        result.setTimestamp(seed * 1000000000000L);
+        result.setScale(seed * 0.5f);
+        result.setWeight(seed * 0.25);
+        result.setLabel("Label" + seed);
+        return result;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.component.store;
+
+import com.google.common.collect.Sets;
+
+import org.junit.Test;
+import org.terasology.gestalt.entitysystem.component.ComponentIterator;
+import org.terasology.gestalt.entitysystem.component.management.ComponentManager;
+
+import java.util.Set;
+
+import modules.test.components.Sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class DenseComponentStoreTest {
+
+    private ComponentManager componentManager = new ComponentManager();
+    private DenseComponentStore<Sample> store = new DenseComponentStore<>(componentManager.getType(Sample.class), 100);
+
+    @Test
+    public void setAndGet() {
+        assertTrue(store.set(42, createSample("Fred")));
+        assertFalse(store.set(42, createSample("Jill")));
+
+        Sample result = new Sample();
+        assertTrue(store.get(42, result));
+        assertEquals("Jill", result.getName());
+        assertFalse(store.get(41, result));
+    }
+
+    @Test
+    public void borrowReturnsStoredComponent() {
+        store.set(42, createSample("Fred"));
+        assertNull(store.borrowRead(41));
+
+        store.borrowWrite(42).setName("Jill");
+        assertEquals("Jill", store.borrowRead(42).getName());
+
+        ComponentIterator<Sample> iterator = store.iterate();
+        assertTrue(iterator.next());
+        iterator.borrowWrite().setName("Bob");
+        Sample result = new Sample();
+        assertTrue(store.get(42, result));
+        assertEquals("Bob", result.getName());
+    }
+
+    @Test
+    public void iterationCostIsComponentCount() {
+        assertEquals(0, store.iterationCost());
+        store.set(10, createSample("a"));
+        store.set(90, createSample("b"));
+        assertEquals(2, store.iterationCost());
+        store.remove(10);
+        assertEquals(1, store.iterationCost());
+    }
+
+    @Test
+    public void removeMovesLastComponentIntoGap() {
+        store.set(1, createSample("a"));
+        store.set(2, createSample("b"));
+        store.set(3, createSample("c"));
+
+        assertEquals("a", store.remove(1).getName());
+        assertNull(store.remove(1));
+
+        Sample result = new Sample();
+        assertTrue(store.get(2, result));
+        assertEquals("b", result.getName());
+        assertTrue(store.get(3, result));
+        assertEquals("c", result.getName());
+    }
+
+    @Test
+    public void iterateVisitsEachComponent() {
+        store.set(5, createSample("a"));
+        store.set(50, createSample("b"));
+        store.set(99, createSample("c"));
+
+        Set<Integer> visited = Sets.newHashSet();
+        ComponentIterator<Sample> iterator = store.iterate();
+        Sample result = new Sample();
+        while (iterator.next()) {
+            iterator.getComponent(result);
+            visited.add(iterator.getEntityId());
+        }
+        assertEquals(Sets.newHashSet(5, 50, 99), visited);
+    }
+
+    @Test
+    public void removeCurrentComponentDuringIteration() {
+        for (int i = 0; i < 40; ++i) {
+            store.set(i, createSample("entity" + i));
+        }
+
+        Set<Integer> visited = Sets.newHashSet();
+        ComponentIterator<Sample> iterator = store.iterate();
+        while (iterator.next()) {
+            visited.add(iterator.getEntityId());
+            if (iterator.getEntityId() % 2 == 0) {
+                store.remove(iterator.getEntityId());
+            }
+        }
+        assertEquals(40, visited.size());
+        assertEquals(20, store.iterationCost());
+    }
+
+    @Test
+    public void extendRetainsComponents() {
+        store.set(99, createSample("a"));
+        store.extend(1000);
+        store.set(999, createSample("b"));
+        assertTrue(store.has(99));
+        assertTrue(store.has(999));
+        assertFalse(store.has(500));
+    }
+
+    @Test
+    public void nextBlockCoversAllEntities() {
+        for (int i = 0; i < 10; ++i) {
+            store.set(i * 7, createSample("a"));
+        }
+        ComponentIterator<Sample> iterator = store.iterate();
+        int[] block = new int[4];
+        int total = 0;
+        int count;
+        while ((count = iterator.nextBlock(block)) > 0) {
+            for (int i = 0; i < count; ++i) {
+                assertTrue(store.has(block[i]));
+            }
+            total += count;
+        }
+        assertEquals(10, total);
+    }
+
+    @Test
+    public void nextBlockAfterExhaustedIteratorIsEmpty() {
+        store.set(1, createSample("a"));
+        ComponentIterator<Sample> iterator = store.iterate();
+        assertTrue(iterator.next());
+        assertFalse(iterator.next());
+        assertEquals(0, iterator.nextBlock(new int[4]));
+    }
+
+    private Sample createSample(String name) {
+        Sample sample = new Sample();
+        sample.setName(name);
+        return sample;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.component.store;
+
+import com.google.common.collect.Sets;
+
+import org.junit.Test;
+import org.terasology.gestalt.entitysystem.component.ComponentIterator;
+import org.terasology.gestalt.entitysystem.component.management.ComponentManager;
+
+import java.util.Set;
+
+import modules.test.components.Sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class DoubleBufferedComponentStoreTest {
+
+    private ComponentManager componentManager = new ComponentManager();
+    private DoubleBufferedComponentStore<Sample> store = new DoubleBufferedComponentStore<>(new ArrayComponentStore<>(componentManager.getType(Sample.class), 1000));
+
+    @Test
+    public void snapshotOnlyChangesOnSwap() {
+        store.set(10, createSample("Fred"));
+        assertTrue(store.has(10));
+        assertFalse(store.getSnapshot().has(10));
+
+        store.swap();
+        Sample result = new Sample();
+        assertTrue(store.getSnapshot().get(10, result));
+        assertEquals("Fred", result.getName());
+
+        store.set(10, createSample("Jill"));
+        assertTrue(store.getSnapshot().get(10, result));
+        assertEquals("Fred", result.getName());
+
+        store.swap();
+        assertTrue(store.getSnapshot().get(10, result));
+        assertEquals("Jill", result.getName());
+    }
+
+    @Test
+    public void previousSnapshotIsUnaffectedBySwap() {
+        store.set(10, createSample("Fred"));
+        store.set(700, createSample("Bob"));
+        store.swap();
+        ComponentStore<Sample> snapshot = store.getSnapshot();
+
+        store.remove(10);
+        store.set(700, createSample("Jill"));
+        store.swap();
+
+        Sample result = new Sample();
+        assertTrue(snapshot.get(10, result));
+        assertEquals("Fred", result.getName());
+        assertTrue(snapshot.get(700, result));
+        assertEquals("Bob", result.getName());
+        assertEquals(2, snapshot.iterationCost());
+
+        assertFalse(store.getSnapshot().has(10));
+        assertTrue(store.getSnapshot().get(700, result));
+        assertEquals("Jill", result.getName());
+        assertEquals(1, store.getSnapshot().iterationCost());
+    }
+
+    @Test
+    public void borrowWriteMarksComponentDirty() {
+        store.set(10, createSample("Fred"));
+        store.swap();
+        assertFalse(store.isDirty());
+
+        store.borrowWrite(10).setName("Jill");
+        assertTrue(store.isDirty());
+        assertEquals("Fred", store.getSnapshot().borrowRead(10).getName());
+
+        store.swap();
+        assertEquals("Jill", store.getSnapshot().borrowRead(10).getName());
+    }
+
+    @Test
+    public void iterateSnapshot() {
+        store.set(5, createSample("a"));
+        store.set(300, createSample("b"));
+        store.set(999, createSample("c"));
+        store.swap();
+        store.set(6, createSample("d"));
+
+        Set<Integer> visited = Sets.newHashSet();
+        ComponentIterator<Sample> iterator = store.getSnapshot().iterate();
+        Sample result = new Sample();
+        while (iterator.next()) {
+            iterator.getComponent(result);
+            visited.add(iterator.getEntityId());
+        }
+        assertEquals(Sets.newHashSet(5, 300, 999), visited);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void snapshotIsReadOnly() {
+        store.getSnapshot().set(1, createSample("a"));
+    }
+
+    private Sample createSample(String name) {
+        Sample sample = new Sample();
+        sample.setName(name);
+        return sample;
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.terasology.gestalt.entitysystem.component.store;
+
+import org.junit.Test;
+import org.terasology.gestalt.entitysystem.component.ComponentIterator;
+import org.terasology.gestalt.entitysystem.component.management.ComponentManager;
+
+import modules.test.components.Empty;
+import modules.test.components.Primitives;
+import modules.test.components.PurePrimitives;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class OffHeapComponentStoreTest {
+
+    private static final int SLAB_SIZE = 4096;
+
+    private ComponentManager componentManager = new ComponentManager();
+    private OffHeapComponentStore<PurePrimitives> store = new OffHeapComponentStore<>(componentManager.getType(PurePrimitives.class), 16);
+
+    @Test
+    public void setAndGetRoundTripsAllProperties() {
+        PurePrimitives original = createPrimitives(3);
+        assertTrue(store.set(4, original));
+        assertTrue(store.has(4));
+
+        PurePrimitives result = new PurePrimitives();
+        assertTrue(store.get(4, result));
+        assertEquals(original, result);
+    }
+
+    @Test
+    public void setAndGetRoundTripsExtremeValues() {
+        PurePrimitives original = new PurePrimitives();
+        original.setActive(true);
+        original.setLevel(Byte.MIN_VALUE);
+        original.setFlags(Short.MAX_VALUE);
+        original.setSymbol(Character.MAX_VALUE);
+        original.setCount(Integer.MIN_VALUE);
+        original.setTimestamp(Long.MAX_VALUE);
+        original.setScale(Float.NaN);
+        original.setWeight(-Double.MAX_VALUE);
+        store.set(5, original);
+
+        PurePrimitives result = new PurePrimitives();
+        assertTrue(store.get(5, result));
+        assertEquals(original, result);
+    }
+
+    @Test
+    public void adjacentRecordsDoNotOverlap() {
+        store.set(6, createPrimitives(6));
+        store.set(7, createPrimitives(7));
+        store.set(8, createPrimitives(8));
+
+        PurePrimitives result = new PurePrimitives();
+        store.get(7, result);
+        assertEquals(createPrimitives(7), result);
+        store.get(6, result);
+        assertEquals(createPrimitives(6), result);
+        store.get(8, result);
+        assertEquals(createPrimitives(8), result);
+    }
+
+    @Test
+    public void getMissingComponent() {
+        assertFalse(store.has(2));
+        assertFalse(store.get(2, new PurePrimitives()));
+    }
+
+    @Test
+    public void setExistingComponentUpdates() {
+        store.set(1, createPrimitives(1));
+        assertFalse(store.set(1, createPrimitives(2)));
+
+        PurePrimitives result = new PurePrimitives();
+        store.get(1, result);
+        assertEquals(createPrimitives(2), result);
+    }
+
+    @Test
+    public void removeReturnsComponent() {
+        store.set(1, createPrimitives(5));
+        assertEquals(createPrimitives(5), store.remove(1));
+        assertFalse(store.has(1));
+        assertFalse(store.get(1, new PurePrimitives()));
+        assertNull(store.remove(1));
+    }
+
+    @Test
+    public void readdAfterRemove() {
+        store.set(1, createPrimitives(5));
+        store.remove(1);
+        assertTrue(store.set(1, createPrimitives(6)));
+
+        PurePrimitives result = new PurePrimitives();
+        assertTrue(store.get(1, result));
+        assertEquals(createPrimitives(6), result);
+    }
+
+    @Test
+    public void extendAcrossSlabBoundary() {
+        store.set(SLAB_SIZE - 1, createPrimitives(1));
+        store.extend(2 * SLAB_SIZE + 10);
+        store.set(SLAB_SIZE, createPrimitives(2));
+        store.set(2 * SLAB_SIZE + 9, createPrimitives(3));
+
+        PurePrimitives result = new PurePrimitives();
+        assertTrue(store.get(SLAB_SIZE - 1, result));
+        assertEquals(createPrimitives(1), result);
+        assertTrue(store.get(SLAB_SIZE, result));
+        assertEquals(createPrimitives(2), result);
+        assertTrue(store.get(2 * SLAB_SIZE + 9, result));
+        assertEquals(createPrimitives(3), result);
+        assertFalse(store.has(SLAB_SIZE + 1));
+        assertFalse(store.has(2 * SLAB_SIZE));
+    }
+
+    @Test
+    public void extendToSmallerCapacityRetainsComponents() {
+        store.extend(SLAB_SIZE + 1);
+        store.set(SLAB_SIZE, createPrimitives(4));
+        store.extend(8);
+
+        PurePrimitives result = new PurePrimitives();
+        assertTrue(store.get(SLAB_SIZE, result));
+        assertEquals(createPrimitives(4), result);
+    }
+
+    @Test
+    public void iterateVisitsOnlyPresentComponents() {
+        store.set(2, createPrimitives(2));
+        store.set(9, createPrimitives(9));
+
+        ComponentIterator<PurePrimitives> iterator = store.iterate();
+        PurePrimitives result = new PurePrimitives();
+        assertTrue(iterator.next());
+        assertEquals(2, iterator.getEntityId());
+        iterator.getComponent(result);
+        assertEquals(createPrimitives(2), result);
+        assertTrue(iterator.next());
+        assertEquals(9, iterator.getEntityId());
+        iterator.getComponent(result);
+        assertEquals(createPrimitives(9), result);
+        assertFalse(iterator.next());
+    }
+
+    @Test
+    public void iterateAcrossSlabs() {
+        store.extend(2 * SLAB_SIZE);
+        store.set(SLAB_SIZE - 1, createPrimitives(1));
+        store.set(SLAB_SIZE, createPrimitives(2));
+
+        ComponentIterator<PurePrimitives> iterator = store.iterate();
+        PurePrimitives result = new PurePrimitives();
+        assertTrue(iterator.next());
+        assertEquals(SLAB_SIZE - 1, iterator.getEntityId());
+        assertTrue(iterator.next());
+        assertEquals(SLAB_SIZE, iterator.getEntityId());
+        iterator.getComponent(result);
+        assertEquals(createPrimitives(2), result);
+        assertFalse(iterator.next());
+    }
+
+    @Test
+    public void storePropertylessComponent() {
+        OffHeapComponentStore<Empty> emptyStore = new OffHeapComponentStore<>(componentManager.getType(Empty.class), 16);
+        assertTrue(emptyStore.set(3, new Empty()));
+        assertTrue(emptyStore.has(3));
+        assertTrue(emptyStore.get(3, new Empty()));
+        assertFalse(emptyStore.has(4));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectNonPrimitiveProperties() {
+        new OffHeapComponentStore<>(componentManager.getType(Primitives.class), 16);
+    }
+
+    private PurePrimitives createPrimitives(int seed) {
+        PurePrimitives result = new PurePrimitives();
+        result.setActive(seed % 2 == 1);
+        result.setLevel((byte) seed);
+        result.setFlags((short) (seed * 3));
+        result.setSymbol((char) ('a' + seed));
+        result.setCount(seed * 10);
+        result.setTimestamp(seed * 1000000000000L);
+        result.setScale(seed * 0.5f);
+        result.setWeight(seed * 0.25);
+        return result;
+    }
+}
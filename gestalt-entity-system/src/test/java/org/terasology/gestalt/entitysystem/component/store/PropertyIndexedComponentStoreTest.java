@@ -0,0 +1,124 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.component.store;
+
+import com.google.common.collect.Sets;
+
+import org.junit.Test;
+import org.terasology.gestalt.entitysystem.component.management.ComponentManager;
+import org.terasology.gestalt.entitysystem.entity.EntityRef;
+import org.terasology.gestalt.entitysystem.entity.manager.CoreEntityManager;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import modules.test.components.Primitives;
+import modules.test.components.Sample;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class PropertyIndexedComponentStoreTest {
+
+    private ComponentManager componentManager = new ComponentManager();
+    private PropertyIndexedComponentStore<Primitives> store = new PropertyIndexedComponentStore<>(new ArrayComponentStore<>(componentManager.getType(Primitives.class), 100), "count", "label");
+
+    @Test
+    public void findByEqualityFollowsSetAndRemove() {
+        store.set(1, createPrimitives(5));
+        store.set(2, createPrimitives(5));
+        store.set(3, createPrimitives(7));
+        PropertyIndex index = store.getPropertyIndex("count").orElseThrow(AssertionError::new);
+        assertEquals(Sets.newHashSet(1, 2), toSet(index.find(5)));
+
+        store.set(2, createPrimitives(7));
+        assertEquals(Sets.newHashSet(1), toSet(index.find(5)));
+        assertEquals(Sets.newHashSet(2, 3), toSet(index.find(7)));
+
+        store.remove(3);
+        assertEquals(Sets.newHashSet(2), toSet(index.find(7)));
+    }
+
+    @Test
+    public void findRangeIsOrderedByValue() {
+        store.set(1, createPrimitives(30));
+        store.set(2, createPrimitives(10));
+        store.set(3, createPrimitives(20));
+        store.set(4, createPrimitives(40));
+        PropertyIndex index = store.getPropertyIndex("count").orElseThrow(AssertionError::new);
+        assertTrue(index.isOrdered());
+        assertArrayEquals(new int[]{2, 3, 1}, index.findRange(10, 40));
+    }
+
+    @Test
+    public void existingComponentsAreIndexed() {
+        ArrayComponentStore<Primitives> inner = new ArrayComponentStore<>(componentManager.getType(Primitives.class), 100);
+        inner.set(8, createPrimitives(3));
+        PropertyIndexedComponentStore<Primitives> indexed = new PropertyIndexedComponentStore<>(inner, "count");
+        assertArrayEquals(new int[]{8}, indexed.getPropertyIndex("count").orElseThrow(AssertionError::new).find(3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownPropertyRejected() {
+        new PropertyIndexedComponentStore<>(new ArrayComponentStore<>(componentManager.getType(Primitives.class)), "missing");
+    }
+
+    @Test
+    public void entityManagerFindsThroughIndex() {
+        CoreEntityManager entityManager = new CoreEntityManager(
+                new PropertyIndexedComponentStore<>(new ArrayComponentStore<>(componentManager.getType(Sample.class)), "name"));
+        Sample sample = new Sample();
+        sample.setName("Fred");
+        EntityRef fred = entityManager.createEntity(sample);
+        sample.setName("Jill");
+        entityManager.createEntity(sample);
+
+        List<EntityRef> found = entityManager.findEntities(Sample.class, "name", "Fred");
+        assertEquals(1, found.size());
+        assertEquals(fred, found.get(0));
+        assertEquals(2, entityManager.findEntitiesInRange(Sample.class, "name", "A", "Z").size());
+    }
+
+    @Test
+    public void nextBlockIsForwardedToWrappedStore() {
+        StepCountingComponentStore<Primitives> inner = new StepCountingComponentStore<>(componentManager.getType(Primitives.class), 100);
+        PropertyIndexedComponentStore<Primitives> wrapper = new PropertyIndexedComponentStore<>(inner, "count");
+        wrapper.set(3, createPrimitives(1));
+        wrapper.set(50, createPrimitives(2));
+        inner.steps = 0;
+        int[] block = new int[8];
+        assertEquals(2, wrapper.iterate().nextBlock(block));
+        assertArrayEquals(new int[]{3, 50}, Arrays.copyOf(block, 2));
+        assertEquals(0, inner.steps);
+    }
+
+    private Primitives createPrimitives(int count) {
+        Primitives primitives = new Primitives();
+        primitives.setCount(count);
+        return primitives;
+    }
+
+    private Set<Integer> toSet(int[] values) {
+        return Arrays.stream(values).boxed().collect(Collectors.toSet());
+    }
+}
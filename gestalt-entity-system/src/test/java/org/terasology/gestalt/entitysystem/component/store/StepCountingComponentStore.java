@@ -0,0 +1,62 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.terasology.gestalt.entitysystem.component.store;
+
+import org.terasology.gestalt.entitysystem.component.Component;
+import org.terasology.gestalt.entitysystem.component.ComponentIterator;
+import org.terasology.gestalt.entitysystem.component.management.ComponentType;
+
+/**
+ * An array component store counting how often its iterators are advanced one entity at a time, to show that wrapping
+ * stores forward {@link ComponentIterator#nextBlock(int[])} rather than falling back to next().
+ */
+class StepCountingComponentStore<T extends Component<T>> extends ArrayComponentStore<T> {
+
+    int steps;
+
+    StepCountingComponentStore(ComponentType<T> type, int initialCapacity) {
+        super(type, initialCapacity);
+    }
+
+    @Override
+    public ComponentIterator<T> iterate() {
+        ComponentIterator<T> inner = super.iterate();
+        return new ComponentIterator<T>() {
+            @Override
+            public boolean next() {
+                steps++;
+                return inner.next();
+            }
+
+            @Override
+            public int nextBlock(int[] entityIds) {
+                return inner.nextBlock(entityIds);
+            }
+
+            @Override
+            public int getEntityId() {
+                return inner.getEntityId();
+            }
+
+            @Override
+            public void getComponent(Component<T> component) {
+                inner.getComponent(component);
+            }
+        };
+    }
+}
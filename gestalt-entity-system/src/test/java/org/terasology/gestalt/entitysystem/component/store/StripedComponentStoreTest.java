@@ -0,0 +1,153 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.component.store;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+import org.terasology.gestalt.entitysystem.component.management.ComponentManager;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import modules.test.components.Sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class StripedComponentStoreTest {
+
+    private ComponentManager componentManager = new ComponentManager();
+    private StripedComponentStore<Sample> store = new StripedComponentStore<>(new ArrayComponentStore<>(componentManager.getType(Sample.class), 1000), 4);
+
+    @Test
+    public void setGetAndRemove() {
+        assertTrue(store.set(42, createSample("Fred", "Fred")));
+        assertFalse(store.set(42, createSample("Jill", "Jill")));
+
+        Sample result = new Sample();
+        assertTrue(store.get(42, result));
+        assertEquals("Jill", result.getName());
+        assertTrue(store.has(42));
+        assertFalse(store.has(43));
+
+        assertEquals("Jill", store.remove(42).getName());
+        assertNull(store.remove(42));
+        assertFalse(store.get(42, result));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void stripesMustBePowerOfTwo() {
+        new StripedComponentStore<>(new ArrayComponentStore<>(componentManager.getType(Sample.class), 10), 3);
+    }
+
+    @Test
+    public void readersNeverSeeTornComponents() throws Exception {
+        for (int i = 0; i < 1000; ++i) {
+            store.set(i, createSample("0", "0"));
+        }
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Boolean>> readers = Lists.newArrayList();
+        for (int reader = 0; reader < 3; ++reader) {
+            readers.add(executor.submit(() -> {
+                Sample result = new Sample();
+                int id = 0;
+                while (running.get()) {
+                    store.get(id, result);
+                    if (!result.getName().equals(result.getDescription())) {
+                        return false;
+                    }
+                    id = (id + 7) % 1000;
+                }
+                return true;
+            }));
+        }
+        for (int round = 0; round < 200; ++round) {
+            String value = Integer.toString(round);
+            for (int i = 0; i < 1000; ++i) {
+                store.set(i, createSample(value, value));
+            }
+        }
+        running.set(false);
+        for (Future<Boolean> reader : readers) {
+            assertTrue(reader.get());
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void concurrentAddsAndRemovesInDifferentStripes() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> writers = Lists.newArrayList();
+        for (int writer = 0; writer < 4; ++writer) {
+            int firstId = writer * StripedComponentStore.STRIPE_RANGE;
+            writers.add(executor.submit(() -> {
+                for (int round = 0; round < 1000; ++round) {
+                    for (int id = firstId; id < firstId + StripedComponentStore.STRIPE_RANGE; ++id) {
+                        store.set(id, createSample("a", "a"));
+                    }
+                    for (int id = firstId; id < firstId + StripedComponentStore.STRIPE_RANGE; id += 2) {
+                        store.remove(id);
+                    }
+                }
+            }));
+        }
+        for (int capacity = 1000; capacity < 2000; capacity += 100) {
+            store.extend(capacity);
+        }
+        for (Future<?> writer : writers) {
+            writer.get();
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        for (int id = 0; id < 4 * StripedComponentStore.STRIPE_RANGE; ++id) {
+            assertEquals(id % 2 == 1, store.has(id));
+        }
+    }
+
+    @Test
+    public void nextBlockIsForwardedToWrappedStore() {
+        StepCountingComponentStore<Sample> inner = new StepCountingComponentStore<>(componentManager.getType(Sample.class), 100);
+        StripedComponentStore<Sample> wrapper = new StripedComponentStore<>(inner, 4);
+        wrapper.set(3, createSample("a", "a"));
+        wrapper.set(50, createSample("b", "b"));
+        int[] block = new int[8];
+        assertEquals(2, wrapper.iterate().nextBlock(block));
+        assertEquals(3, block[0]);
+        assertEquals(50, block[1]);
+        assertEquals(0, inner.steps);
+    }
+
+    private Sample createSample(String name, String description) {
+        Sample sample = new Sample();
+        sample.setName(name);
+        sample.setDescription(description);
+        return sample;
+    }
+}
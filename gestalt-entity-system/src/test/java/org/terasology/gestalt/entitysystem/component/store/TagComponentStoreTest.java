@@ -0,0 +1,105 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.component.store;
+
+import org.junit.Test;
+import org.terasology.gestalt.entitysystem.component.ComponentIterator;
+import org.terasology.gestalt.entitysystem.component.management.ComponentManager;
+
+import modules.test.components.Empty;
+import modules.test.components.Sample;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class TagComponentStoreTest {
+
+    private ComponentManager componentManager = new ComponentManager();
+    private TagComponentStore<Empty> store = new TagComponentStore<>(componentManager.getType(Empty.class));
+
+    @Test
+    public void setAndRemove() {
+        assertTrue(store.set(5, new Empty()));
+        assertFalse(store.set(5, new Empty()));
+        assertTrue(store.has(5));
+        assertFalse(store.has(4));
+        assertNotNull(store.borrowRead(5));
+        assertNull(store.borrowRead(4));
+        assertEquals(1, store.iterationCost());
+
+        assertNotNull(store.remove(5));
+        assertNull(store.remove(5));
+        assertFalse(store.has(5));
+        assertEquals(0, store.iterationCost());
+    }
+
+    @Test
+    public void setBeyondInitialCapacity() {
+        store.set(5000, new Empty());
+        assertTrue(store.has(5000));
+    }
+
+    @Test
+    public void iterate() {
+        store.set(3, new Empty());
+        store.set(64, new Empty());
+        store.set(1500, new Empty());
+
+        ComponentIterator<Empty> iterator = store.iterate();
+        assertTrue(iterator.next());
+        assertEquals(3, iterator.getEntityId());
+        assertTrue(iterator.next());
+        assertEquals(64, iterator.getEntityId());
+        assertTrue(iterator.next());
+        assertEquals(1500, iterator.getEntityId());
+        assertFalse(iterator.next());
+        assertFalse(iterator.next());
+    }
+
+    @Test
+    public void iterateBlocks() {
+        store.set(3, new Empty());
+        store.set(64, new Empty());
+        store.set(1500, new Empty());
+
+        ComponentIterator<Empty> iterator = store.iterate();
+        int[] block = new int[2];
+        assertEquals(2, iterator.nextBlock(block));
+        assertArrayEquals(new int[]{3, 64}, block);
+        assertEquals(1, iterator.nextBlock(block));
+        assertEquals(1500, block[0]);
+        assertEquals(0, iterator.nextBlock(block));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsComponentsWithProperties() {
+        new TagComponentStore<>(componentManager.getType(Sample.class));
+    }
+
+    @Test
+    public void createChoosesTagStoreForSingletonTypes() {
+        assertTrue(ComponentStores.create(componentManager.getType(Empty.class)) instanceof TagComponentStore);
+        assertTrue(ComponentStores.create(componentManager.getType(Sample.class)) instanceof ArrayComponentStore);
+    }
+}
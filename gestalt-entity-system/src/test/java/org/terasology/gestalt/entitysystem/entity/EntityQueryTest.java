@@ -0,0 +1,204 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.entity;
+
+import com.google.common.collect.Sets;
+
+import org.junit.Test;
+import org.terasology.gestalt.entitysystem.component.Component;
+import org.terasology.gestalt.entitysystem.component.ComponentIterator;
+import org.terasology.gestalt.entitysystem.component.management.ComponentManager;
+import org.terasology.gestalt.entitysystem.component.management.ComponentType;
+import org.terasology.gestalt.entitysystem.component.store.ArrayComponentStore;
+import org.terasology.gestalt.entitysystem.component.store.ComponentStore;
+import org.terasology.gestalt.entitysystem.component.store.SparseComponentStore;
+import org.terasology.gestalt.entitysystem.entity.manager.CoreEntityManager;
+
+import java.util.Set;
+
+import modules.test.components.Empty;
+import modules.test.components.Sample;
+import modules.test.components.Second;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class EntityQueryTest {
+
+    private ComponentManager componentManager = new ComponentManager();
+    private EntityManager entityManager = new CoreEntityManager(
+            new ArrayComponentStore<>(componentManager.getType(Sample.class)),
+            new SparseComponentStore<>(componentManager.getType(Second.class)),
+            new SparseComponentStore<>(componentManager.getType(Empty.class)));
+
+    @Test
+    public void includeAndExclude() {
+        EntityRef both = entityManager.createEntity(createSample("both"), createSecond("both"));
+        entityManager.createEntity(createSample("sampleOnly"));
+        entityManager.createEntity(createSample("excluded"), createSecond("excluded"), new Empty());
+
+        EntityQuery query = new EntityQuery.Builder(entityManager).include(Sample.class, Second.class).exclude(Empty.class).create();
+        EntityQuery.QueryIterator iterator = query.iterate();
+        assertTrue(iterator.next());
+        assertEquals(both, iterator.getEntity());
+        Sample sample = new Sample();
+        assertTrue(iterator.getComponent(sample));
+        assertEquals("both", sample.getName());
+        assertFalse(iterator.next());
+    }
+
+    @Test
+    public void optionalComponents() {
+        entityManager.createEntity(createSample("a"), createSecond("a2"));
+        entityManager.createEntity(createSample("b"));
+
+        EntityQuery query = new EntityQuery.Builder(entityManager).include(Sample.class).optional(Second.class).create();
+        Set<String> seconds = Sets.newHashSet();
+        int count = 0;
+        Second second = new Second();
+        EntityQuery.QueryIterator iterator = query.iterate();
+        while (iterator.next()) {
+            count++;
+            if (iterator.getComponent(second)) {
+                seconds.add(second.getName());
+            }
+        }
+        assertEquals(2, count);
+        assertEquals(Sets.newHashSet("a2"), seconds);
+    }
+
+    @Test
+    public void queryIsReusableAcrossChanges() {
+        EntityQuery query = new EntityQuery.Builder(entityManager).include(Sample.class, Second.class).create();
+        assertEquals(0, query.count());
+        for (int i = 0; i < 100; ++i) {
+            entityManager.createEntity(createSample("s" + i), createSecond("s" + i));
+        }
+        assertEquals(100, query.count());
+        assertEquals(100, query.count());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getComponentOfUnqueriedTypeFails() {
+        entityManager.createEntity(createSample("a"));
+        EntityQuery.QueryIterator iterator = new EntityQuery.Builder(entityManager).include(Sample.class).create().iterate();
+        assertTrue(iterator.next());
+        iterator.getComponent(new Second());
+    }
+
+    @Test
+    public void nextBatchFiltersBlocks() {
+        EntityRef both = entityManager.createEntity(createSample("both"), createSecond("both"));
+        entityManager.createEntity(createSample("sampleOnly"));
+        entityManager.createEntity(createSample("excluded"), createSecond("excluded"), new Empty());
+
+        EntityQuery query = new EntityQuery.Builder(entityManager).include(Sample.class, Second.class).exclude(Empty.class).create();
+        int[] block = new int[8];
+        assertEquals(1, query.iterate().nextBatch(block));
+        assertEquals(both.getId(), block[0]);
+    }
+
+    @Test
+    public void parallelForEachVisitsEachMatchOnce() {
+        Set<Integer> expected = Sets.newHashSet();
+        for (int i = 0; i < 2000; ++i) {
+            if (i % 2 == 0) {
+                expected.add(entityManager.createEntity(createSample("s" + i), createSecond("s" + i)).getId());
+            } else {
+                entityManager.createEntity(createSample("s" + i));
+            }
+        }
+
+        EntityQuery query = new EntityQuery.Builder(entityManager).include(Sample.class, Second.class).create();
+        Set<Integer> visited = Sets.newConcurrentHashSet();
+        ComponentStore<Sample> sampleStore = entityManager.getComponentStore(Sample.class);
+        query.parallelForEach(view -> {
+            Sample sample = view.getComponent(Sample.class);
+            assertEquals(sample.getName(), view.getComponent(Second.class).getName());
+            assertTrue(visited.add(view.getEntityId()));
+            sample.setName("visited");
+            sampleStore.set(view.getEntityId(), sample);
+        });
+
+        assertEquals(expected, visited);
+        Sample result = new Sample();
+        for (int id : expected) {
+            assertTrue(sampleStore.get(id, result));
+            assertEquals("visited", result.getName());
+        }
+    }
+
+    @Test
+    public void drivingStoreFollowsComponentCounts() {
+        CountingArrayComponentStore<Sample> samples = new CountingArrayComponentStore<>(componentManager.getType(Sample.class));
+        CountingArrayComponentStore<Second> seconds = new CountingArrayComponentStore<>(componentManager.getType(Second.class));
+        EntityManager countingEntityManager = new CoreEntityManager(samples, seconds);
+        EntityRef[] entities = new EntityRef[100];
+        for (int i = 0; i < entities.length; ++i) {
+            entities[i] = (i < 10) ? countingEntityManager.createEntity(createSample("s" + i), createSecond("s" + i)) : countingEntityManager.createEntity(createSample("s" + i));
+        }
+        EntityQuery query = new EntityQuery.Builder(countingEntityManager).include(Sample.class, Second.class).create();
+        samples.iterations = 0;
+        seconds.iterations = 0;
+        assertEquals(10, query.count());
+        assertEquals(0, samples.iterations);
+        assertEquals(1, seconds.iterations);
+
+        for (int i = 0; i < entities.length; ++i) {
+            if (i < 95) {
+                entities[i].removeComponent(Sample.class);
+            }
+            entities[i].setComponent(createSecond("s" + i));
+        }
+        assertEquals(5, query.count());
+        assertEquals(1, samples.iterations);
+        assertEquals(1, seconds.iterations);
+    }
+
+    private Sample createSample(String name) {
+        Sample sample = new Sample();
+        sample.setName(name);
+        return sample;
+    }
+
+    private Second createSecond(String name) {
+        Second second = new Second();
+        second.setName(name);
+        return second;
+    }
+
+    /**
+     * Counts the iterations started over the store, to show which store drives a query
+     */
+    private static class CountingArrayComponentStore<T extends Component<T>> extends ArrayComponentStore<T> {
+        private int iterations;
+
+        CountingArrayComponentStore(ComponentType<T> type) {
+            super(type);
+        }
+
+        @Override
+        public ComponentIterator<T> iterate() {
+            iterations++;
+            return super.iterate();
+        }
+    }
+}
@@ -23,8 +23,8 @@
 import org.junit.Test;
 import org.terasology.gestalt.entitysystem.component.Component;
 import org.terasology.gestalt.entitysystem.component.management.ComponentManager;
-import org.terasology.gestalt.entitysystem.component.store.ArrayComponentStore;
 import org.terasology.gestalt.entitysystem.component.store.ComponentStore;
+import org.terasology.gestalt.entitysystem.component.store.ComponentStores;
 import org.terasology.gestalt.entitysystem.component.store.ConcurrentComponentStore;
 import org.terasology.gestalt.entitysystem.entity.manager.CoreEntityManager;
 import org.terasology.gestalt.module.ModuleEnvironment;
@@ -75,12 +75,12 @@ public void setup() {
 
         ModuleEnvironment environment = new ModuleEnvironment(moduleRegistry, new WarnOnlyProviderFactory(permissionProviderFactory), JavaModuleClassLoader::create);
 
-        // Create component stores. This gives an opportunity to set some component types to use ArrayComponentStore
+        // Create component stores. This gives an opportunity to set some component types to use other stores, such as SparseComponentStore
         ComponentManager componentManager = new ComponentManager();
 
         List<ComponentStore<?>> stores = Lists.newArrayList();
         for (Class<? extends Component> componentType : environment.getSubtypesOf(Component.class)) {
-            stores.add(new ConcurrentComponentStore(new ArrayComponentStore(componentManager.getType(componentType))));
+            stores.add(new ConcurrentComponentStore(ComponentStores.create(componentManager.getType(componentType))));
         }
 
         // EntityManager
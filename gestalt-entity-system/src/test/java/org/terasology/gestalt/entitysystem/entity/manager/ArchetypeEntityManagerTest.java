@@ -0,0 +1,271 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.entity.manager;
+
+import com.google.common.collect.Sets;
+
+import org.junit.Test;
+import org.terasology.gestalt.entitysystem.component.ComponentIterator;
+import org.terasology.gestalt.entitysystem.component.management.ComponentManager;
+import org.terasology.gestalt.entitysystem.component.store.ComponentStore;
+import org.terasology.gestalt.entitysystem.entity.EntityIterator;
+import org.terasology.gestalt.entitysystem.entity.EntityRef;
+
+import java.util.Set;
+
+import modules.test.components.Sample;
+import modules.test.components.Second;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class ArchetypeEntityManagerTest {
+
+    private ComponentManager componentManager = new ComponentManager();
+    private ArchetypeEntityManager entityManager = new ArchetypeEntityManager(componentManager.getType(Sample.class), componentManager.getType(Second.class));
+
+    @Test
+    public void setAndGetComponents() {
+        EntityRef entity = entityManager.createEntity(createSample("Fred"));
+        assertTrue(entity.hasComponent(Sample.class));
+        assertFalse(entity.hasComponent(Second.class));
+        assertEquals("Fred", entity.getComponent(Sample.class).get().getName());
+
+        assertFalse(entity.setComponent(createSample("Jill")));
+        assertTrue(entity.setComponent(createSecond("Bob")));
+        assertEquals("Jill", entity.getComponent(Sample.class).get().getName());
+        assertEquals("Bob", entity.getComponent(Second.class).get().getName());
+        assertEquals(Sets.newHashSet(Sample.class, Second.class), entity.getComponentTypes());
+    }
+
+    @Test
+    public void removeComponentMovesEntityBetweenArchetypes() {
+        EntityRef first = entityManager.createEntity(createSample("a"), createSecond("a2"));
+        EntityRef second = entityManager.createEntity(createSample("b"), createSecond("b2"));
+
+        assertEquals("a2", first.removeComponent(Second.class).getName());
+        assertNull(first.removeComponent(Second.class));
+        assertFalse(first.hasComponent(Second.class));
+        assertEquals("a", first.getComponent(Sample.class).get().getName());
+        assertEquals("b", second.getComponent(Sample.class).get().getName());
+        assertEquals("b2", second.getComponent(Second.class).get().getName());
+    }
+
+    @Test
+    public void iterateOnlyVisitsEntitiesWithAllComponents() {
+        EntityRef both = entityManager.createEntity(createSample("both"), createSecond("both2"));
+        entityManager.createEntity(createSample("sampleOnly"));
+        entityManager.createEntity(createSecond("secondOnly"));
+
+        Sample sample = new Sample();
+        Second second = new Second();
+        EntityIterator iterator = entityManager.iterate(sample, second);
+        assertTrue(iterator.next());
+        assertEquals(both, iterator.getEntity());
+        assertEquals("both", sample.getName());
+        assertEquals("both2", second.getName());
+        assertFalse(iterator.next());
+    }
+
+    @Test
+    public void iterateAcrossChunks() {
+        int count = Archetype.CHUNK_SIZE * 3 + 7;
+        for (int i = 0; i < count; ++i) {
+            entityManager.createEntity(createSample(Integer.toString(i)));
+        }
+        Set<String> names = Sets.newHashSet();
+        Sample sample = new Sample();
+        EntityIterator iterator = entityManager.iterate(sample);
+        while (iterator.next()) {
+            names.add(sample.getName());
+        }
+        assertEquals(count, names.size());
+        assertEquals(count, entityManager.getComponentStore(Sample.class).iterationCost());
+    }
+
+    @Test
+    public void removeDuringIterationDoesNotSkipEntities() {
+        for (int i = 0; i < 10; ++i) {
+            entityManager.createEntity(createSample(Integer.toString(i)), createSecond(Integer.toString(i)));
+        }
+        int visited = 0;
+        Sample sample = new Sample();
+        Second second = new Second();
+        EntityIterator iterator = entityManager.iterate(sample, second);
+        while (iterator.next()) {
+            iterator.getEntity().removeComponent(Second.class);
+            visited++;
+        }
+        assertEquals(10, visited);
+        assertEquals(0, entityManager.getComponentStore(Second.class).iterationCost());
+        assertEquals(10, entityManager.getComponentStore(Sample.class).iterationCost());
+    }
+
+    @Test
+    public void addNonQueriedComponentDuringIterationVisitsEachEntityOnce() {
+        for (int i = 0; i < 10; ++i) {
+            entityManager.createEntity(createSample(Integer.toString(i)));
+        }
+        Set<String> visited = Sets.newHashSet();
+        int visitCount = 0;
+        Sample sample = new Sample();
+        EntityIterator iterator = entityManager.iterate(sample);
+        while (iterator.next()) {
+            visited.add(sample.getName());
+            visitCount++;
+            iterator.getEntity().setComponent(createSecond(sample.getName()));
+        }
+        assertEquals(10, visitCount);
+        assertEquals(10, visited.size());
+        assertEquals(10, entityManager.getComponentStore(Second.class).iterationCost());
+    }
+
+    @Test
+    public void removeNonQueriedComponentDuringIterationVisitsEachEntityOnce() {
+        for (int i = 0; i < 10; ++i) {
+            // Second is added first, so the Sample only archetype is only created by the removals below
+            entityManager.createEntity(createSecond(Integer.toString(i)), createSample(Integer.toString(i)));
+        }
+        Set<String> visited = Sets.newHashSet();
+        int visitCount = 0;
+        Sample sample = new Sample();
+        EntityIterator iterator = entityManager.iterate(sample);
+        while (iterator.next()) {
+            visited.add(sample.getName());
+            visitCount++;
+            iterator.getEntity().removeComponent(Second.class);
+        }
+        assertEquals(10, visitCount);
+        assertEquals(10, visited.size());
+        assertEquals(0, entityManager.getComponentStore(Second.class).iterationCost());
+    }
+
+    @Test
+    public void addNonQueriedComponentDuringComponentIterationVisitsEachEntityOnce() {
+        for (int i = 0; i < 10; ++i) {
+            entityManager.createEntity(createSample(Integer.toString(i)));
+        }
+        ComponentStore<Sample> store = entityManager.getComponentStore(Sample.class);
+        ComponentIterator<Sample> iterator = store.iterate();
+        Set<Integer> visited = Sets.newHashSet();
+        int visitCount = 0;
+        while (iterator.next()) {
+            visited.add(iterator.getEntityId());
+            visitCount++;
+            entityManager.getEntity(iterator.getEntityId()).setComponent(createSecond("x"));
+        }
+        assertEquals(10, visitCount);
+        assertEquals(10, visited.size());
+    }
+
+    @Test
+    public void deleteUnvisitedEntityDuringIterationVisitsEachEntityOnce() {
+        EntityRef firstCreated = entityManager.createEntity(createSample("0"));
+        for (int i = 1; i < 10; ++i) {
+            entityManager.createEntity(createSample(Integer.toString(i)));
+        }
+        Set<String> visited = Sets.newHashSet();
+        int visitCount = 0;
+        Sample sample = new Sample();
+        EntityIterator iterator = entityManager.iterate(sample);
+        while (iterator.next()) {
+            visited.add(sample.getName());
+            visitCount++;
+            if (firstCreated.exists()) {
+                // Moves the last entity, which has already been visited, into the first slot
+                firstCreated.delete();
+            }
+        }
+        assertEquals(9, visitCount);
+        assertEquals(9, visited.size());
+        assertFalse(visited.contains("0"));
+    }
+
+    @Test
+    public void moveUnvisitedEntityDuringIterationVisitsEachEntityOnce() {
+        EntityRef firstCreated = entityManager.createEntity(createSample("0"));
+        for (int i = 1; i < 10; ++i) {
+            entityManager.createEntity(createSample(Integer.toString(i)));
+        }
+        Set<String> visited = Sets.newHashSet();
+        int visitCount = 0;
+        Sample sample = new Sample();
+        EntityIterator iterator = entityManager.iterate(sample);
+        while (iterator.next()) {
+            visited.add(sample.getName());
+            visitCount++;
+            if (!firstCreated.hasComponent(Second.class)) {
+                firstCreated.setComponent(createSecond("0"));
+            }
+        }
+        assertEquals(visited.size(), visitCount);
+    }
+
+    @Test
+    public void deleteUnvisitedEntityDuringComponentIterationVisitsEachEntityOnce() {
+        EntityRef firstCreated = entityManager.createEntity(createSample("0"));
+        for (int i = 1; i < 10; ++i) {
+            entityManager.createEntity(createSample(Integer.toString(i)));
+        }
+        ComponentIterator<Sample> iterator = entityManager.getComponentStore(Sample.class).iterate();
+        Set<Integer> visited = Sets.newHashSet();
+        int visitCount = 0;
+        while (iterator.next()) {
+            visited.add(iterator.getEntityId());
+            visitCount++;
+            if (firstCreated.exists()) {
+                firstCreated.delete();
+            }
+        }
+        assertEquals(9, visitCount);
+        assertEquals(9, visited.size());
+    }
+
+    @Test
+    public void deleteEntity() {
+        EntityRef entity = entityManager.createEntity(createSample("Fred"));
+        EntityRef other = entityManager.createEntity(createSample("Jill"));
+        int id = entity.getId();
+
+        assertEquals(1, entity.delete().size());
+        assertFalse(entity.exists());
+        assertFalse(entityManager.getEntity(id).exists());
+        assertEquals(1, entityManager.size());
+        assertEquals("Jill", other.getComponent(Sample.class).get().getName());
+
+        EntityRef reused = entityManager.createEntity();
+        assertEquals(id, reused.getId());
+        assertFalse(reused.hasComponent(Sample.class));
+    }
+
+    private Sample createSample(String name) {
+        Sample sample = new Sample();
+        sample.setName(name);
+        return sample;
+    }
+
+    private Second createSecond(String name) {
+        Second second = new Second();
+        second.setName(name);
+        return second;
+    }
+}
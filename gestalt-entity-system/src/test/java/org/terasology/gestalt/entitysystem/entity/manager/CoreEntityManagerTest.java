@@ -0,0 +1,274 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.entity.manager;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import org.junit.Test;
+import org.terasology.gestalt.entitysystem.component.Component;
+import org.terasology.gestalt.entitysystem.component.management.ComponentManager;
+import org.terasology.gestalt.entitysystem.component.store.ArrayComponentStore;
+import org.terasology.gestalt.entitysystem.component.store.SparseComponentStore;
+import org.terasology.gestalt.entitysystem.entity.EntityIterator;
+import org.terasology.gestalt.entitysystem.entity.EntityRef;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import modules.test.components.Empty;
+import modules.test.components.Sample;
+import modules.test.components.Second;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class CoreEntityManagerTest {
+
+    private ComponentManager componentManager = new ComponentManager();
+    private CoreEntityManager entityManager = new CoreEntityManager(
+            new ArrayComponentStore<>(componentManager.getType(Sample.class)),
+            new SparseComponentStore<>(componentManager.getType(Second.class)));
+
+    @Test
+    public void componentTypesFollowSetAndRemove() {
+        EntityRef entity = entityManager.createEntity(new Sample(), new Second());
+        assertEquals(Sets.newHashSet(Sample.class, Second.class), entity.getComponentTypes());
+        assertTrue(entity.hasComponent(Second.class));
+
+        entity.removeComponent(Second.class);
+        assertEquals(Sets.newHashSet(Sample.class), entity.getComponentTypes());
+        assertFalse(entity.hasComponent(Second.class));
+        assertTrue(entity.getComponentTypes().contains(Sample.class));
+        assertFalse(entity.getComponentTypes().contains(Second.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void componentMaskFollowsSetAndRemove() {
+        EntityRef entity = entityManager.createEntity(new Second());
+        Class<? extends Component>[] types = new Class[]{Sample.class, Empty.class, Second.class};
+        long[] mask = new long[1];
+        entity.getComponentMask(types, mask);
+        assertEquals(0b100, mask[0]);
+
+        entity.setComponent(new Sample());
+        entity.removeComponent(Second.class);
+        mask[0] = 0;
+        entity.getComponentMask(types, mask);
+        assertEquals(0b001, mask[0]);
+
+        entity.delete();
+        mask[0] = 0;
+        entity.getComponentMask(types, mask);
+        assertEquals(0, mask[0]);
+    }
+
+    @Test
+    public void deleteRemovesOnlyPresentComponents() {
+        EntityRef entity = entityManager.createEntity(new Sample());
+        assertEquals(1, entity.delete().size());
+        assertFalse(entityManager.getComponentStore(Sample.class).has(entity.getId()));
+
+        EntityRef reused = entityManager.createEntity();
+        assertEquals(entity.getId(), reused.getId());
+        assertTrue(reused.getComponentTypes().isEmpty());
+    }
+
+    @Test
+    public void staleRefDoesNotExistAfterIdReused() {
+        EntityRef entity = entityManager.createEntity(new Sample());
+        entity.delete();
+        EntityRef reused = entityManager.createEntity(new Sample());
+        assertEquals(entity.getId(), reused.getId());
+
+        assertFalse(entity.exists());
+        assertFalse(entity.hasComponent(Sample.class));
+        assertFalse(entity.setComponent(new Second()));
+        assertTrue(entity.delete().isEmpty());
+        assertTrue(reused.exists());
+        assertNotEquals(entity, reused);
+        assertEquals(reused, entityManager.getEntity(reused.getId()));
+        assertEquals(1, entityManager.size());
+    }
+
+    @Test
+    public void concurrentCreationAllocatesDistinctIds() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<List<EntityRef>>> results = Lists.newArrayList();
+        for (int thread = 0; thread < 4; ++thread) {
+            results.add(executor.submit(() -> {
+                List<EntityRef> created = Lists.newArrayList();
+                for (int i = 0; i < 1000; ++i) {
+                    created.add(entityManager.createEntity());
+                    if (i % 3 == 0) {
+                        created.remove(0).delete();
+                    }
+                }
+                return created;
+            }));
+        }
+        Set<Integer> ids = Sets.newHashSet();
+        int total = 0;
+        for (Future<List<EntityRef>> result : results) {
+            for (EntityRef entity : result.get()) {
+                assertTrue(entity.exists());
+                ids.add(entity.getId());
+                total++;
+            }
+        }
+        executor.shutdown();
+        assertEquals(total, ids.size());
+        assertEquals(total, entityManager.size());
+    }
+
+    @Test
+    public void getAllComponentsReturnsPresentComponents() {
+        EntityRef entity = entityManager.createEntity(new Second());
+        assertEquals(1, entity.getAllComponents().size());
+        assertTrue(entity.getAllComponents().containsKey(Second.class));
+    }
+
+    @Test
+    public void addedStoreContentsAreIndexed() {
+        EntityRef entity = entityManager.createEntity(new Sample());
+        SparseComponentStore<Empty> emptyStore = new SparseComponentStore<>(componentManager.getType(Empty.class));
+        emptyStore.set(entity.getId(), new Empty());
+        entityManager.addComponentStore(emptyStore);
+
+        assertTrue(entity.hasComponent(Empty.class));
+        assertEquals(Sets.newHashSet(Sample.class, Empty.class), entity.getComponentTypes());
+    }
+
+    @Test
+    public void createEntitiesFromTemplate() {
+        Sample template = new Sample();
+        template.setName("spawned");
+        List<EntityRef> created = entityManager.createEntities(5000, template, new Second());
+
+        assertEquals(5000, created.size());
+        assertEquals(5000, entityManager.size());
+        Sample result = new Sample();
+        for (EntityRef entity : created) {
+            assertTrue(entity.getComponent(result));
+            assertEquals("spawned", result.getName());
+            assertEquals(Sets.newHashSet(Sample.class, Second.class), entity.getComponentTypes());
+        }
+        assertEquals(created.get(4999), entityManager.getEntity(created.get(4999).getId()));
+    }
+
+    @Test
+    public void masksSurviveStorageExtension() {
+        CoreEntityManager small = new CoreEntityManager(Collections.singletonList(new ArrayComponentStore<>(componentManager.getType(Sample.class))), 2);
+        EntityRef first = small.createEntity(new Sample());
+        for (int i = 0; i < 10; ++i) {
+            small.createEntity(new Sample());
+        }
+        assertTrue(first.hasComponent(Sample.class));
+        assertEquals(11, small.size());
+    }
+
+    @Test
+    public void groupTracksMatchingEntities() {
+        EntityRef both = entityManager.createEntity(new Sample(), new Second());
+        EntityRef sampleOnly = entityManager.createEntity(new Sample());
+
+        EntityGroup group = entityManager.createGroup(Sample.class, Second.class);
+        assertEquals(1, group.size());
+        assertTrue(group.contains(both.getId()));
+        assertFalse(group.contains(sampleOnly.getId()));
+
+        sampleOnly.setComponent(new Second());
+        assertEquals(2, group.size());
+        assertTrue(group.contains(sampleOnly.getId()));
+
+        both.removeComponent(Sample.class);
+        assertEquals(1, group.size());
+        assertEquals(sampleOnly.getId(), group.getEntityId(0));
+
+        sampleOnly.delete();
+        assertEquals(0, group.size());
+    }
+
+    @Test
+    public void removedGroupNoLongerUpdates() {
+        EntityGroup group = entityManager.createGroup(Sample.class);
+        entityManager.createEntity(new Sample());
+        entityManager.removeGroup(group);
+        entityManager.createEntity(new Sample());
+        assertEquals(1, group.size());
+    }
+
+    @Test
+    public void iterateReturnsOnlyEntitiesWithAllComponents() {
+        for (int i = 0; i < 200; ++i) {
+            Sample sample = new Sample();
+            sample.setName("sample" + i);
+            if (i % 50 == 0) {
+                Second second = new Second();
+                second.setName("second" + i);
+                entityManager.createEntity(sample, second);
+            } else {
+                entityManager.createEntity(sample);
+            }
+        }
+
+        for (int pass = 0; pass < 2; ++pass) {
+            Sample sample = new Sample();
+            Second second = new Second();
+            EntityIterator iterator = entityManager.iterate(sample, second);
+            Set<String> found = Sets.newHashSet();
+            while (iterator.next()) {
+                assertEquals(sample.getName().replace("sample", "second"), second.getName());
+                found.add(sample.getName());
+            }
+            assertEquals(Sets.newHashSet("sample0", "sample50", "sample100", "sample150"), found);
+        }
+    }
+
+    @Test
+    public void nextBatchReturnsMatchingIdsInBlocks() {
+        Set<Integer> expected = Sets.newHashSet();
+        for (int i = 0; i < 300; ++i) {
+            if (i % 3 == 0) {
+                expected.add(entityManager.createEntity(new Sample(), new Second()).getId());
+            } else {
+                entityManager.createEntity(new Sample());
+            }
+        }
+
+        EntityIterator iterator = entityManager.iterate(new Sample(), new Second());
+        int[] block = new int[16];
+        Set<Integer> found = Sets.newHashSet();
+        int count;
+        while ((count = iterator.nextBatch(block)) > 0) {
+            for (int i = 0; i < count; ++i) {
+                assertTrue(found.add(block[i]));
+            }
+        }
+        assertEquals(expected, found);
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.event;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+import org.terasology.gestalt.entitysystem.component.management.ComponentManager;
+import org.terasology.gestalt.entitysystem.component.store.ArrayComponentStore;
+import org.terasology.gestalt.entitysystem.entity.EntityManager;
+import org.terasology.gestalt.entitysystem.entity.EntityRef;
+import org.terasology.gestalt.entitysystem.entity.manager.CoreEntityManager;
+import org.terasology.gestalt.entitysystem.event.impl.EventQueue;
+import org.terasology.gestalt.entitysystem.event.impl.EventSystemImpl;
+
+import java.util.List;
+
+import modules.test.TestEvent;
+import modules.test.components.Sample;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ *
+ */
+public class CoalesceEventTest {
+
+    private EventSystem eventSystem = new EventSystemImpl();
+    private EntityRef entity;
+    private EntityRef otherEntity;
+    private List<String> received = Lists.newArrayList();
+
+    public CoalesceEventTest() {
+        ComponentManager componentManager = new ComponentManager();
+        EntityManager entityManager = new CoreEntityManager(new ArrayComponentStore<>(componentManager.getType(Sample.class)));
+        entity = entityManager.createEntity(new Sample());
+        otherEntity = entityManager.createEntity(new Sample());
+    }
+
+    @Test
+    public void latestEventReplacesPendingEvent() {
+        eventSystem.registerHandler(PositionChanged.class, (PositionChanged event, EntityRef target) -> {
+            received.add(target.getId() + ":" + event.position);
+            return EventResult.CONTINUE;
+        });
+        eventSystem.send(new PositionChanged(1), entity);
+        eventSystem.send(new PositionChanged(2), otherEntity);
+        eventSystem.send(new PositionChanged(3), entity);
+        eventSystem.processEvents();
+
+        assertEquals(Lists.newArrayList(entity.getId() + ":3", otherEntity.getId() + ":2"), received);
+    }
+
+    @Test
+    public void mergeableEventsAreMerged() {
+        eventSystem.registerHandler(Damaged.class, (Damaged event, EntityRef target) -> {
+            received.add(Integer.toString(event.amount));
+            return EventResult.CONTINUE;
+        });
+        eventSystem.send(new Damaged(1), entity);
+        eventSystem.send(new Damaged(2), entity);
+        eventSystem.send(new Damaged(4), entity);
+        eventSystem.processEvents();
+
+        assertEquals(Lists.newArrayList("7"), received);
+    }
+
+    @Test
+    public void coalescedEventKeepsPositionOfFirstInstance() {
+        eventSystem.registerHandler(PositionChanged.class, (PositionChanged event, EntityRef target) -> {
+            received.add("position " + event.position);
+            return EventResult.CONTINUE;
+        });
+        eventSystem.registerHandler(TestEvent.class, (TestEvent event, EntityRef target) -> {
+            received.add(event.getValue());
+            return EventResult.CONTINUE;
+        });
+        eventSystem.send(new PositionChanged(1), entity);
+        eventSystem.send(new TestEvent("test"), entity);
+        eventSystem.send(new PositionChanged(2), entity);
+        eventSystem.processEvents();
+
+        assertEquals(Lists.newArrayList("position 2", "test"), received);
+    }
+
+    @Test
+    public void eventsSentAfterProcessingAreQueuedAgain() {
+        eventSystem.registerHandler(PositionChanged.class, (PositionChanged event, EntityRef target) -> {
+            received.add(Integer.toString(event.position));
+            return EventResult.CONTINUE;
+        });
+        eventSystem.send(new PositionChanged(1), entity);
+        eventSystem.processEvents();
+        eventSystem.send(new PositionChanged(2), entity);
+        eventSystem.processEvents();
+
+        assertEquals(Lists.newArrayList("1", "2"), received);
+    }
+
+    @Test
+    public void clearingDiscardsCoalescedEvents() {
+        eventSystem.registerHandler(PositionChanged.class, (PositionChanged event, EntityRef target) -> {
+            received.add(Integer.toString(event.position));
+            return EventResult.CONTINUE;
+        });
+        eventSystem.send(new PositionChanged(1), entity);
+        eventSystem.clearPendingEvents();
+        eventSystem.send(new PositionChanged(2), entity);
+        eventSystem.processEvents();
+
+        assertEquals(Lists.newArrayList("2"), received);
+    }
+
+    @Test
+    public void droppedCoalescedEventDoesNotAbsorbLaterEvents() {
+        EventSystem droppingEventSystem = new EventSystemImpl(2, EventQueue.OverflowPolicy.DROP);
+        droppingEventSystem.registerHandler(PositionChanged.class, (PositionChanged event, EntityRef target) -> {
+            received.add(Integer.toString(event.position));
+            return EventResult.CONTINUE;
+        });
+        droppingEventSystem.send(new TestEvent("a"), entity);
+        droppingEventSystem.send(new TestEvent("b"), entity);
+        droppingEventSystem.send(new PositionChanged(1), entity);
+        droppingEventSystem.processEvents();
+        droppingEventSystem.send(new PositionChanged(2), entity);
+        droppingEventSystem.processEvents();
+
+        assertEquals(Lists.newArrayList("2"), received);
+    }
+
+    @Coalesce
+    public static class PositionChanged implements Event {
+        private final int position;
+
+        public PositionChanged(int position) {
+            this.position = position;
+        }
+    }
+
+    @Coalesce
+    public static class Damaged implements MergeableEvent<Damaged> {
+        private final int amount;
+
+        public Damaged(int amount) {
+            this.amount = amount;
+        }
+
+        @Override
+        public Damaged merge(Damaged later) {
+            return new Damaged(amount + later.amount);
+        }
+    }
+}
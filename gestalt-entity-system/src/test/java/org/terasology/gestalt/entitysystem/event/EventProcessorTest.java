@@ -40,6 +40,8 @@
 
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -162,6 +164,62 @@ public void triggeringComponentsCombineWithActualWhenFilteringReceivers() {
         verify(secondHandler).onEvent(event, testEntity);
     }
 
+    @Test
+    public void handlersRegisteredAfterProcessingAreInvoked() {
+        EventHandler<TestEvent> handler = mock(EventHandler.class);
+        EventHandler<TestEvent> handler2 = mock(EventHandler.class);
+        when(handler.onEvent(event, testEntity)).thenReturn(EventResult.CONTINUE);
+        when(handler2.onEvent(event, testEntity)).thenReturn(EventResult.CONTINUE);
+        eventProcessor.registerHandler(handler, EventHandler.class, Collections.emptyList(), Collections.emptyList(), ImmutableList.of(Sample.class));
+        eventProcessor.process(event, testEntity);
+
+        eventProcessor.registerHandler(handler2, EventHandler.class, Collections.emptyList(), Collections.emptyList(), ImmutableList.of(Sample.class));
+        eventProcessor.process(event, testEntity);
+
+        verify(handler, times(2)).onEvent(event, testEntity);
+        verify(handler2).onEvent(event, testEntity);
+    }
+
+    @Test
+    public void removedHandlersAreNotInvoked() {
+        EventHandler<TestEvent> handler = mock(EventHandler.class);
+        when(handler.onEvent(event, testEntity)).thenReturn(EventResult.CONTINUE);
+        eventProcessor.registerHandler(handler, EventHandler.class, Collections.emptyList(), Collections.emptyList(), ImmutableList.of(Sample.class));
+        eventProcessor.process(event, testEntity);
+
+        eventProcessor.removeHandler(handler);
+        eventProcessor.process(event, testEntity);
+
+        verify(handler).onEvent(event, testEntity);
+    }
+
+    @Test
+    public void handlersFollowComponentChanges() {
+        EventHandler<TestEvent> handler = mock(EventHandler.class);
+        when(handler.onEvent(event, testEntity)).thenReturn(EventResult.CONTINUE);
+        eventProcessor.registerHandler(handler, EventHandler.class, Collections.emptyList(), Collections.emptyList(), ImmutableList.of(Second.class));
+        eventProcessor.process(event, testEntity);
+
+        testEntity.setComponent(new Second());
+        eventProcessor.process(event, testEntity);
+
+        verify(handler).onEvent(event, testEntity);
+    }
+
+    @Test
+    public void dispatchUsesComponentMaskRatherThanComponentTypes() {
+        EntityRef entity = mock(EntityRef.class);
+        EventHandler<TestEvent> handler = mock(EventHandler.class);
+        when(handler.onEvent(event, entity)).thenReturn(EventResult.CONTINUE);
+        eventProcessor.registerHandler(handler, EventHandler.class, Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+
+        eventProcessor.process(event, entity);
+        eventProcessor.process(event, entity);
+
+        verify(handler, times(2)).onEvent(event, entity);
+        verify(entity, never()).getComponentTypes();
+    }
+
     @Test
     public void canForceEventHandlerBeforeAnotherByType() {
         EventHandler<TestEvent> handlerA = mock(EventHandlerA.class);
@@ -30,6 +30,7 @@
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -38,6 +39,7 @@
 import modules.test.components.Sample;
 import modules.test.components.Second;
 
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -100,6 +102,20 @@ public void sendAsynchEventWithTriggeringComponentsTriggersInterestedHandler() t
         verify(eventHandler).onEvent(asynchEvent, entity);
     }
 
+    @Test
+    public void modifyingTriggeringComponentsAfterSendingDoesNotAffectQueuedEvent() throws Exception {
+        List<TestEvent> received = new ArrayList<>();
+        eventSystem.registerHandler(TestEvent.class, (TestEvent event, EntityRef target) -> {
+            received.add(event);
+            return EventResult.CONTINUE;
+        }, Sample.class);
+        Set<Class<? extends Component>> mutableTriggeringComponents = new HashSet<>(triggeringComponents);
+        eventSystem.send(asynchEvent, entity, mutableTriggeringComponents);
+        mutableTriggeringComponents.remove(Sample.class);
+        eventSystem.processEvents();
+        assertEquals(Collections.singletonList(asynchEvent), received);
+    }
+
     @Test
     public void sendSynchEvent() throws Exception {
         EventHandler<TestSynchEvent> eventHandler = mock(EventHandler.class);
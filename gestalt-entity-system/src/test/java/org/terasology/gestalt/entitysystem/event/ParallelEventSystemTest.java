@@ -0,0 +1,163 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.event;
+
+import com.google.common.collect.Lists;
+
+import org.junit.After;
+import org.junit.Test;
+import org.terasology.gestalt.entitysystem.component.management.ComponentManager;
+import org.terasology.gestalt.entitysystem.component.store.ArrayComponentStore;
+import org.terasology.gestalt.entitysystem.component.store.ConcurrentComponentStore;
+import org.terasology.gestalt.entitysystem.entity.EntityManager;
+import org.terasology.gestalt.entitysystem.entity.EntityRef;
+import org.terasology.gestalt.entitysystem.entity.manager.CoreEntityManager;
+import org.terasology.gestalt.entitysystem.event.impl.EventSystemImpl;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import modules.test.TestChildEvent;
+import modules.test.TestEvent;
+import modules.test.components.Sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ *
+ */
+public class ParallelEventSystemTest {
+
+    private static final int ENTITIES = 50;
+    private static final int EVENTS_PER_ENTITY = 20;
+
+    // Daemon threads, so a deadlock fails the test rather than preventing the JVM from exiting
+    private ExecutorService executor = Executors.newFixedThreadPool(4, runnable -> {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        return thread;
+    });
+    private EventSystem eventSystem = new EventSystemImpl(executor, 4);
+    private List<EntityRef> entities = Lists.newArrayList();
+
+    public ParallelEventSystemTest() {
+        ComponentManager componentManager = new ComponentManager();
+        EntityManager entityManager = new CoreEntityManager(new ConcurrentComponentStore<>(new ArrayComponentStore<>(componentManager.getType(Sample.class))));
+        for (int i = 0; i < ENTITIES; ++i) {
+            entities.add(entityManager.createEntity(new Sample()));
+        }
+    }
+
+    @After
+    public void teardown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void eventsForEachEntityProcessedInOrder() {
+        Map<Integer, List<String>> received = new ConcurrentHashMap<>();
+        eventSystem.registerHandler(TestEvent.class, (TestEvent event, EntityRef entity) -> {
+            received.computeIfAbsent(entity.getId(), k -> Collections.synchronizedList(Lists.newArrayList())).add(event.getValue());
+            return EventResult.CONTINUE;
+        });
+        for (int i = 0; i < EVENTS_PER_ENTITY; ++i) {
+            for (EntityRef entity : entities) {
+                eventSystem.send(new TestEvent(Integer.toString(i)), entity);
+            }
+        }
+        eventSystem.processEvents();
+
+        for (EntityRef entity : entities) {
+            List<String> values = received.get(entity.getId());
+            assertEquals(EVENTS_PER_ENTITY, values.size());
+            for (int i = 0; i < EVENTS_PER_ENTITY; ++i) {
+                assertEquals(Integer.toString(i), values.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void globallyOrderedEventsActAsBarriers() {
+        AtomicInteger processed = new AtomicInteger();
+        eventSystem.registerHandler(TestEvent.class, (TestEvent event, EntityRef entity) -> {
+            if (!(event instanceof TestChildEvent)) {
+                processed.incrementAndGet();
+            }
+            return EventResult.CONTINUE;
+        });
+        GloballyOrderedHandler handler = new GloballyOrderedHandler(processed);
+        eventSystem.registerHandler(TestChildEvent.class, handler);
+        for (int i = 0; i < EVENTS_PER_ENTITY; ++i) {
+            for (EntityRef entity : entities) {
+                eventSystem.send(new TestEvent(Integer.toString(i)), entity);
+            }
+            eventSystem.send(new TestChildEvent(Integer.toString(i)), entities.get(i));
+        }
+        eventSystem.processEvents();
+
+        assertEquals(EVENTS_PER_ENTITY, handler.processedBefore.size());
+        for (int i = 0; i < EVENTS_PER_ENTITY; ++i) {
+            assertEquals((i + 1) * ENTITIES, (int) handler.processedBefore.get(i));
+        }
+    }
+
+    @Test
+    public void processEventsFromHandlerDoesNotDeadlock() throws Exception {
+        List<String> received = Collections.synchronizedList(Lists.newArrayList());
+        eventSystem.registerHandler(TestEvent.class, (TestEvent event, EntityRef entity) -> {
+            received.add(event.getValue());
+            if (event.getValue().equals("outer")) {
+                eventSystem.send(new TestEvent("inner"), entity);
+                eventSystem.processEvents();
+            }
+            return EventResult.CONTINUE;
+        });
+        for (EntityRef entity : entities) {
+            eventSystem.send(new TestEvent("outer"), entity);
+        }
+        Thread processing = new Thread(eventSystem::processEvents);
+        processing.setDaemon(true);
+        processing.start();
+        processing.join(10000);
+        assertFalse("Processing events deadlocked", processing.isAlive());
+
+        assertEquals(2 * ENTITIES, received.size());
+        assertEquals(ENTITIES, Collections.frequency(received, "inner"));
+    }
+
+    @GlobalOrdering
+    public static class GloballyOrderedHandler implements EventHandler<TestChildEvent> {
+        private final AtomicInteger processed;
+        private final List<Integer> processedBefore = Lists.newArrayList();
+
+        GloballyOrderedHandler(AtomicInteger processed) {
+            this.processed = processed;
+        }
+
+        @Override
+        public EventResult onEvent(TestChildEvent event, EntityRef entity) {
+            processedBefore.add(processed.get());
+            return EventResult.CONTINUE;
+        }
+    }
+}
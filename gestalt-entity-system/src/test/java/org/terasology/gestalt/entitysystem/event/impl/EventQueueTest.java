@@ -0,0 +1,200 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.event.impl;
+
+import org.junit.Test;
+import org.terasology.gestalt.entitysystem.entity.EntityRef;
+import org.terasology.gestalt.entitysystem.entity.NullEntityRef;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import modules.test.TestEvent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class EventQueueTest {
+
+    private EntityRef entity = NullEntityRef.get();
+
+    @Test
+    public void capacityRoundedToPowerOfTwo() {
+        assertEquals(8, new EventQueue(5, EventQueue.OverflowPolicy.DROP, () -> true).getCapacity());
+        assertEquals(2, new EventQueue(1, EventQueue.OverflowPolicy.DROP, () -> true).getCapacity());
+    }
+
+    @Test
+    public void drainsInOrderAdded() {
+        EventQueue queue = new EventQueue(4, EventQueue.OverflowPolicy.DROP, () -> true);
+        EventBatch batch = new EventBatch(4);
+        for (int lap = 0; lap < 3; ++lap) {
+            for (int i = 0; i < 3; ++i) {
+                queue.add(new TestEvent(lap + ":" + i), entity, Collections.emptySet());
+            }
+            assertEquals(3, queue.drain(batch, 10));
+            for (int i = 0; i < 3; ++i) {
+                assertEquals(lap + ":" + i, ((TestEvent) batch.getEvent(i)).getValue());
+            }
+            batch.clear();
+        }
+    }
+
+    @Test
+    public void drainLimitedToMaxEvents() {
+        EventQueue queue = new EventQueue(4, EventQueue.OverflowPolicy.DROP, () -> true);
+        EventBatch batch = new EventBatch(4);
+        for (int i = 0; i < 3; ++i) {
+            queue.add(new TestEvent(Integer.toString(i)), entity, Collections.emptySet());
+        }
+        assertEquals(2, queue.drain(batch, 2));
+        assertEquals(1, queue.drain(batch, 2));
+        assertEquals(0, queue.drain(batch, 2));
+    }
+
+    @Test
+    public void dropPolicyDiscardsWhenFull() {
+        EventQueue queue = new EventQueue(2, EventQueue.OverflowPolicy.DROP, () -> true);
+        assertTrue(queue.add(new TestEvent("a"), entity, Collections.emptySet()));
+        assertTrue(queue.add(new TestEvent("b"), entity, Collections.emptySet()));
+        assertFalse(queue.add(new TestEvent("c"), entity, Collections.emptySet()));
+        assertEquals(1, queue.getDroppedCount());
+        assertEquals(2, queue.drain(new EventBatch(4), 10));
+    }
+
+    @Test
+    public void growPolicyKeepsOrderBeyondCapacity() {
+        EventQueue queue = new EventQueue(2, EventQueue.OverflowPolicy.GROW, () -> true);
+        for (int i = 0; i < 5; ++i) {
+            assertTrue(queue.add(new TestEvent(Integer.toString(i)), entity, Collections.emptySet()));
+        }
+        EventBatch batch = new EventBatch(2);
+        assertEquals(5, queue.drain(batch, 10));
+        for (int i = 0; i < 5; ++i) {
+            assertEquals(Integer.toString(i), ((TestEvent) batch.getEvent(i)).getValue());
+        }
+    }
+
+    @Test
+    public void growPolicyKeepsOrderAcrossPartialDrains() {
+        EventQueue queue = new EventQueue(2, EventQueue.OverflowPolicy.GROW, () -> true);
+        EventBatch batch = new EventBatch(2);
+        int added = 0;
+        int drained = 0;
+        for (int lap = 0; lap < 4; ++lap) {
+            for (int i = 0; i < 3; ++i) {
+                queue.add(new TestEvent(Integer.toString(added++)), entity, Collections.emptySet());
+            }
+            queue.drain(batch, 2);
+            for (int i = 0; i < batch.size(); ++i) {
+                assertEquals(Integer.toString(drained++), ((TestEvent) batch.getEvent(i)).getValue());
+            }
+            batch.clear();
+        }
+        while (queue.drain(batch, 2) > 0) {
+            for (int i = 0; i < batch.size(); ++i) {
+                assertEquals(Integer.toString(drained++), ((TestEvent) batch.getEvent(i)).getValue());
+            }
+            batch.clear();
+        }
+        assertEquals(added, drained);
+    }
+
+    @Test
+    public void blockPolicyOverflowsWhenUnableToBlock() {
+        EventQueue queue = new EventQueue(2, EventQueue.OverflowPolicy.BLOCK, () -> false);
+        for (int i = 0; i < 3; ++i) {
+            queue.add(new TestEvent(Integer.toString(i)), entity, Collections.emptySet());
+        }
+        assertEquals(3, queue.drain(new EventBatch(2), 10));
+    }
+
+    @Test
+    public void blockPolicyWaitsForSpace() throws Exception {
+        EventQueue queue = new EventQueue(2, EventQueue.OverflowPolicy.BLOCK, () -> true);
+        queue.add(new TestEvent("a"), entity, Collections.emptySet());
+        queue.add(new TestEvent("b"), entity, Collections.emptySet());
+        Thread producer = new Thread(() -> queue.add(new TestEvent("c"), entity, Collections.emptySet()));
+        producer.start();
+        EventBatch batch = new EventBatch(3);
+        while (batch.size() < 3) {
+            queue.drain(batch, 10);
+        }
+        producer.join();
+        assertEquals("c", ((TestEvent) batch.getEvent(2)).getValue());
+    }
+
+    @Test
+    public void clearDiscardsPendingEvents() {
+        EventQueue queue = new EventQueue(2, EventQueue.OverflowPolicy.GROW, () -> true);
+        for (int i = 0; i < 4; ++i) {
+            queue.add(new TestEvent(Integer.toString(i)), entity, Collections.emptySet());
+        }
+        queue.clear();
+        queue.add(new TestEvent("after"), entity, Collections.emptySet());
+        EventBatch batch = new EventBatch(2);
+        assertEquals(1, queue.drain(batch, 10));
+        assertEquals("after", ((TestEvent) batch.getEvent(0)).getValue());
+    }
+
+    @Test
+    public void concurrentProducersKeepTheirOrder() throws Exception {
+        assertProducersKeepTheirOrder(new EventQueue(64, EventQueue.OverflowPolicy.BLOCK, () -> true));
+    }
+
+    @Test
+    public void concurrentProducersKeepTheirOrderWhenOverflowing() throws Exception {
+        assertProducersKeepTheirOrder(new EventQueue(4, EventQueue.OverflowPolicy.GROW, () -> true));
+    }
+
+    private void assertProducersKeepTheirOrder(EventQueue queue) throws Exception {
+        int producers = 4;
+        int eventsPerProducer = 10000;
+        List<Thread> threads = new CopyOnWriteArrayList<>();
+        for (int p = 0; p < producers; ++p) {
+            String prefix = p + ":";
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < eventsPerProducer; ++i) {
+                    queue.add(new TestEvent(prefix + i), entity, Collections.emptySet());
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        int[] next = new int[producers];
+        EventBatch batch = new EventBatch(64);
+        int received = 0;
+        while (received < producers * eventsPerProducer) {
+            queue.drain(batch, 64);
+            for (int i = 0; i < batch.size(); ++i) {
+                String[] parts = ((TestEvent) batch.getEvent(i)).getValue().split(":");
+                int producer = Integer.parseInt(parts[0]);
+                assertEquals(next[producer]++, Integer.parseInt(parts[1]));
+            }
+            received += batch.size();
+            batch.clear();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+}
@@ -16,6 +16,8 @@
 
 package org.terasology.gestalt.entitysystem.prefab;
 
+import com.google.common.collect.Sets;
+
 import org.junit.Test;
 import org.terasology.gestalt.assets.AssetType;
 import org.terasology.gestalt.assets.ResourceUrn;
@@ -29,12 +31,16 @@
 import org.terasology.gestalt.entitysystem.entity.NullEntityRef;
 import org.terasology.gestalt.entitysystem.entity.manager.CoreEntityManager;
 
+import java.util.List;
+import java.util.Set;
+
 import modules.test.components.Reference;
 import modules.test.components.Sample;
 import modules.test.components.Second;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -166,5 +172,48 @@ public void entitiesCreatedByPrefabHaveEntityRecipeUrnTracked() {
         assertEquals(comp.getEntityRecipe(), singlePrefab.getRootEntityUrn());
     }
 
+    @Test
+    public void spawnCreatesSeparateInstances() {
+        List<EntityRef> entities = entityManager.spawn(multiPrefab, 3);
+        assertEquals(3, entities.size());
+        Set<EntityRef> secondEntities = Sets.newHashSet();
+        for (EntityRef entity : entities) {
+            EntityRef secondEntity = entity.getComponent(Reference.class).orElseThrow(AssertionError::new).getReference();
+            assertNotEquals(entity, secondEntity);
+            assertEquals(TEST_NAME, secondEntity.getComponent(Sample.class).orElseThrow(AssertionError::new).getName());
+            assertEquals(SECOND_ENTITY_URN, secondEntity.getComponent(GeneratedFromRecipeComponent.class).orElseThrow(AssertionError::new).getEntityRecipe());
+            secondEntities.add(secondEntity);
+        }
+        assertEquals(3, secondEntities.size());
+        assertEquals(6, entityManager.size());
+    }
+
+    @Test
+    public void spawnPrefabReferencingAnotherPrefabInstantiatesEach() {
+        List<EntityRef> entities = entityManager.spawn(compositePrefab, 2);
+        EntityRef first = entities.get(0).getComponent(Reference.class).orElseThrow(AssertionError::new).getReference();
+        EntityRef second = entities.get(1).getComponent(Reference.class).orElseThrow(AssertionError::new).getReference();
+        assertTrue(first.hasComponent(Sample.class));
+        assertTrue(second.hasComponent(Sample.class));
+        assertNotEquals(first, second);
+    }
+
+    @Test
+    public void reloadedPrefabInstantiatesNewContent() {
+        entityManager.createEntity(singlePrefab);
+
+        PrefabData prefabData = new PrefabData();
+        EntityRecipe entityRecipe = new EntityRecipe(SINGLE_PREFAB_ROOT_ENTITY_URN);
+        Sample sampleComponent = componentManager.create(Sample.class);
+        sampleComponent.setName(TEST_NAME_2);
+        entityRecipe.add(sampleComponent);
+        prefabData.addEntityRecipe(entityRecipe);
+        prefabData.setRootEntityId(SINGLE_PREFAB_ROOT_ENTITY_URN);
+        singlePrefab.reload(prefabData);
+
+        EntityRef entity = entityManager.createEntity(singlePrefab);
+        assertEquals(TEST_NAME_2, entity.getComponent(Sample.class).orElseThrow(AssertionError::new).getName());
+    }
+
 
 }
@@ -0,0 +1,376 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.event;
+
+import com.google.common.collect.ImmutableList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terasology.gestalt.entitysystem.component.Component;
+import org.terasology.gestalt.entitysystem.entity.EntityRef;
+import org.terasology.gestalt.entitysystem.event.exception.EventSystemException;
+import org.terasology.gestalt.entitysystem.event.impl.EventReceiverMethodSupport;
+import org.terasology.gestalt.entitysystem.event.impl.ReflectionEventHandler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * An EventHandlerFactory making use of Java 8's LambdaMetafactory class to generate a direct invoker for each event
+ * handling method. Invokers have a fixed arity for methods with up to {@link #MAX_COMPONENT_PARAMS} component parameters,
+ * so dispatching an event calls the method without allocating a parameter array or going through reflection.
+ * <p>
+ * Invokers are normally defined alongside this class. When the method's classes are not visible to this library's
+ * class loader - such as handlers loaded by a module class loader - the invoker is instead defined alongside the
+ * handler class, through a lookup with full access to it. On Java 8 this lookup is created directly. Newer JVMs only
+ * grant full access from within the handler's own module, so a small class providing a lookup is first defined in the
+ * handler's package, and the lookup is obtained through it. Methods with more component parameters fall back to
+ * {@link ReflectionEventHandler}, as does any method an invoker cannot be generated for.
+ */
+public class LambdaEventHandlerFactory implements EventHandlerFactory {
+
+    /**
+     * The maximum number of component parameters supported by the generated invokers
+     */
+    public static final int MAX_COMPONENT_PARAMS = 4;
+
+    private static final Logger logger = LoggerFactory.getLogger(LambdaEventHandlerFactory.class);
+
+    private static final int FULL_ACCESS = MethodHandles.Lookup.PUBLIC | MethodHandles.Lookup.PRIVATE
+            | MethodHandles.Lookup.PROTECTED | MethodHandles.Lookup.PACKAGE;
+
+    private static final String LOOKUP_PROVIDER_NAME = "LambdaEventHandlerFactory$LookupProvider";
+
+    private static final Class<?>[] INVOKER_TYPES = {Invoker0.class, Invoker1.class, Invoker2.class, Invoker3.class, Invoker4.class};
+
+    @Override
+    public EventHandler create(Object handler, Method method, Collection<Class<? extends Component>> componentParams) {
+        List<Class<? extends Component>> params = ImmutableList.copyOf(componentParams);
+        if (params.size() <= MAX_COMPONENT_PARAMS && method.getReturnType() == EventResult.class) {
+            boolean visible = isVisible(method);
+            try {
+                MethodHandles.Lookup lookup = visible ? MethodHandles.lookup() : fullAccessLookup(method.getDeclaringClass());
+                Object invoker = createInvoker(lookup, handler, method, params.size());
+                switch (params.size()) {
+                    case 0:
+                        return new Handler0((Invoker0) invoker);
+                    case 1:
+                        return new Handler1((Invoker1) invoker, params);
+                    case 2:
+                        return new Handler2((Invoker2) invoker, params);
+                    case 3:
+                        return new Handler3((Invoker3) invoker, params);
+                    default:
+                        return new Handler4((Invoker4) invoker, params);
+                }
+            } catch (Throwable e) {
+                logger.warn("Failed to generate invoker for {}, falling back to reflection", method, e);
+            }
+        }
+        return new ReflectionEventHandler(handler, method, componentParams);
+    }
+
+    private Object createInvoker(MethodHandles.Lookup lookup, Object handler, Method method, int componentParamCount) throws Throwable {
+        MethodHandle handle = lookup.unreflect(method);
+        Class<?> invokerType = INVOKER_TYPES[componentParamCount];
+        Class<?>[] erasedParams = new Class<?>[EventReceiverMethodSupport.FIXED_PARAM_COUNT + componentParamCount];
+        erasedParams[0] = Event.class;
+        erasedParams[1] = EntityRef.class;
+        for (int i = EventReceiverMethodSupport.FIXED_PARAM_COUNT; i < erasedParams.length; ++i) {
+            erasedParams[i] = Component.class;
+        }
+        MethodType erasedType = MethodType.methodType(EventResult.class, erasedParams);
+        MethodType instantiatedType = handle.type().dropParameterTypes(0, 1);
+        return LambdaMetafactory.metafactory(lookup, "invoke", MethodType.methodType(invokerType, method.getDeclaringClass()),
+                erasedType, handle, instantiatedType).getTarget().invoke(handler);
+    }
+
+    /**
+     * Obtains a lookup with full access to the given class, so an invoker can be defined alongside it. On Java 8 this
+     * uses the private Lookup constructor. From Java 9, MethodHandles.privateLookupIn only grants full access to a class
+     * in the same module as the original lookup, so a lookup is obtained from a provider class defined in the
+     * given class's package, and then moved into the given class.
+     */
+    private static MethodHandles.Lookup fullAccessLookup(Class<?> type) throws ReflectiveOperationException {
+        Method privateLookupIn;
+        try {
+            privateLookupIn = MethodHandles.class.getMethod("privateLookupIn", Class.class, MethodHandles.Lookup.class);
+        } catch (NoSuchMethodException e) {
+            Constructor<MethodHandles.Lookup> constructor = MethodHandles.Lookup.class.getDeclaredConstructor(Class.class, Integer.TYPE);
+            constructor.setAccessible(true);
+            return constructor.newInstance(type, FULL_ACCESS);
+        }
+        MethodHandles.Lookup packageLookup = (MethodHandles.Lookup) privateLookupIn.invoke(null, type, MethodHandles.lookup());
+        MethodHandles.Lookup moduleLookup = (MethodHandles.Lookup) getLookupProvider(type, packageLookup).getMethod("lookup").invoke(null);
+        return (MethodHandles.Lookup) privateLookupIn.invoke(null, type, moduleLookup);
+    }
+
+    /**
+     * @param type          The class to provide lookups alongside
+     * @param packageLookup A lookup with package access to the class
+     * @return A class in the same package and class loader as the given class, with a static lookup() method returning
+     * its own lookup. Defined through Lookup.defineClass (Java 9+) if not already present.
+     */
+    private static synchronized Class<?> getLookupProvider(Class<?> type, MethodHandles.Lookup packageLookup) throws ReflectiveOperationException {
+        String name = type.getName().substring(0, type.getName().lastIndexOf('.') + 1) + LOOKUP_PROVIDER_NAME;
+        try {
+            return Class.forName(name, false, type.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            Method defineClass = MethodHandles.Lookup.class.getMethod("defineClass", byte[].class);
+            return (Class<?>) defineClass.invoke(packageLookup, (Object) createLookupProvider(name.replace('.', '/')));
+        }
+    }
+
+    /**
+     * Creates the class file for a lookup provider, equivalent to compiling:
+     * <pre>
+     * public final class LookupProvider {
+     *     public static MethodHandles.Lookup lookup() {
+     *         return MethodHandles.lookup();
+     *     }
+     * }
+     * </pre>
+     *
+     * @param internalName The internal name of the class, e.g. "org/example/LookupProvider"
+     * @return The class file
+     */
+    private static byte[] createLookupProvider(String internalName) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0); // minor version
+            out.writeShort(52); // major version - Java 8
+            out.writeShort(12); // constant pool count, one more than the number of entries
+            writeUtf8(out, internalName); // #1
+            writeClassRef(out, 1); // #2
+            writeUtf8(out, "java/lang/Object"); // #3
+            writeClassRef(out, 3); // #4
+            writeUtf8(out, "java/lang/invoke/MethodHandles"); // #5
+            writeClassRef(out, 5); // #6
+            writeUtf8(out, "lookup"); // #7
+            writeUtf8(out, "()Ljava/lang/invoke/MethodHandles$Lookup;"); // #8
+            out.writeByte(12); // #9 NameAndType: lookup()
+            out.writeShort(7);
+            out.writeShort(8);
+            out.writeByte(10); // #10 Methodref: MethodHandles.lookup()
+            out.writeShort(6);
+            out.writeShort(9);
+            writeUtf8(out, "Code"); // #11
+            out.writeShort(0x1031); // public final super synthetic
+            out.writeShort(2); // this class
+            out.writeShort(4); // super class
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(1); // methods
+            out.writeShort(0x1009); // public static synthetic
+            out.writeShort(7); // name
+            out.writeShort(8); // descriptor
+            out.writeShort(1); // attributes
+            out.writeShort(11); // Code
+            out.writeInt(16); // attribute length
+            out.writeShort(1); // max stack
+            out.writeShort(0); // max locals
+            out.writeInt(4); // code length
+            out.writeByte(0xB8); // invokestatic #10
+            out.writeShort(10);
+            out.writeByte(0xB0); // areturn
+            out.writeShort(0); // exception table length
+            out.writeShort(0); // code attributes
+            out.writeShort(0); // class attributes
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to write lookup provider", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeUtf8(DataOutputStream out, String value) throws IOException {
+        out.writeByte(1);
+        out.writeUTF(value);
+    }
+
+    private static void writeClassRef(DataOutputStream out, int nameIndex) throws IOException {
+        out.writeByte(7);
+        out.writeShort(nameIndex);
+    }
+
+    private static boolean isVisible(Method method) {
+        if (!isVisible(method.getDeclaringClass())) {
+            return false;
+        }
+        for (Class<?> paramType : method.getParameterTypes()) {
+            if (!isVisible(paramType)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Invokers defined alongside this class can only link against classes visible from its class loader
+     */
+    private static boolean isVisible(Class<?> type) {
+        try {
+            return Class.forName(type.getName(), false, LambdaEventHandlerFactory.class.getClassLoader()) == type;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    private static <T extends Component<T>> T getComponent(EntityRef entity, Class<T> componentType) {
+        return entity.getComponent(componentType).orElseThrow(() -> new EventSystemException("Component unexpectedly missing"));
+    }
+
+    // Invoker interfaces are public so invokers defined alongside handler classes can implement them
+
+    /**
+     * Invoker for methods with 0 component parameters
+     */
+    @FunctionalInterface
+    public interface Invoker0 {
+        EventResult invoke(Event event, EntityRef entity);
+    }
+
+    /**
+     * Invoker for methods with 1 component parameter
+     */
+    @FunctionalInterface
+    public interface Invoker1 {
+        EventResult invoke(Event event, EntityRef entity, Component c1);
+    }
+
+    /**
+     * Invoker for methods with 2 component parameters
+     */
+    @FunctionalInterface
+    public interface Invoker2 {
+        EventResult invoke(Event event, EntityRef entity, Component c1, Component c2);
+    }
+
+    /**
+     * Invoker for methods with 3 component parameters
+     */
+    @FunctionalInterface
+    public interface Invoker3 {
+        EventResult invoke(Event event, EntityRef entity, Component c1, Component c2, Component c3);
+    }
+
+    /**
+     * Invoker for methods with 4 component parameters
+     */
+    @FunctionalInterface
+    public interface Invoker4 {
+        EventResult invoke(Event event, EntityRef entity, Component c1, Component c2, Component c3, Component c4);
+    }
+
+    private static final class Handler0 implements EventHandler {
+        private final Invoker0 invoker;
+
+        Handler0(Invoker0 invoker) {
+            this.invoker = invoker;
+        }
+
+        @Override
+        public EventResult onEvent(Event event, EntityRef entity) {
+            return invoker.invoke(event, entity);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static final class Handler1 implements EventHandler {
+        private final Invoker1 invoker;
+        private final Class c1;
+
+        Handler1(Invoker1 invoker, List<Class<? extends Component>> componentParams) {
+            this.invoker = invoker;
+            this.c1 = componentParams.get(0);
+        }
+
+        @Override
+        public EventResult onEvent(Event event, EntityRef entity) {
+            return invoker.invoke(event, entity, getComponent(entity, c1));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static final class Handler2 implements EventHandler {
+        private final Invoker2 invoker;
+        private final Class c1;
+        private final Class c2;
+
+        Handler2(Invoker2 invoker, List<Class<? extends Component>> componentParams) {
+            this.invoker = invoker;
+            this.c1 = componentParams.get(0);
+            this.c2 = componentParams.get(1);
+        }
+
+        @Override
+        public EventResult onEvent(Event event, EntityRef entity) {
+            return invoker.invoke(event, entity, getComponent(entity, c1), getComponent(entity, c2));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static final class Handler3 implements EventHandler {
+        private final Invoker3 invoker;
+        private final Class c1;
+        private final Class c2;
+        private final Class c3;
+
+        Handler3(Invoker3 invoker, List<Class<? extends Component>> componentParams) {
+            this.invoker = invoker;
+            this.c1 = componentParams.get(0);
+            this.c2 = componentParams.get(1);
+            this.c3 = componentParams.get(2);
+        }
+
+        @Override
+        public EventResult onEvent(Event event, EntityRef entity) {
+            return invoker.invoke(event, entity, getComponent(entity, c1), getComponent(entity, c2), getComponent(entity, c3));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static final class Handler4 implements EventHandler {
+        private final Invoker4 invoker;
+        private final Class c1;
+        private final Class c2;
+        private final Class c3;
+        private final Class c4;
+
+        Handler4(Invoker4 invoker, List<Class<? extends Component>> componentParams) {
+            this.invoker = invoker;
+            this.c1 = componentParams.get(0);
+            this.c2 = componentParams.get(1);
+            this.c3 = componentParams.get(2);
+            this.c4 = componentParams.get(3);
+        }
+
+        @Override
+        public EventResult onEvent(Event event, EntityRef entity) {
+            return invoker.invoke(event, entity, getComponent(entity, c1), getComponent(entity, c2), getComponent(entity, c3), getComponent(entity, c4));
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2019 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.terasology.gestalt.entitysystem.event;
+
+import com.google.common.io.ByteStreams;
+
+import org.junit.Test;
+import org.terasology.gestalt.entitysystem.component.Component;
+import org.terasology.gestalt.entitysystem.component.management.ComponentManager;
+import org.terasology.gestalt.entitysystem.component.store.ArrayComponentStore;
+import org.terasology.gestalt.entitysystem.entity.EntityRef;
+import org.terasology.gestalt.entitysystem.entity.NullEntityRef;
+import org.terasology.gestalt.entitysystem.entity.manager.CoreEntityManager;
+import org.terasology.gestalt.entitysystem.event.impl.ReflectionEventHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.Collections;
+
+import modules.test.TestEvent;
+import modules.test.TestEventReceiver;
+import modules.test.components.Sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LambdaEventReceiverMethodSupportTest extends AbstractEventReceiverMethodSupportTest {
+
+    private LambdaEventHandlerFactory factory = new LambdaEventHandlerFactory();
+
+    @Override
+    protected EventHandlerFactory getEventHandlerFactory() {
+        return factory;
+    }
+
+    @Test
+    public void generatesInvokerForHandler() throws Exception {
+        TrivialEventReceiver receiver = new TrivialEventReceiver();
+        Method method = TrivialEventReceiver.class.getMethod("onEvent", TestEvent.class, EntityRef.class);
+        EventHandler handler = factory.create(receiver, method, Collections.emptyList());
+        assertFalse(handler instanceof ReflectionEventHandler);
+
+        TestEvent event = new TestEvent("test");
+        assertEquals(EventResult.CONTINUE, handler.onEvent(event, NullEntityRef.get()));
+        assertEquals(event, receiver.lastEvent);
+    }
+
+    @Test
+    public void generatesInvokerForHandlerWithComponentParameter() throws Exception {
+        ComponentManager componentManager = new ComponentManager();
+        CoreEntityManager entityManager = new CoreEntityManager(new ArrayComponentStore<>(componentManager.getType(Sample.class)));
+        Sample sample = new Sample();
+        sample.setName("Fred");
+        EntityRef entity = entityManager.createEntity(sample);
+
+        TestEventReceiver receiver = new TestEventReceiver();
+        Method method = TestEventReceiver.class.getMethod("testEventListener", TestEvent.class, EntityRef.class, Sample.class);
+        EventHandler handler = factory.create(receiver, method, Collections.<Class<? extends Component>>singletonList(Sample.class));
+        assertFalse(handler instanceof ReflectionEventHandler);
+
+        assertEquals(EventResult.COMPLETE, handler.onEvent(new TestEvent("test"), entity));
+        assertTrue(receiver.called);
+        assertEquals("Fred", receiver.component.getName());
+    }
+
+    @Test
+    public void handlerFromAnotherClassLoader() throws Exception {
+        ClassLoader isolatingLoader = new IsolatingClassLoader(getClass().getClassLoader(), TrivialEventReceiver.class.getName());
+        Class<?> receiverClass = isolatingLoader.loadClass(TrivialEventReceiver.class.getName());
+        assertNotEquals(TrivialEventReceiver.class, receiverClass);
+
+        Object receiver = receiverClass.newInstance();
+        Method method = receiverClass.getMethod("onEvent", TestEvent.class, EntityRef.class);
+        EventHandler handler = factory.create(receiver, method, Collections.emptyList());
+        assertFalse(handler instanceof ReflectionEventHandler);
+
+        TestEvent event = new TestEvent("test");
+        assertEquals(EventResult.CONTINUE, handler.onEvent(event, NullEntityRef.get()));
+        assertEquals(event, receiverClass.getField("lastEvent").get(receiver));
+    }
+
+    /**
+     * Defines its own copy of a single class, so that class is not visible from the parent class loader
+     */
+    private static class IsolatingClassLoader extends ClassLoader {
+        private final String isolatedClass;
+
+        IsolatingClassLoader(ClassLoader parent, String isolatedClass) {
+            super(parent);
+            this.isolatedClass = isolatedClass;
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.equals(isolatedClass)) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> result = findLoadedClass(name);
+                if (result == null) {
+                    try (InputStream stream = getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+                        byte[] bytes = ByteStreams.toByteArray(stream);
+                        result = defineClass(name, bytes, 0, bytes.length);
+                    } catch (IOException e) {
+                        throw new ClassNotFoundException(name, e);
+                    }
+                }
+                return result;
+            }
+        }
+    }
+}